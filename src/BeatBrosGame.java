@@ -36,6 +36,11 @@
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
@@ -53,14 +58,23 @@ import entities.MissileSprite;
 import entities.NoteSprite;
 import entities.PlayerSprite;
 import entities.Wyrm;
+import entities.WyrmGroup;
 
 import framework.GameMenu;
 import framework.Ribbon;
 import framework.RibbonsManager;
 import framework.ScoreTable;
+import framework.StatusHud;
+import framework.TextLabel;
 import image.ImagesLoader;
+import image.PixelCache;
+import image.RenderQueue;
+import image.SurfaceCache;
 import sound.ClipsLoader;
 import sound.MusicManager;
+import sound.SoundMixer;
+import timing.LoadThreads;
+import timing.StartupTrace;
 
 public class BeatBrosGame extends GameFrame
 {
@@ -68,6 +82,9 @@ public class BeatBrosGame extends GameFrame
 	private static final long serialVersionUID = -2450477630768116721L;
 
 	private static int DEFAULT_FPS = 100;
+	
+	// the highest resolution the game renders at; taller screens get a scaled-up frame
+	private static final int MAX_RENDER_HEIGHT = 1080;
 
 	private int gameState = 0; //the game's state integer (0 = menu, 1 = in-game)
 	private GameMenu gameMenu; //the object that manages the game's menu
@@ -75,10 +92,64 @@ public class BeatBrosGame extends GameFrame
 	private final String IMS_INFO = "imsInfo.txt";
 	private final String SNDS_FILE = "clipsInfo.txt";
 	private final String[] soundNames = {"explo1","explo2","explo3","strum","wyrmcry"};
+	
+	// the images, clips and music are read on this many threads at startup (1 loads them serially)
+	private static final int LOAD_THREADS = LoadThreads.getDefault();
+	
+	// keep the decoded images on disk, so later launches need not decode them again
+	private static final boolean USE_PIXEL_CACHE = true;
+	
+	// the background sets not on screen are evicted when their ribbon copies take more than this;
+	// at 1080 lines the shown and prepared sets take up to 56 MB, and all three sets 68 MB
+	private static final long BACKGROUND_BUDGET = 60L*1024*1024;
+	
+	// mix the sound effects in software into a single audio line, with this many voices
+	private static final boolean USE_SOUND_MIXER = true;
+	private static final int MIXER_VOICES = 16;
+	private static final int EXPLOSION_VOICES = 3; // for each of the explosion sounds
+	
+	// the images the menu needs, loaded before the game loop starts; the rest stream in behind it
+	private final String[] MENU_IMAGES = {"title","keys","staff","staffhowto","boombox","back",
+			"resetScore","blues","maplesheet","road"};
+	
+	// the assets only gameplay needs are loaded on this thread while the menu runs
+	private ExecutorService assetStreamer;
+	private Future<ClipsLoader> gameplayAssets; // the remaining images, then the clips
+	private volatile boolean gameplayReady = false; // set on the game thread
+	private volatile boolean playRequested = false; // Play was clicked; started by simpleUpdate()
+	private long streamStartTime;
+	private StartupTrace.Span gameplaySpan; // from streaming starting until gameplay is ready
+	private boolean startupTraced = false;
+	
+	// the small sprite images packed into the texture atlas, and the ones also packed rotated
+	private final String[] ATLAS_IMAGES = {"note","missile","exploStay","exploMove","blues","wormbody"};
+	private final String[] ATLAS_ROTATED = {"wormhead","wormtail"};
+	private static final int ATLAS_PAGE_SIZE = 512;
+	
+	// mirror the background images into accelerated surfaces, where supported
+	private static final boolean USE_SURFACE_CACHE = true;
+	private SurfaceCache surfaceCache;
+	
+	// without accelerated surfaces, render each frame in parallel bands, one per core;
+	// off until it is shown to be faster than drawing directly (time it with RenderBench -bands)
+	private static final boolean USE_BAND_RENDERING = false;
+	
+	// the sprites are drawn through a render queue, in these layers (each wyrm uses two)
+	private RenderQueue renderQueue = new RenderQueue();
+	private static final int LAYER_PLAYER = 0;
+	private static final int LAYER_NOTES = 1;
+	private static final int LAYER_MISSILES = 2;
+	private static final int LAYER_WYRMS = 3;
+	private static final int LAYER_EXPLOSIONS = LAYER_WYRMS +
+			WyrmGroup.LAYERS_PER_WYRM*BeatBrosGame.MAX_WYRMS;
 
 	// variables for use with font display
 	private Font font;
 	private FontMetrics metrics;
+	
+	// pre-rendered text, re-rendered only when it changes
+	private StatusHud statusHud;
+	private TextLabel goLabel, goScoreLabel, goHighLabel, loadingLabel;
 	private float goMessageOpacity = 0.0f;
 	
 	// the various loaders for game content
@@ -95,7 +166,7 @@ public class BeatBrosGame extends GameFrame
 	// declare the in-game objects
 	private PlayerSprite player; // the player
 	private DefenseField myField; // the defense field
-	private Wyrm stiney = null; // the attacking wyrm
+	private WyrmGroup wyrms; // the attacking wyrms
 	
 	// ArrayLists to contain game objects with duplicates
 	private ArrayList<MissileSprite> missiles = new ArrayList<MissileSprite>();
@@ -113,6 +184,7 @@ public class BeatBrosGame extends GameFrame
 	private final String[] hsStrings = {"Awesome", "Funky", "Bodacious", "Gnarly", "Radical",
 			"Tubular", "Cosmic", "Abundant", "Total"};
 	private final int hsStringsLen = 9;
+	private String[] hsPrefixes;  // "Your <hsString> Score: " for each hsString
 	private String playerName = "YOU!";
 	private BufferedImage harmonica;
 	
@@ -158,6 +230,11 @@ public class BeatBrosGame extends GameFrame
 	//wormTimer (time to create a wyrm, if not generated randomly)
 	private final int wtInit = 3000;
 	private int wTimer = wtInit;
+	//the most wyrms that may attack at once, and the number of difficulty
+	//adjustments between each increase in the wyrms allowed
+	private static final int MAX_WYRMS = 3;
+	private final int stepsPerWyrm = 60;
+	private int dSteps = 0;
 	//difficultyTimer (time to adjust difficulty settings)
 	private final int dtInit = 100;
 	private int dTimer = dtInit;
@@ -187,7 +264,7 @@ public class BeatBrosGame extends GameFrame
      */
 	public BeatBrosGame(long period)
 	{
-		super(period);
+		super(period, MAX_RENDER_HEIGHT);
 	}
 
 	/**
@@ -205,15 +282,29 @@ public class BeatBrosGame extends GameFrame
 		restartArea = new Rectangle(pWidth - 100, pHeight - 45, 70, 15);
 		quitArea = new Rectangle(pWidth - 100, pHeight - 20, 70, 15);
 		
-	    imsLoader = new ImagesLoader(IMS_INFO); 
-	    clipsLoader = new ClipsLoader(SNDS_FILE);
-	    backRibs = new RibbonsManager(0, pWidth, pHeight, baseMoveSize, imsLoader);
+		statusHud = new StatusHud(pWidth, pHeight, font, darkBlueColor, restartArea, quitArea);
+		goLabel = new TextLabel(font, blueColor, "Game Over, Bro.");
+		goScoreLabel = new TextLabel(font, blueColor);
+		goHighLabel = new TextLabel(font, Color.white, "Sweet high score!");
+		loadingLabel = new TextLabel(font, Color.white, "Loading, bro...");
+		hsPrefixes = new String[hsStringsLen];
+		for (int i = 0; i < hsStringsLen; i++)
+			hsPrefixes[i] = "Your " + hsStrings[i] + " Score: ";
+		
+	    imsLoader = new ImagesLoader(IMS_INFO, LOAD_THREADS, new PixelCache(USE_PIXEL_CACHE),
+	    		MENU_IMAGES); 
+	    backRibs = new RibbonsManager(0, pWidth, pHeight, baseMoveSize, imsLoader, BACKGROUND_BUDGET);
 	    backRibs.moveLeft();
+	    surfaceCache = new SurfaceCache(getGraphicsConfiguration(), USE_SURFACE_CACHE);
+	    backRibs.setSurfaceCache(surfaceCache);
 	    statusBar = new Ribbon(pWidth, pHeight, imsLoader.getImage( "road" ), 0, baseMoveSize );
 	    statusBar.moveLeft();
+	    statusBar.setSurfaceCache(surfaceCache);
+	    if (USE_BAND_RENDERING && !surfaceCache.isEnabled())
+	    	setBandRendering(Runtime.getRuntime().availableProcessors());
 	    
-		//start game music
-	    musicMan = new MusicManager();
+		//start game music, once it has been streamed in
+	    musicMan = new MusicManager(LOAD_THREADS, false);
 	    musicMan.start();   // repeatedly play it
 
 	    scoreTable = new ScoreTable();
@@ -221,12 +312,96 @@ public class BeatBrosGame extends GameFrame
 	    highScore = scoreTable.getScore(0);
 	    // set gameOverMessage adjective value
 	    hsStringNum = new Random().nextInt(hsStringsLen);
-	    harmonica = imsLoader.getImage("harmonica");
 	    
-		// create game components
+		// create the game components shown with the menu; the rest wait for readyGameplay()
 		player = new PlayerSprite(pWidth, pHeight, baseHeight, imsLoader);
 		player.loopImage( (int)(period/1000000L), 0.5);
 		myField = new DefenseField(pWidth, pHeight, imsLoader);
+		
+		// stream in the other images, the clips, and the music
+		startStreaming();
+	}
+	
+	/**
+	 * startStreaming loads the assets the menu does not need on a
+	 * background thread, behind the game loop: the rest of the images
+	 * (then packing the texture atlas) and the sound clips, followed
+	 * by the music.  The ImagesLoader belongs to that thread until
+	 * gameplayAssets is done, so this is called once everything shown
+	 * with the menu has taken its images.
+	 */
+	private void startStreaming()
+	{
+		streamStartTime = System.nanoTime();
+		gameplaySpan = StartupTrace.begin("startup", "gameplay ready");
+		assetStreamer = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Asset Streamer");
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY-1); // let the game loop go first
+				return t;
+			}
+		});
+		
+		gameplayAssets = assetStreamer.submit(new Callable<ClipsLoader>()
+		{
+			public ClipsLoader call()
+			{
+				imsLoader.loadRemaining();
+				imsLoader.packAtlas(ATLAS_IMAGES, ATLAS_ROTATED, Wyrm.NUM_DIRS, ATLAS_PAGE_SIZE);
+				ClipsLoader cl = new ClipsLoader(SNDS_FILE, LOAD_THREADS,
+						new SoundMixer(USE_SOUND_MIXER, MIXER_VOICES));
+				for (int i = 0; i < 3; i++)
+					cl.setVoiceLimit(soundNames[i], EXPLOSION_VOICES);
+				cl.setVoiceLimit(soundNames[4], 1); // one wyrm cry at a time
+				return cl;
+			}
+		});
+		assetStreamer.execute(new Runnable()
+		{
+			public void run()
+			{
+				musicMan.load();
+			}
+		});
+		assetStreamer.shutdown(); // the thread ends once the music is loaded
+	}
+	
+	/**
+	 * readyGameplay finishes setting up the game, on the game thread,
+	 * once the streamed images and clips are loaded: binding the
+	 * sprites to their images, and creating the wyrms.  If Play was
+	 * clicked while waiting, simpleUpdate() starts the game next.
+	 */
+	private void readyGameplay()
+	{
+		try
+		{
+			clipsLoader = gameplayAssets.get();
+		}
+		catch (Exception e)
+		{
+			System.out.println("Could not load the game's assets: " + e);
+			e.printStackTrace();
+			running = false;
+			return;
+		}
+		
+	    MissileSprite.bindImages(imsLoader);
+	    NoteSprite.bindImages(imsLoader);
+	    harmonica = imsLoader.getImage("harmonica");
+		wyrms = new WyrmGroup(MAX_WYRMS, pWidth, pHeight, pHeight-baseHeight, myField, imsLoader);
+		
+		// the player's images have been packed into the atlas since it was created
+		player.setImage("blues");
+		player.loopImage( (int)(period/1000000L), 0.5);
+		
+		gameplayReady = true;
+		gameplaySpan.end();
+		System.out.println("Gameplay assets ready " +
+				(System.nanoTime() - streamStartTime)/1000000L + " ms after streaming began");
 	}
 
 	/**
@@ -264,11 +439,13 @@ public class BeatBrosGame extends GameFrame
 				iTimer = itInit;
 				wTimer = wtInit;
 				dTimer = dtInit;
+				dSteps = 0;
 				
 				//reset all game objects
 				myField.clear();
 				player.reset();
-				stiney = null;
+				wyrms.clear();
+				wyrms.setLimit(1);
 				missiles.clear();
 				explosions.clear();
 				inkRefills.clear();
@@ -295,9 +472,8 @@ public class BeatBrosGame extends GameFrame
 							mouseDone = true;
 						}
 					}
-					if (!mouseDone && stiney != null && stiney.nearHead(mouseX, mouseY))
+					if (!mouseDone && wyrms.killAt(mouseX, mouseY))
 					{
-						stiney = null;
 						score += wyrmScore;
 						mouseDone = true;
 					}
@@ -317,7 +493,7 @@ public class BeatBrosGame extends GameFrame
 			if (toDo == 1)
 				running = false;
 			else if (toDo == 2)
-				gameState = 1;
+				playRequested = true; // started on the game thread, once gameplay is ready
 			else if (toDo == 3)
 				highScore = scoreTable.getScore(0);
 		}
@@ -377,26 +553,30 @@ public class BeatBrosGame extends GameFrame
 	protected void simpleRender(Graphics gScr) {
 
 		//draw the background
+		surfaceCache.beginFrame();
 		backRibs.display(gScr);
 		
-		// draw game elements		
-		player.drawSprite(gScr);
+		// draw game elements, batched through the render queue; the
+		// queue is flushed before the field, which is drawn over them
+		player.submitSprite(renderQueue, LAYER_PLAYER);
 		
 		for ( int i = 0; i < inkRefills.size(); i++ )
-			inkRefills.get(i).drawSprite(gScr);
+			inkRefills.get(i).submitSprite(renderQueue, LAYER_NOTES);
 		for ( int i = 0; i < missiles.size(); i++ )
-			missiles.get(i).drawSprite(gScr);
+			missiles.get(i).submitSprite(renderQueue, LAYER_MISSILES);
+		renderQueue.flush(gScr);
 		
 		if (gameState == 0)
 			myField.draw(gScr, false);
 		else
 			myField.draw(gScr, true);
 		
-		if (stiney != null)
-			stiney.draw(gScr);
+		if (wyrms != null)
+			wyrms.submit(renderQueue, LAYER_WYRMS);
 		
 		for ( int i = 0; i < explosions.size(); i++ )
-			explosions.get(i).drawSprite(gScr);
+			explosions.get(i).submitSprite(renderQueue, LAYER_EXPLOSIONS);
+		renderQueue.flush(gScr);
 		
 		if(gameState == 1)
 		{
@@ -420,22 +600,16 @@ public class BeatBrosGame extends GameFrame
 
 		if(gameState == 1)
 		{
-		// report time used, score, and remaining paint at bottom left
-		gScr.setColor( Color.white );
-		gScr.drawString("Score: " + score, 20, pHeight - 35);
-		gScr.drawString("High Score: " + highScore, 20, pHeight - 10);
-		gScr.drawString("Energy: ", 230, pHeight - 20);
-		
-		gScr.setColor(Color.black);
-		gScr.fillRect(300, pHeight-45, 200, 30);
-		gScr.setColor(darkBlueColor);
-		gScr.fillRect(302, pHeight-43, (int)(196*(((double)paintAmount)/paintMax)), 26);
-
-		// draw the restart and quit 'buttons'
-		drawButtons(gScr);
+		// report score and remaining paint at bottom left, and draw the 'buttons'
+		statusHud.draw(gScr, score, highScore, paintAmount, paintMax,
+				isOverRestartButton, isOverQuitButton);
 		}
 		else
+		{
 			gameMenu.displayMenu(gScr);
+			if (playRequested)
+				loadingLabel.draw(gScr, (pWidth - loadingLabel.getWidth())/2, pHeight/2);
+		}
 		
 		//gScr.setColor(Color.blue);
 	    // report frame count & average FPS and UPS at top left
@@ -447,36 +621,6 @@ public class BeatBrosGame extends GameFrame
 
 	} // end of simpleRender()
 
-	/**
-	 * drawButtons draws the game buttons (for Restart and
-	 * Quit) to the screen.
-	 * 
-	 * @param g the Graphics object to draw to.
-	 */
-	private void drawButtons(Graphics g) {
-		g.setColor(Color.black);
-
-		// draw the restart 'button'
-		if (isOverRestartButton)
-			g.setColor(Color.white);
-
-		g.drawOval(restartArea.x, restartArea.y, restartArea.width, restartArea.height);
-		g.drawString("Restart", restartArea.x+4, restartArea.y + 10);
-		
-		if (isOverRestartButton)
-			g.setColor(Color.black);
-
-		// draw the quit 'button'
-		if (isOverQuitButton)
-			g.setColor(Color.white);
-
-		g.drawOval(quitArea.x, quitArea.y, quitArea.width, quitArea.height);
-		g.drawString("Menu", quitArea.x + 10, quitArea.y + 10);
-
-		if (isOverQuitButton)
-			g.setColor(Color.black);
-	} // drawButtons()
-
 	/**
 	 * gameOverMessage draws an ending message to the
 	 * screen when called.  Additional functionality is
@@ -492,11 +636,9 @@ public class BeatBrosGame extends GameFrame
 		g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
 				goMessageOpacity));
 
-		String msg1 = "Game Over, Bro.";
-		String msg2 =  "Your " + hsStrings[hsStringNum] + " Score: " + score;
-		String msg3 =  "Sweet high score!";
+		goScoreLabel.setNumber(hsPrefixes[hsStringNum], score);
 		
-		int x = (pWidth - metrics.stringWidth(msg1)) / 2;
+		int x = (pWidth - goLabel.getWidth()) / 2;
 		int y = (pHeight - metrics.getHeight()) / 2;
 		
 		if(harmonica != null)
@@ -506,22 +648,18 @@ public class BeatBrosGame extends GameFrame
 		else
 		{
 			g.setColor(Color.black);
-			g.fillRect(x-20, y-25, metrics.stringWidth(msg1)+40, 60);
+			g.fillRect(x-20, y-25, goLabel.getWidth()+40, 60);
 		}
 		
-		g.setColor(blueColor);
-		g.setFont(font);
-		g.drawString(msg1, x, y);
+		goLabel.draw(g, x, y);
 		
-		x = (pWidth - metrics.stringWidth(msg2)) / 2;
-		g.drawString(msg2, x, y+25);
+		x = (pWidth - goScoreLabel.getWidth()) / 2;
+		goScoreLabel.draw(g, x, y+25);
 		
 		if(hsBroken)
 		{
-			x = (pWidth - metrics.stringWidth(msg3)) / 2;
-			
-			g.setColor(Color.white);
-			g.drawString(msg3, x, y+50);
+			x = (pWidth - goHighLabel.getWidth()) / 2;
+			goHighLabel.draw(g, x, y+50);
 		}
 		
 		goMessageOpacity += 0.05f;
@@ -557,7 +695,7 @@ public class BeatBrosGame extends GameFrame
 	{
 		boolean noDraw = false; //don't draw if something is in the way
 
-		if( stiney!=null && (stiney.nearHead(mouseX, mouseY) || stiney.touchedAt(mouseX, mouseY)))
+		if( wyrms.nearHead(mouseX, mouseY) || wyrms.touchedAt(mouseX, mouseY))
 			noDraw = true;
 		
 		if(!noDraw)
@@ -613,9 +751,10 @@ public class BeatBrosGame extends GameFrame
 				else
 					missiles.get(i).updateSprite();
 			}
+			// apply this update's explosion damage in one pass
+			myField.flushErases();
 	
-			if (stiney != null)
-				stiney.move();
+			wyrms.move();
 		}
 		backRibs.update();
 		statusBar.update();
@@ -664,17 +803,17 @@ public class BeatBrosGame extends GameFrame
 			iTimer = itBetween;
 		}
 		
-	//manage wyrm
-		if(stiney == null) {
+	//manage wyrms
+		if(!wyrms.isFull()) {
 			if (rand.nextInt(oddsOfWyrm) == 0) {
-				stiney = new Wyrm(pWidth, pHeight, pHeight-baseHeight, myField, imsLoader);
+				wyrms.spawn();
 				wTimer = 3000;
 				clipsLoader.play(soundNames[4], false);
 			}
 			else if( wTimer > 0 )
 				--wTimer;
 			else {
-				stiney = new Wyrm(pWidth, pHeight, pHeight-baseHeight, myField, imsLoader);
+				wyrms.spawn();
 				wTimer = 3000;
 			}
 		}
@@ -693,6 +832,10 @@ public class BeatBrosGame extends GameFrame
 			
 			if (oddsOfWyrm > 10000)
 				oddsOfWyrm -= 500;
+			
+			// let more wyrms attack at once as time goes on
+			if (++dSteps % stepsPerWyrm == 0)
+				wyrms.setLimit(wyrms.getLimit()+1);
 			dTimer = dtInit;
 		}
 		
@@ -714,6 +857,19 @@ public class BeatBrosGame extends GameFrame
 	@Override
 	protected void simpleUpdate()
 	{
+		if (!gameplayReady && gameplayAssets.isDone())
+			readyGameplay();
+		if (playRequested && gameplayReady)
+		{
+			playRequested = false;
+			gameState = 1;
+		}
+		if (!startupTraced && gameplayReady && assetStreamer.isTerminated())
+		{
+			StartupTrace.finish(); // the music has been streamed in as well
+			startupTraced = true;
+		}
+		
 		if (gameState == 1)
 			doPaint(); // Manage the screen painting
 			
@@ -721,7 +877,7 @@ public class BeatBrosGame extends GameFrame
 		
 		if (gameState == 1)
 		{
-			if (player.isHit(explosions, stiney)) // Was the player hit?
+			if (player.isHit(explosions, wyrms)) // Was the player hit?
 			{
 				gameOver = true;
 				scoreTable.addEntry(score, playerName);
@@ -731,6 +887,25 @@ public class BeatBrosGame extends GameFrame
 		}
 	} //end of simpleUpdate()
 
+	/**
+	 * printGameStats reports how the surface cache was used, the
+	 * memory held by the images, and how the sound mixer's voices
+	 * were used.
+	 */
+	@Override
+	protected void printGameStats()
+	{
+		if (surfaceCache != null)
+			System.out.println("Surface Cache Hits/Restores/Fallbacks: " + surfaceCache.getHits()
+					+ " / " + surfaceCache.getRestores() + " / " + surfaceCache.getFallbacks());
+		if (imsLoader != null && gameplayReady) // until then, the images are still streaming in
+			System.out.println("Preloaded images: " + (imsLoader.getResidentBytes()/1024) + " KB");
+		if (backRibs != null)
+			System.out.println("Background images: " + backRibs.getResidency().getStats());
+		if (clipsLoader != null && clipsLoader.getMixer() != null)
+			System.out.println("Sound mixer: " + clipsLoader.getMixer().getStats());
+	}
+
 	/**
 	 * The main method for the game; creates a MissileGame object
 	 * to run the game.
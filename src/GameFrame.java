@@ -13,10 +13,13 @@ import java.awt.BufferCapabilities;
 import java.awt.Color;
 import java.awt.DisplayMode;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
+import java.awt.Image;
 import java.awt.ImageCapabilities;
+import java.awt.RenderingHints;
 import java.awt.Window;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
@@ -24,9 +27,15 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import javax.swing.JFrame;
 import framework.ScoreTable;
+import image.BandRenderer;
+import image.RecordingGraphics;
+import timing.StartupTrace;
 
 public abstract class GameFrame extends JFrame implements Runnable
 {
@@ -49,7 +58,8 @@ public abstract class GameFrame extends JFrame implements Runnable
 	private static int NUM_FPS = 10;
 	// number of FPS values stored to get an average
 
-	protected int pWidth, pHeight; // panel dimensions
+	protected int pWidth, pHeight; // panel dimensions, as the game is rendered
+	private int screenWidth, screenHeight; // the screen's dimensions
 
 	private Thread animator; // the thread that performs the animation
 	protected boolean running = false; // used to stop the animation thread
@@ -79,6 +89,10 @@ public abstract class GameFrame extends JFrame implements Runnable
 	protected double averageUPS = 0.0;
 	private DecimalFormat df = new DecimalFormat("0.##"); // 2 dp
 
+	// how often the buffer strategy lost, or restored, its contents
+	private long contentsLostCount = 0;
+	private long contentsRestoredCount = 0;
+
 	// used at game termination
 	protected boolean gameOver = false;
 
@@ -89,12 +103,41 @@ public abstract class GameFrame extends JFrame implements Runnable
 	
 	//define the background color
 	private Color bkgrndColor= new Color(72, 244, 255);
+	
+	// set by the F11 key; the next frame is recorded to a file for RenderBench
+	private volatile boolean recordRequested = false;
+	private int recordCount = 0;
+	
+	// renders each frame in parallel bands, if set by setBandRendering()
+	private BandRenderer bandRenderer = null;
+	
+	// the game's highest render height; a taller screen gets a scaled-up frame
+	private int maxRenderHeight;
+	private VolatileImage renderBuffer = null; // the frame, when it is scaled
 
 	public GameFrame(long period)
+	{
+		this(period, 0);
+	}
+
+	/**
+	 * Creates the game, rendering it at no more than maxHeight pixels
+	 * high.  On a taller screen, each frame is rendered at that height
+	 * (and the width giving the screen's shape) into an offscreen
+	 * buffer, which is then scaled to fill the screen, so the rendering
+	 * cost does not grow with the screen size.
+	 * 
+	 * @param period the period between frames, in nanosecs
+	 * @param maxHeight the highest render height, or 0 for the screen's
+	 */
+	public GameFrame(long period, int maxHeight)
 	{
 		this.period = period;
+		maxRenderHeight = maxHeight;
 
+		StartupTrace.Span span = StartupTrace.begin("startup", "initFullScreen");
 		initFullScreen();
+		span.end();
 		
 		simpleInitialize();
 		
@@ -104,7 +147,7 @@ public abstract class GameFrame extends JFrame implements Runnable
 		{
 			public void mousePressed(MouseEvent e)
 			{
-				mousePress(e.getX(), e.getY());
+				mousePress(toRenderX(e.getX()), toRenderY(e.getY()));
 			}
 			public void mouseReleased(MouseEvent e)
 			{
@@ -116,14 +159,14 @@ public abstract class GameFrame extends JFrame implements Runnable
 		{
 			public void mouseMoved(MouseEvent e)
 			{
-				mouseX = e.getX();
-				mouseY = e.getY();
-				mouseMove(e.getX(), e.getY());
+				mouseX = toRenderX(e.getX());
+				mouseY = toRenderY(e.getY());
+				mouseMove(mouseX, mouseY);
 			}
 			public void mouseDragged(MouseEvent e)
 			{
-				mouseX = e.getX();
-				mouseY = e.getY();
+				mouseX = toRenderX(e.getX());
+				mouseY = toRenderY(e.getY());
 			}
 		});
 		
@@ -142,6 +185,8 @@ public abstract class GameFrame extends JFrame implements Runnable
 				else if ((keyCode == KeyEvent.VK_W)
 						|| (keyCode == KeyEvent.VK_UP))
 					keyPressGame(6);
+				else if (keyCode == KeyEvent.VK_F11)
+					recordRequested = true;
 			}
 			public void keyReleased(KeyEvent e) {
 				int keyCode = e.getKeyCode();
@@ -198,11 +243,39 @@ public abstract class GameFrame extends JFrame implements Runnable
 
 		reportCapabilities();
 
-		pWidth = getBounds().width;
-		pHeight = getBounds().height;
+		screenWidth = getBounds().width;
+		screenHeight = getBounds().height;
+		if (maxRenderHeight > 0 && screenHeight > maxRenderHeight)
+		{
+			pHeight = maxRenderHeight;
+			pWidth = (int)Math.round((double)screenWidth*pHeight/screenHeight);
+			System.out.println("Rendering at " + pWidth + "x" + pHeight
+					+ ", scaled to " + screenWidth + "x" + screenHeight);
+		}
+		else
+		{
+			pWidth = screenWidth;
+			pHeight = screenHeight;
+		}
 
 		setBufferStrategy();
 	} // end of initFullScreen()
+	
+	/**
+	 * Converts a screen x-coordinate to the rendered frame's.
+	 */
+	private int toRenderX(int x)
+	{
+		return (pWidth == screenWidth) ? x : x*pWidth/screenWidth;
+	}
+	
+	/**
+	 * Converts a screen y-coordinate to the rendered frame's.
+	 */
+	private int toRenderY(int y)
+	{
+		return (pHeight == screenHeight) ? y : y*pHeight/screenHeight;
+	}
 
 	private void reportCapabilities()
 	{
@@ -311,11 +384,19 @@ public abstract class GameFrame extends JFrame implements Runnable
 		beforeTime = gameStartTime;
 
 		running = true;
+		StartupTrace.Span firstFrame = StartupTrace.begin("startup", "first frame");
 
 		while (running)
 		{
 			gameUpdate();
 			screenUpdate();
+			if (firstFrame != null)
+			{
+				// the menu is up; the trace goes on until the streamed assets are loaded
+				firstFrame.end();
+				firstFrame = null;
+				StartupTrace.firstFrame();
+			}
 
 			afterTime = System.nanoTime();
 			timeDiff = afterTime - beforeTime;
@@ -372,27 +453,150 @@ public abstract class GameFrame extends JFrame implements Runnable
 	 */
 	private void gameRender(Graphics gScr)
 	{
-		// clear the background
-		gScr.setColor(bkgrndColor);
-		gScr.fillRect(0, 0, pWidth, pHeight);
-
-		simpleRender(gScr);
+		if (bandRenderer != null)
+		{
+			Graphics2D g = bandRenderer.begin();
+			renderFrame(g);
+			g.dispose();
+			present(gScr, bandRenderer.end());
+		}
+		else if (pWidth != screenWidth || pHeight != screenHeight)
+		{
+			// the buffer's contents can be lost while it is drawn; if so, draw it again
+			do
+			{
+				validateRenderBuffer();
+				Graphics g = renderBuffer.getGraphics();
+				renderFrame(g);
+				g.dispose();
+			} while (renderBuffer.contentsLost());
+			present(gScr, renderBuffer);
+		}
+		else
+			renderFrame(gScr);
 	} // end of gameRender()
+	
+	/**
+	 * Draws a rendered frame to the screen, scaling it to fit if the
+	 * game renders at a lower resolution.
+	 */
+	private void present(Graphics gScr, Image frame)
+	{
+		if (pWidth == screenWidth && pHeight == screenHeight)
+			gScr.drawImage(frame, 0, 0, null);
+		else
+		{
+			((Graphics2D)gScr).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			gScr.drawImage(frame, 0, 0, screenWidth, screenHeight, null);
+		}
+	} // end of present()
+	
+	/**
+	 * Makes sure the offscreen buffer for scaled frames exists and is
+	 * usable; its contents do not matter, as each frame redraws it
+	 * (and redraws it again if they are lost before it is shown).
+	 */
+	private void validateRenderBuffer()
+	{
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (renderBuffer == null
+				|| renderBuffer.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE)
+		{
+			if (renderBuffer != null)
+				renderBuffer.flush();
+			renderBuffer = gc.createCompatibleVolatileImage(pWidth, pHeight);
+		}
+	} // end of validateRenderBuffer()
+	
+	/**
+	 * Draws a frame, recording it first if that was asked for.
+	 */
+	private void renderFrame(Graphics g)
+	{
+		if (recordRequested)
+			recordFrame((Graphics2D)g);
+		else
+			renderScene(g);
+	} // end of renderFrame()
+	
+	/**
+	 * Clears the background and draws the game.
+	 */
+	private void renderScene(Graphics g)
+	{
+		g.setColor(bkgrndColor);
+		g.fillRect(0, 0, pWidth, pHeight);
+
+		simpleRender(g);
+	} // end of renderScene()
+	
+	/**
+	 * setBandRendering makes each frame render in the given number of
+	 * horizontal bands in parallel, into an offscreen image which is
+	 * then drawn to the screen.  This only pays off when Java2D renders
+	 * in software; fewer than two bands renders directly.
+	 * 
+	 * @param numBands the number of bands
+	 */
+	protected void setBandRendering(int numBands)
+	{
+		if (numBands < 2)
+			bandRenderer = null;
+		else
+			bandRenderer = new BandRenderer(getGraphicsConfiguration(), pWidth, pHeight, numBands);
+	} // end of setBandRendering()
+	
+	/**
+	 * recordFrame renders a frame as usual, while recording its
+	 * drawing commands, and saves them to frameN.rec, to be replayed
+	 * by image.RenderBench.  Saving stalls the game for a moment.
+	 */
+	private void recordFrame(Graphics2D g)
+	{
+		recordRequested = false;
+		RecordingGraphics rec = new RecordingGraphics(g, pWidth, pHeight);
+		renderScene(rec);
+		
+		File f = new File("frame" + (++recordCount) + ".rec");
+		try
+		{
+			rec.getRecording().save(f);
+			System.out.println("Recorded frame to " + f + ": " + rec.getRecording());
+		}
+		catch (IOException e)
+		{
+			System.out.println("Could not save " + f + ": " + e);
+		}
+	} // end of recordFrame()
 
 	private void screenUpdate()
 	{
 		// use active rendering
 		try
 		{
-			gScr = bufferStrategy.getDrawGraphics();
-			gameRender(gScr);
-			gScr.dispose();
-		
-			if (!bufferStrategy.contentsLost())
-				bufferStrategy.show();
-			else
-				System.out.println("Contents Lost");
+			/* The buffer's contents may be lost (or restored, and so need
+			 * drawing again) while rendering; in either case the frame is
+			 * rendered again rather than shown incomplete.
+			 */
+			boolean restored;
+			do
+			{
+				do
+				{
+					gScr = bufferStrategy.getDrawGraphics();
+					gameRender(gScr);
+					gScr.dispose();
+					restored = bufferStrategy.contentsRestored();
+					if (restored)
+						contentsRestoredCount++;
+				} while (restored);
 			
+				if (!bufferStrategy.contentsLost())
+					bufferStrategy.show();
+				else
+					contentsLostCount++;
+			} while (bufferStrategy.contentsLost());
 		}
 		catch (Exception e)
 		{
@@ -513,6 +717,11 @@ public abstract class GameFrame extends JFrame implements Runnable
 		System.out.println("Average FPS: " + df.format(averageFPS));
 		System.out.println("Average UPS: " + df.format(averageUPS));
 		System.out.println("Time Spent: " + timeSpentInGame + " secs");
+		System.out.println("Buffer Contents Lost/Restored: " + contentsLostCount
+				+ " / " + contentsRestoredCount);
+		if (bandRenderer != null)
+			System.out.println("Band Rendering: " + bandRenderer.getStats());
+		printGameStats();
 	} // end of printStats()
 
 	private void restoreScreen()
@@ -624,6 +833,14 @@ public abstract class GameFrame extends JFrame implements Runnable
 
 	protected abstract void simpleUpdate();
 
+	/**
+	 * Prints any game specific statistics when the game ends;
+	 * by default there are none.
+	 */
+	protected void printGameStats()
+	{
+	}
+
 	/**
 	 * This just gets called when a click occurs, no default behavior
 	 */
@@ -0,0 +1,217 @@
+package assets;
+
+// AssetIndex.java
+// Anton Ridgway
+
+/* An AssetIndex is the compiled form of an asset manifest (the
+   Imagesfile imsInfo.txt, or the sounds file clipsInfo.txt), made by
+   ManifestCompiler when the game is built. It is stored next to the
+   manifest, with the extension ".idx" in place of ".txt".
+
+   The loaders read the index instead of parsing the manifest, so
+   they skip the tokenizing, and know that every file it names was
+   there, and readable, when the game was built.
+
+   Each Entry is one line of the manifest:
+     - its kind: the Imagesfile's command letter ('o', 'l', 'n',
+       's' or 'g'), or 'c' for a clip;
+     - its name: the name the images or clip are stored under;
+     - the number from an 'n' or 's' line, or a clip's length in ms;
+     - the files it names, in order (for an 'n' line, the pattern
+       with the '*' is stored, followed by the numbered files);
+     - the width and height of each file's image, or of each frame
+       for a strip (0 for a clip, or for the pattern of an 'n' line).
+       ImagesLoader checks each image it decodes against these, so
+       an image changed since the index was built is reported.
+
+   The index holds the CRC32 of the manifest it was compiled from.
+   load() only returns the index if the manifest still matches, so
+   an edited manifest is parsed as before until the index is built
+   again.
+
+   Format (a DataOutputStream):
+     int MAGIC, int VERSION, long manifest CRC32, int entry count,
+     then each entry:
+       byte kind, UTF name, int number, int file count,
+       and for each file: UTF filename, int width, int height
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+public class AssetIndex
+{
+  private final static int MAGIC = 0x42424149;   // "BBAI"
+  private final static int VERSION = 1;
+
+  private long manifestCrc;
+  private ArrayList<Entry> entries = new ArrayList<Entry>();
+
+
+  public static class Entry
+  {
+    public final char kind;
+    public final String name;
+    public final int number;
+    public final String[] files;
+    public final int[] widths, heights;
+
+    public Entry(char kind, String name, int number,
+                 String[] files, int[] widths, int[] heights)
+    { this.kind = kind;
+      this.name = name;
+      this.number = number;
+      this.files = files;
+      this.widths = widths;
+      this.heights = heights;
+    }
+  }  // end of Entry class
+
+
+  public AssetIndex(long manifestCrc)
+  {  this.manifestCrc = manifestCrc;  }
+
+
+  public void add(Entry e)
+  {  entries.add(e);  }
+
+
+  public List<Entry> getEntries()
+  {  return Collections.unmodifiableList(entries);  }
+
+
+  public static ArrayList<String> getFiles(List<Entry> entries)
+  /* Every file named by the entries which is loaded with them, in
+     order, without repeats, the patterns of 'n' lines, or the
+     files of 'l' lines (which are loaded on demand). */
+  {
+    LinkedHashSet<String> fnms = new LinkedHashSet<String>();
+    for (Entry e : entries)
+      if (e.kind != 'l')
+        for (int i = (e.kind == 'n') ? 1 : 0; i < e.files.length; i++)
+          fnms.add(e.files[i]);
+    return new ArrayList<String>(fnms);
+  }  // end of getFiles()
+
+
+
+  // ----------------------- reading ----------------------------
+
+
+  public static String indexName(String manifestFnm)
+  // the index's filename for the manifest
+  {
+    int dotPosn = manifestFnm.lastIndexOf(".");
+    return ((dotPosn == -1) ? manifestFnm : manifestFnm.substring(0, dotPosn)) + ".idx";
+  }
+
+
+  public static AssetIndex load(Class<?> c, String manifestFnm)
+  /* Return the index for the manifest resource manifestFnm (relative
+     to c), or null if there is none, or it is out of date or
+     unreadable, in which case the manifest should be parsed. */
+  {
+    InputStream idxIn = c.getResourceAsStream( indexName(manifestFnm) );
+    if (idxIn == null)
+      return null;
+    try {
+      DataInputStream dis = new DataInputStream( new BufferedInputStream(idxIn));
+      try {
+        InputStream in = c.getResourceAsStream(manifestFnm);
+        if (in == null)
+          throw new FileNotFoundException(manifestFnm);
+        long crc = checksum(in);
+
+        AssetIndex index = read(dis);
+        if (index.manifestCrc != crc) {
+          System.out.println(indexName(manifestFnm) + " is out of date; parsing " + manifestFnm);
+          return null;
+        }
+        return index;
+      }
+      finally {
+        dis.close();
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Could not read " + indexName(manifestFnm) + ": " + e);
+      return null;
+    }
+  }  // end of load()
+
+
+  private static AssetIndex read(DataInputStream dis) throws IOException
+  {
+    if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION))
+      throw new IOException("not an asset index, or the wrong version");
+    AssetIndex index = new AssetIndex( dis.readLong() );
+    int numEntries = dis.readInt();
+    for (int i = 0; i < numEntries; i++) {
+      char kind = (char) dis.readByte();
+      String name = dis.readUTF();
+      int number = dis.readInt();
+      int numFiles = dis.readInt();
+      String[] files = new String[numFiles];
+      int[] widths = new int[numFiles];
+      int[] heights = new int[numFiles];
+      for (int j = 0; j < numFiles; j++) {
+        files[j] = dis.readUTF();
+        widths[j] = dis.readInt();
+        heights[j] = dis.readInt();
+      }
+      index.add( new Entry(kind, name, number, files, widths, heights) );
+    }
+    return index;
+  }  // end of read()
+
+
+
+  // ----------------------- writing ----------------------------
+
+
+  public void save(File f) throws IOException
+  {
+    DataOutputStream dos = new DataOutputStream(
+                   new BufferedOutputStream( new FileOutputStream(f)));
+    try {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeLong(manifestCrc);
+      dos.writeInt(entries.size());
+      for (Entry e : entries) {
+        dos.writeByte(e.kind);
+        dos.writeUTF(e.name);
+        dos.writeInt(e.number);
+        dos.writeInt(e.files.length);
+        for (int j = 0; j < e.files.length; j++) {
+          dos.writeUTF(e.files[j]);
+          dos.writeInt(e.widths[j]);
+          dos.writeInt(e.heights[j]);
+        }
+      }
+    }
+    finally {
+      dos.close();
+    }
+  }  // end of save()
+
+
+  public static long checksum(InputStream in) throws IOException
+  // the CRC32 of all of in, which is closed afterwards
+  {
+    CRC32 crc = new CRC32();
+    byte[] buf = new byte[8192];
+    int n;
+    try {
+      while ((n = in.read(buf)) != -1)
+        crc.update(buf, 0, n);
+    }
+    finally {
+      in.close();
+    }
+    return crc.getValue();
+  }  // end of checksum()
+
+}  // end of AssetIndex class
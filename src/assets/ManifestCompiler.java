@@ -0,0 +1,407 @@
+package assets;
+
+// ManifestCompiler.java
+// Anton Ridgway
+
+/* ManifestCompiler is run when the game is built. It checks the
+   asset manifests against the files they name, and compiles each
+   one into an AssetIndex, which the loaders read at startup in
+   place of the manifest.
+
+   Usage:
+      java assets.ManifestCompiler [-check] [<root>]
+
+   <root> is the directory holding the game's packages and resources
+   (the current directory by default). The manifests compiled are the
+   Imagesfile, image/Images/imsInfo.txt, and the sounds file,
+   sound/Sounds/clipsInfo.txt. With -check, the manifests are only
+   checked, and no index is written.
+
+   These are errors, which stop any index being written, and make
+   the compiler exit with status 1, failing the build:
+     - a line with an unknown command, or the wrong number of
+       arguments, or a number which is not a number
+     - a name used twice
+     - a file which is missing, or cannot be read as an image
+       (or sound clip)
+     - an 'n' filename without a '*'
+     - a strip whose width is not a multiple of its number of images
+
+   Clips lasting no more than a second, which may not play, and
+   files in the resource directories which no manifest names, are
+   reported as warnings.
+*/
+
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+import javax.sound.sampled.*;
+
+
+public class ManifestCompiler
+{
+  private final static String IMAGES_MANIFEST = "image/Images/imsInfo.txt";
+  private final static String CLIPS_MANIFEST = "sound/Sounds/clipsInfo.txt";
+
+  private File manifest;     // the manifest being compiled
+  private File dir;          // the directory holding it, and its files
+  private int lineNo;
+  private int numErrors = 0;
+  private int numWarnings = 0;
+  private HashSet<String> names = new HashSet<String>();
+  private HashSet<String> usedFiles = new HashSet<String>();
+
+
+  public static void main(String[] args)
+  {
+    boolean checkOnly = false;
+    String root = ".";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-check"))
+        checkOnly = true;
+      else if (args[i].startsWith("-")) {
+        System.out.println("Usage: java assets.ManifestCompiler [-check] [<root>]");
+        System.exit(2);
+      }
+      else
+        root = args[i];
+    }
+
+    ManifestCompiler images = new ManifestCompiler( new File(root, IMAGES_MANIFEST) );
+    AssetIndex imsIndex = images.compileImages();
+    ManifestCompiler clips = new ManifestCompiler( new File(root, CLIPS_MANIFEST) );
+    AssetIndex clipsIndex = clips.compileClips();
+
+    int errors = images.numErrors + clips.numErrors;
+    int warnings = images.numWarnings + clips.numWarnings;
+    if (errors > 0) {
+      System.out.println(errors + " error(s), " + warnings + " warning(s); no index written");
+      System.exit(1);
+    }
+    if (!checkOnly) {
+      images.save(imsIndex);
+      clips.save(clipsIndex);
+    }
+    System.out.println("0 errors, " + warnings + " warning(s)");
+    System.exit(0);
+  }  // end of main()
+
+
+  public ManifestCompiler(File manifest)
+  {
+    this.manifest = manifest;
+    dir = manifest.getAbsoluteFile().getParentFile();
+  }
+
+
+  private void save(AssetIndex index)
+  {
+    File f = new File(dir, AssetIndex.indexName( manifest.getName() ));
+    try {
+      index.save(f);
+      System.out.println("Wrote " + f + ": " + index.getEntries().size() + " entries");
+    }
+    catch (IOException e) {
+      System.out.println("Could not write " + f + ": " + e);
+      System.exit(1);
+    }
+  }  // end of save()
+
+
+
+  // ------------------------ images -----------------------------
+
+
+  public AssetIndex compileImages()
+  // compile the Imagesfile, in the format read by ImagesLoader
+  {
+    AssetIndex index = newIndex();
+    ArrayList<String> lines = readLines();
+    for (lineNo = 1; lineNo <= lines.size(); lineNo++) {
+      String line = lines.get(lineNo-1);
+      if (line == null)   // a line to skip
+        continue;
+      String[] toks = line.trim().split("\\s+");
+      char ch = Character.toLowerCase( toks[0].charAt(0) );
+      if ((toks[0].length() != 1) || ("olnsg".indexOf(ch) == -1))
+        error("unknown command: " + line);
+      else if (((ch == 'o') || (ch == 'l')) && (toks.length != 2))
+        error("wrong no. of arguments: " + line);
+      else if (((ch == 'n') || (ch == 's')) && (toks.length != 3))
+        error("wrong no. of arguments: " + line);
+      else if ((ch == 'g') && (toks.length < 3))
+        error("wrong no. of arguments: " + line);
+      else if ((ch == 'o') || (ch == 'l'))
+        addImage(index, ch, getPrefix(toks[1]), 0, new String[] {toks[1]});
+      else if (ch == 'g')
+        addImage(index, ch, toks[1], 0, Arrays.copyOfRange(toks, 2, toks.length));
+      else {
+        int number = parseNumber(toks[2]);
+        if (number <= 0)
+          error("the number must be > 0: " + line);
+        else if (ch == 's')
+          addStrip(index, toks[1], number);
+        else
+          addNumbered(index, toks[1], number);
+      }
+    }
+    lineNo = 0;
+    checkUnused(".png", ".jpg", ".gif");
+    return index;
+  }  // end of compileImages()
+
+
+  private void addImage(AssetIndex index, char kind, String name, int number, String[] fnms)
+  {
+    int[] widths = new int[fnms.length];
+    int[] heights = new int[fnms.length];
+    for (int i = 0; i < fnms.length; i++) {
+      int[] size = imageSize(fnms[i]);
+      if (size != null) {
+        widths[i] = size[0];
+        heights[i] = size[1];
+      }
+    }
+    addName(name);
+    index.add( new AssetIndex.Entry(kind, name, number, fnms, widths, heights) );
+  }  // end of addImage()
+
+
+  private void addStrip(AssetIndex index, String fnm, int number)
+  // store the size of each image in the strip
+  {
+    int[] size = imageSize(fnm);
+    int width = 0, height = 0;
+    if (size != null) {
+      if (size[0] % number != 0)
+        error(fnm + " is " + size[0] + " pixels wide, which does not split into " +
+              number + " images");
+      width = size[0] / number;
+      height = size[1];
+    }
+    String name = getPrefix(fnm);
+    addName(name);
+    index.add( new AssetIndex.Entry('s', name, number, new String[] {fnm},
+                                    new int[] {width}, new int[] {height}) );
+  }  // end of addStrip()
+
+
+  private void addNumbered(AssetIndex index, String fnm, int number)
+  // store the pattern, and then each numbered file
+  {
+    int starPosn = fnm.lastIndexOf("*");
+    if (starPosn == -1) {
+      error("no '*' in filename: " + fnm);
+      return;
+    }
+    String prefix = fnm.substring(0, starPosn);
+    String postfix = fnm.substring(starPosn+1);
+    String[] fnms = new String[number+1];
+    fnms[0] = fnm;
+    for (int i = 0; i < number; i++)
+      fnms[i+1] = prefix + i + postfix;
+
+    int[] widths = new int[fnms.length];
+    int[] heights = new int[fnms.length];
+    for (int i = 1; i < fnms.length; i++) {
+      int[] size = imageSize(fnms[i]);
+      if (size != null) {
+        widths[i] = size[0];
+        heights[i] = size[1];
+      }
+    }
+    addName(prefix);
+    index.add( new AssetIndex.Entry('n', prefix, number, fnms, widths, heights) );
+  }  // end of addNumbered()
+
+
+  private int[] imageSize(String fnm)
+  /* The width and height of the image in fnm, read from its header
+     without decoding it; or null if it cannot be read. */
+  {
+    File f = getFile(fnm);
+    if (f == null)
+      return null;
+    try {
+      ImageInputStream iis = ImageIO.createImageInputStream(f);
+      try {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) {
+          error(fnm + " is not an image which can be read");
+          return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(iis);
+          return new int[] { reader.getWidth(0), reader.getHeight(0) };
+        }
+        finally {
+          reader.dispose();
+        }
+      }
+      finally {
+        iis.close();
+      }
+    }
+    catch (IOException e) {
+      error("cannot read " + fnm + ": " + e);
+      return null;
+    }
+  }  // end of imageSize()
+
+
+
+  // ------------------------ clips ------------------------------
+
+
+  public AssetIndex compileClips()
+  // compile the sounds file, in the format read by ClipsLoader
+  {
+    AssetIndex index = newIndex();
+    ArrayList<String> lines = readLines();
+    for (lineNo = 1; lineNo <= lines.size(); lineNo++) {
+      String line = lines.get(lineNo-1);
+      if (line == null)
+        continue;
+      String[] toks = line.trim().split("\\s+");
+      if (toks.length != 2) {
+        error("wrong no. of arguments: " + line);
+        continue;
+      }
+      File f = getFile(toks[1]);
+      int lengthMs = 0;
+      if (f != null) {
+        try {
+          AudioFileFormat aff = AudioSystem.getAudioFileFormat(f);
+          AudioFormat format = aff.getFormat();
+          if (aff.getFrameLength() != AudioSystem.NOT_SPECIFIED)
+            lengthMs = (int) (aff.getFrameLength() * 1000L / format.getFrameRate());
+          if (lengthMs <= 1000)
+            warning(toks[1] + " lasts " + lengthMs + " ms, and may not play; make it longer than a second");
+        }
+        catch (UnsupportedAudioFileException e) {
+          error(toks[1] + " is not a sound clip which can be read");
+        }
+        catch (IOException e) {
+          error("cannot read " + toks[1] + ": " + e);
+        }
+      }
+      addName(toks[0]);
+      index.add( new AssetIndex.Entry('c', toks[0], lengthMs, new String[] {toks[1]},
+                                      new int[1], new int[1]) );
+    }
+    lineNo = 0;
+    checkUnused(".wav", ".au", ".aif", ".aiff");
+    return index;
+  }  // end of compileClips()
+
+
+
+  // ------------------------ utilities --------------------------
+
+
+  private AssetIndex newIndex()
+  {
+    try {
+      return new AssetIndex( AssetIndex.checksum( new FileInputStream(manifest)) );
+    }
+    catch (IOException e) {
+      error("cannot read the manifest: " + e);
+      return new AssetIndex(0);
+    }
+  }  // end of newIndex()
+
+
+  private ArrayList<String> readLines()
+  /* The lines of the manifest, with null in place of the blank
+     lines and comments, so the line numbers stay right. */
+  {
+    ArrayList<String> lines = new ArrayList<String>();
+    try {
+      BufferedReader br = new BufferedReader( new FileReader(manifest));
+      String line;
+      while ((line = br.readLine()) != null) {
+        if ((line.trim().length() == 0) || line.startsWith("//"))
+          lines.add(null);
+        else
+          lines.add(line);
+      }
+      br.close();
+    }
+    catch (IOException e) {
+      error("cannot read the manifest: " + e);
+    }
+    return lines;
+  }  // end of readLines()
+
+
+  private File getFile(String fnm)
+  // the file fnm in the manifest's directory, or null if it is missing
+  {
+    File f = new File(dir, fnm);
+    usedFiles.add(fnm);
+    if (!f.isFile()) {
+      error("missing file " + fnm);
+      return null;
+    }
+    return f;
+  }  // end of getFile()
+
+
+  private void addName(String name)
+  {
+    if (!names.add(name))
+      error("the name " + name + " is already used");
+  }
+
+
+  private void checkUnused(String... exts)
+  // warn about files of these types which the manifest does not name
+  {
+    String[] fnms = dir.list();
+    if (fnms == null)
+      return;
+    Arrays.sort(fnms);
+    for (String fnm : fnms)
+      for (String ext : exts)
+        if (fnm.toLowerCase().endsWith(ext) && !usedFiles.contains(fnm)) {
+          System.out.println(manifest.getName() + ": warning: " + fnm + " is not used");
+          numWarnings++;
+        }
+  }  // end of checkUnused()
+
+
+  private static String getPrefix(String fnm)
+  // extract name before '.' of filename, as ImagesLoader does
+  {
+    int posn = fnm.lastIndexOf(".");
+    return (posn == -1) ? fnm : fnm.substring(0, posn);
+  }
+
+
+  private int parseNumber(String s)
+  {
+    try {
+      return Integer.parseInt(s);
+    }
+    catch (NumberFormatException e) {
+      error("not a number: " + s);
+      return 0;
+    }
+  }  // end of parseNumber()
+
+
+  private void error(String msg)
+  {
+    System.out.println(manifest.getName() + ":" + lineNo + ": error: " + msg);
+    numErrors++;
+  }
+
+  private void warning(String msg)
+  {
+    System.out.println(manifest.getName() + ":" + lineNo + ": warning: " + msg);
+    numWarnings++;
+  }
+
+}  // end of ManifestCompiler class
@@ -0,0 +1,163 @@
+/**
+ * CompositeBench.java times the two ways DefenseField builds its shield
+ * image: the AlphaComposite.DST_IN path, and the pixel-array path which
+ * only recomposites the dirty rows.  It runs headless, with no build
+ * system, from the directory holding the classes and the images:
+ *
+ *   java -Djava.awt.headless=true entities.CompositeBench [-n iterations]
+ *
+ * For each screen size (1920x1080 and 3840x2160), each path is timed
+ * recompositing the whole field (as after clear(), or the first draw),
+ * and recompositing after a single brush stroke (a typical frame while
+ * the player is drawing).  The field is drawn into a 1x1 image, so the
+ * times are for the compositing rather than the final blit, which is
+ * the same for both paths.  The mean and fastest times are reported,
+ * then the two paths' shield images are compared, to check that the
+ * pixel path still matches DST_IN.
+ *
+ * by Anton Ridgway
+ */
+
+package entities;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+public class CompositeBench
+{
+	private static final int DEFAULT_ITERATIONS = 200;
+	private static final int[][] SIZES = {{1920, 1080}, {3840, 2160}};
+
+	public static void main(String[] args)
+	{
+		int iterations = DEFAULT_ITERATIONS;
+		if (args.length == 2 && args[0].equals("-n"))
+			iterations = Integer.parseInt(args[1]);
+		if ((args.length != 0 && args.length != 2) || iterations < 1)
+		{
+			System.out.println("Usage: java entities.CompositeBench [-n iterations]");
+			System.exit(2);
+		}
+
+		BufferedImage texture = null;
+		try
+		{
+			texture = ImageIO.read(CompositeBench.class.getResource("/image/Images/maplesheet.png"));
+		}
+		catch (Exception e)
+		{
+			System.out.println("No maplesheet texture (" + e + "); compositing an empty one");
+		}
+
+		for (int[] size : SIZES)
+		{
+			int w = size[0];
+			int h = size[1];
+			System.out.println(w + "x" + h + ":");
+			DefenseField dstIn = makeField(w, h, texture, false);
+			DefenseField pixels = makeField(w, h, texture, true);
+
+			double[] dstFull = time(dstIn, w, h, iterations, true);
+			double[] pixFull = time(pixels, w, h, iterations, true);
+			double[] dstStroke = time(dstIn, w, h, iterations, false);
+			double[] pixStroke = time(pixels, w, h, iterations, false);
+			report("whole field", dstFull, pixFull);
+			report("one stroke ", dstStroke, pixStroke);
+
+			compare(dstIn, pixels, w, h);
+		}
+	}
+
+	/**
+	 * makeField creates a field of the given screen size, with some
+	 * shield already drawn across it, compositing by the chosen path.
+	 */
+	private static DefenseField makeField(int w, int h, BufferedImage texture, boolean pixelPath)
+	{
+		DefenseField df = new DefenseField(w, h, texture);
+		df.setPixelCompositing(pixelPath);
+		int paint = Integer.MAX_VALUE;
+		for (int x = 40; x < w; x += 90)
+			for (int y = 100; y < df.getLowBound() - 20; y += 70)
+				paint = df.drawBrush(x, y, paint);
+		return df;
+	}
+
+	/**
+	 * time recomposites the field iterations times, after a quarter as
+	 * many warm-up runs, returning the mean and fastest times in ms.
+	 * Each run either marks the whole field dirty, or draws one brush
+	 * stroke, moving along the field.
+	 */
+	private static double[] time(DefenseField df, int w, int h, int iterations, boolean whole)
+	{
+		BufferedImage sink = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = sink.createGraphics();
+		int warmUp = Math.max(1, iterations/4);
+		long[] times = new long[iterations];
+		int y = (50 + df.getLowBound())/2;
+		for (int i = -warmUp; i < iterations; i++)
+		{
+			if (whole)
+				df.setPixelCompositing(df.usesPixelCompositing());
+			else
+				df.drawBrush(20 + (i*37 + warmUp*37) % (w - 40), y, Integer.MAX_VALUE);
+			long start = System.nanoTime();
+			df.draw(g, false);
+			if (i >= 0)
+				times[i] = System.nanoTime() - start;
+		}
+		g.dispose();
+
+		long total = 0;
+		for (long t : times)
+			total += t;
+		Arrays.sort(times);
+		return new double[] {total/1e6/iterations, times[0]/1e6};
+	}
+
+	private static void report(String what, double[] dstIn, double[] pixels)
+	{
+		System.out.printf("  %s: DST_IN mean %.3f ms (fastest %.3f), pixels mean %.3f ms (fastest %.3f),"
+				+ " %.1fx faster%n", what, dstIn[0], dstIn[1], pixels[0], pixels[1], dstIn[0]/pixels[0]);
+	}
+
+	/**
+	 * compare draws both fields, each over an opaque background, and
+	 * reports how many pixels differ, and by how much.  The two fields
+	 * have had the same strokes drawn, so their shields should match,
+	 * to within DST_IN's rounding.
+	 */
+	private static void compare(DefenseField dstIn, DefenseField pixels, int w, int h)
+	{
+		int[] a = render(dstIn, w, h);
+		int[] b = render(pixels, w, h);
+		int numDiffs = 0;
+		int maxDelta = 0;
+		for (int i = 0; i < a.length; i++)
+		{
+			int delta = 0;
+			for (int shift = 0; shift <= 16; shift += 8)
+				delta = Math.max(delta, Math.abs(((a[i] >> shift) & 0xff) - ((b[i] >> shift) & 0xff)));
+			if (delta != 0)
+				numDiffs++;
+			maxDelta = Math.max(maxDelta, delta);
+		}
+		System.out.println("  " + numDiffs + " pixels differ between the paths (largest difference "
+				+ maxDelta + ")");
+	}
+
+	private static int[] render(DefenseField df, int w, int h)
+	{
+		BufferedImage frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = frame.createGraphics();
+		g.setColor(Color.gray);
+		g.fillRect(0, 0, w, h);
+		df.draw(g, false);
+		g.dispose();
+		return frame.getRGB(0, 0, w, h, null, 0, w);
+	}
+}
@@ -14,6 +14,16 @@
  * caused by too many draw operations.  A proper value must be selected that
  * will not cause an out of bounds error for the 2D-array from integer division.
  * 
+ * Every change to the field bumps a version number, and each column of the
+ * array remembers the version that last touched it.  This lets the field be
+ * exported as a run-length encoded snapshot, or as a diff holding only the
+ * columns changed since a given version, and later restored from either.
+ * 
+ * The shield image is composited from the maplesheet texture and the drawn
+ * mask.  By default this is done directly on the images' int pixel arrays,
+ * for only the rows that changed since the last draw; the original
+ * AlphaComposite.DST_IN path remains available through setPixelCompositing.
+ * 
  * by Anton Ridgway
  */
 package entities;
@@ -23,8 +33,10 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
 import java.awt.geom.RectangularShape;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 import image.ImagesLoader;
 
@@ -37,7 +49,6 @@ public class DefenseField
 	private BufferedImage imageMask;
 	private BufferedImage defImage;
 	private BufferedImage finalImage;
-	private ImagesLoader imsLd;
 	private int pWidth;
 	private int pHeight;
 	private int highBound;
@@ -45,8 +56,49 @@ public class DefenseField
 	private int brushSize = 10;
 	private boolean hasChanged = false;
 	private final int res = 1;
+	
+	// pixel compositing state: the texture, mask and output pixels, and the dirty rows
+	private boolean pixelComposite;
+	private int[] texPixels;
+	private int[] maskPixels;
+	private int[] finalPixels;
+	private int dirtyTop;
+	private int dirtyBottom;
+	
+	// scratch space for the batched eraseUnder
+	private RectangularShape[] oneShape = new RectangularShape[1];
+	private int[] spanStart = new int[8];
+	private int[] spanEnd = new int[8];
+	private int rowStart, rowEnd;
+	
+	// erasures queued with queueErase, applied together by flushErases
+	private RectangularShape[] queued = new RectangularShape[8];
+	private int numQueued = 0;
+	
+	// snapshot state: the current version, and the version that last touched each column
+	private static final byte SNAPSHOT = 'S';
+	private static final byte DIFF = 'D';
+	private int version = 0;
+	private int[] colVersion;
+	private byte[] codeBuf = new byte[1024];
+	private int codeLen;
+	private byte[] readBuf;
+	private int readPos;
 
 	public DefenseField( int pW, int pH, ImagesLoader il )
+	{
+		this(pW, pH, il.getImage("maplesheet"));
+	}
+	
+	/**
+	 * Creates a field shielded with the given texture, rather than
+	 * the maplesheet image; CompositeBench uses this, headless.
+	 * 
+	 * @param pW the screen width
+	 * @param pH the screen height
+	 * @param texture the shield's texture
+	 */
+	public DefenseField( int pW, int pH, BufferedImage texture )
 	{
 		pWidth = pW;
 		pHeight = pH;
@@ -57,15 +109,77 @@ public class DefenseField
 		defenseArray = new int[pWidth/res][(lowBound/res)-(highBound/res)];
 		for (int i = 0; i < defenseArray.length; i++)
 			Arrays.fill(defenseArray[i], 0);
+		colVersion = new int[defenseArray.length];
 
-		imsLd = il;
-
-		defImage = imsLd.getImage("maplesheet");
+		defImage = texture;
 		finalImage = new BufferedImage(pWidth, lowBound-highBound, BufferedImage.TYPE_INT_ARGB);
 		imageMask = new BufferedImage(pWidth, lowBound-highBound, BufferedImage.TYPE_INT_ARGB);
 		imageGfx = imageMask.createGraphics();
 		finalGfx = finalImage.createGraphics();
 		imageGfx.setColor(Color.red);
+		setPixelCompositing(true);
+	}
+	
+	/**
+	 * setPixelCompositing chooses how the shield image is built.  When on,
+	 * the texture is multiplied by the mask directly in the images' pixel
+	 * arrays, one dirty row range at a time.  When off (or if the images'
+	 * rasters are not int-backed), the AlphaComposite.DST_IN path is used.
+	 * 
+	 * @param on whether to use the pixel-array path
+	 */
+	public void setPixelCompositing(boolean on)
+	{
+		pixelComposite = on && (imageMask.getRaster().getDataBuffer() instanceof DataBufferInt)
+				&& (finalImage.getRaster().getDataBuffer() instanceof DataBufferInt);
+		if (pixelComposite && texPixels == null)
+		{
+			int w = finalImage.getWidth();
+			int h = finalImage.getHeight();
+			texPixels = new int[w*h];
+			if (defImage != null)
+			{
+				int tw = Math.min(w, defImage.getWidth());
+				int th = Math.min(h, defImage.getHeight());
+				defImage.getRGB(0, 0, tw, th, texPixels, 0, w);
+			}
+			maskPixels = ((DataBufferInt)imageMask.getRaster().getDataBuffer()).getData();
+			finalPixels = ((DataBufferInt)finalImage.getRaster().getDataBuffer()).getData();
+		}
+		markDirty(0, lowBound-highBound);
+	}
+	
+	/**
+	 * usesPixelCompositing reports whether the pixel-array path is in use.
+	 * 
+	 * @return true if the shield is composited on the pixel arrays
+	 */
+	public boolean usesPixelCompositing()
+	{
+		return pixelComposite;
+	}
+	
+	/**
+	 * markDirty flags the field for recompositing, widening the dirty row
+	 * range (in mask coordinates, clamped to the mask) to cover [top, bottom).
+	 */
+	private void markDirty(int top, int bottom)
+	{
+		if (top < 0)
+			top = 0;
+		if (bottom > lowBound-highBound)
+			bottom = lowBound-highBound;
+		if (!hasChanged)
+		{
+			dirtyTop = top;
+			dirtyBottom = bottom;
+			hasChanged = true;
+		}
+		else
+		{
+			dirtyTop = Math.min(dirtyTop, top);
+			dirtyBottom = Math.max(dirtyBottom, bottom);
+		}
 	}
 	
 	/**
@@ -132,7 +246,8 @@ public class DefenseField
 		imageGfx.fillRect(x-brushSize*res, y-(brushSize-1)*res-highBound, brushSize*res*2, ((brushSize-1)*res*2));
 		imageGfx.fillRect(x-(brushSize-1)*res, y-brushSize*res-highBound, (brushSize-1)*res*2, res);
 		imageGfx.fillRect(x-(brushSize-1)*res, y+(brushSize-1)*res-highBound, (brushSize-1)*res*2, res);
-		hasChanged = true;
+		markDirty(y-brushSize*res-highBound, y+brushSize*res-highBound+res);
+		markColumns(tempX - brushSize, tempX + brushSize);
 		return pA;
 	}
 	
@@ -175,38 +290,178 @@ public class DefenseField
 	 */
 	public void eraseUnder(RectangularShape r)
 	{
-		int xMin = (int)r.getX();
-		if (xMin<0)
-			xMin = 0;
+		oneShape[0] = r;
+		eraseUnder(oneShape, 1);
+		oneShape[0] = null;
+	}//end of eraseUnder
+	
+	/**
+	 * eraseUnder clears out the defenseArray beneath several shapes at
+	 * once.  The field is walked a row at a time; on each row the spans
+	 * covered by the shapes are merged, and each merged span is cleared
+	 * from both the array and the mask.  The mask's composite is switched
+	 * at most once, and the field is marked as changed only once.
+	 * 
+	 * @param shapes the shapes to clear beneath; they are not modified
+	 * @param count the number of shapes to use from the array
+	 */
+	public void eraseUnder(RectangularShape[] shapes, int count)
+	{
+		if (count > spanStart.length)
+		{
+			spanStart = new int[count];
+			spanEnd = new int[count];
+		}
 		
-		int xMax = xMin + (int)r.getWidth();
-		if (xMax >= pWidth)
-			xMax = pWidth-1;
+		// find the rows and columns the shapes can touch
+		int top = lowBound, bottom = highBound;
+		int left = pWidth, right = 0;
+		for (int k = 0; k < count; k++)
+		{
+			RectangularShape r = shapes[k];
+			int xMin = Math.max((int)r.getX(), 0);
+			int xMax = Math.min(xMin + (int)r.getWidth(), pWidth-1);
+			int yMin = Math.max((int)r.getY(), highBound);
+			int yMax = Math.min((int)r.getY() + (int)r.getHeight(), lowBound-1);
+			left = Math.min(left, xMin);
+			right = Math.max(right, xMax);
+			top = Math.min(top, yMin);
+			bottom = Math.max(bottom, yMax);
+		}
+		if (top >= bottom || left >= right)
+			return;
 		
-		int yMin = (int)r.getY();
-		if (yMin < highBound)
-			yMin = highBound;
-			
-		int yMax = yMin + (int)r.getHeight();
-		if (yMax >= lowBound)
-			yMax = lowBound-1;
+		Composite c = null;
+		if (!pixelComposite)
+		{
+			c = imageGfx.getComposite();
+			imageGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR, 0.0f));
+		}
 		
-		for( int i = xMin; i < xMax; i += res)
+		for (int j = top; j < bottom; j++)
 		{
-			for (int j = yMin; j < yMax; j++)
+			// collect each shape's span on this row, kept sorted by start
+			int n = 0;
+			for (int k = 0; k < count; k++)
+			{
+				if (!rowSpan(shapes[k], j))
+					continue;
+				int m = n++;
+				while (m > 0 && spanStart[m-1] > rowStart)
+				{
+					spanStart[m] = spanStart[m-1];
+					spanEnd[m] = spanEnd[m-1];
+					m--;
+				}
+				spanStart[m] = rowStart;
+				spanEnd[m] = rowEnd;
+			}
+			
+			// merge overlapping spans and clear each one
+			int k = 0;
+			while (k < n)
 			{
-				if (r.contains(i,j))
-					defenseArray[i/res][j/res - highBound/res] = 0;
+				int start = spanStart[k];
+				int end = spanEnd[k];
+				for (k++; k < n && spanStart[k] <= end; k++)
+					end = Math.max(end, spanEnd[k]);
+				clearSpan(j, start, end);
 			}
 		}
-
-		r.setFrame(r.getX(), r.getY()-highBound, r.getWidth(), r.getHeight());
-		Composite c = imageGfx.getComposite();
-		imageGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR, 0.0f));
-		imageGfx.fill( r );
-		imageGfx.setComposite(c);
-		hasChanged = true;
+		
+		if (!pixelComposite)
+			imageGfx.setComposite(c);
+		markDirty(top-highBound, bottom-highBound+1);
+		markColumns(left/res, right/res);
 	}//end of eraseUnder
+	
+	/**
+	 * queueErase holds a shape to be erased by the next flushErases call,
+	 * so that several erasures in one update (such as simultaneous
+	 * explosions) cost a single batched pass.  Until then the field
+	 * beneath the shape is still filled.
+	 * 
+	 * @param r the shape to clear beneath
+	 */
+	public void queueErase(RectangularShape r)
+	{
+		if (numQueued == queued.length)
+			queued = Arrays.copyOf(queued, queued.length*2);
+		queued[numQueued++] = r;
+	}
+	
+	/**
+	 * flushErases erases beneath every shape queued by queueErase.
+	 */
+	public void flushErases()
+	{
+		if (numQueued > 0)
+		{
+			eraseUnder(queued, numQueued);
+			Arrays.fill(queued, 0, numQueued, null);
+			numQueued = 0;
+		}
+	}
+	
+	/**
+	 * rowSpan finds the columns of row y lying inside the shape r, 
+	 * clipped as eraseUnder always has, and stores them in
+	 * [rowStart, rowEnd).  Ellipses are solved directly; other shapes
+	 * are assumed convex and are searched from either end.
+	 * 
+	 * @return false if the row misses the shape
+	 */
+	private boolean rowSpan(RectangularShape r, int y)
+	{
+		int xMin = Math.max((int)r.getX(), 0);
+		int xMax = Math.min(xMin + (int)r.getWidth(), pWidth-1);
+		if (y < (int)r.getY() || y >= (int)r.getY() + (int)r.getHeight())
+			return false;
+		
+		if (r instanceof Ellipse2D)
+		{
+			// the same test as Ellipse2D.contains: inside when the
+			// normalized distance from the center is under 0.5
+			double ny = (y - r.getY())/r.getHeight() - 0.5;
+			double q = 0.25 - ny*ny;
+			if (q <= 0)
+				return false;
+			q = Math.sqrt(q)*r.getWidth();
+			double cx = r.getX() + r.getWidth()/2;
+			rowStart = Math.max(xMin, (int)Math.floor(cx - q) + 1);
+			rowEnd = Math.min(xMax, (int)Math.ceil(cx + q));
+		}
+		else
+		{
+			rowStart = xMin;
+			while (rowStart < xMax && !r.contains(rowStart, y))
+				rowStart++;
+			rowEnd = xMax;
+			while (rowEnd > rowStart && !r.contains(rowEnd-1, y))
+				rowEnd--;
+		}
+		return rowStart < rowEnd;
+	}
+	
+	/**
+	 * clearSpan empties columns [start, end) of row y, in both the
+	 * defenseArray and the mask.
+	 */
+	private void clearSpan(int y, int start, int end)
+	{
+		int row = y/res - highBound/res;
+		for (int i = start; i < end; i += res)
+			defenseArray[i/res][row] = 0;
+		
+		if (pixelComposite)
+		{
+			int p = (y-highBound)*imageMask.getWidth();
+			Arrays.fill(maskPixels, p+start, p+end, 0);
+		}
+		else
+			imageGfx.fillRect(start, y-highBound, end-start, 1);
+	}
+
 
 	
 	/**
@@ -214,13 +469,280 @@ public class DefenseField
 	 */
 	public void clear()
 	{
+		Arrays.fill(queued, 0, numQueued, null);
+		numQueued = 0;
 		for (int i = 0; i < defenseArray.length; i++)
 			Arrays.fill(defenseArray[i], 0);
 		Composite c = imageGfx.getComposite();
 		imageGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR, 0.0f));
 		imageGfx.fillRect(0, 0, imageMask.getWidth(), imageMask.getHeight());
 		imageGfx.setComposite(c);
-		hasChanged = true;
+		markDirty(0, imageMask.getHeight());
+		markColumns(0, defenseArray.length-1);
+	}
+	
+	/**
+	 * markColumns advances the field's version and stamps the given
+	 * (inclusive, clamped) range of array columns with it.
+	 * 
+	 * @param first the first column changed
+	 * @param last the last column changed
+	 */
+	private void markColumns(int first, int last)
+	{
+		if (first < 0)
+			first = 0;
+		if (last >= colVersion.length)
+			last = colVersion.length-1;
+		version++;
+		for (int i = first; i <= last; i++)
+			colVersion[i] = version;
+	}
+	
+	/**
+	 * getVersion returns the field's current version number, which
+	 * increases with every change to the defenseArray.
+	 * 
+	 * @return version the current version
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * getSnapshot encodes the whole defenseArray.  The array is walked
+	 * column by column, and stored as (value, length) runs; an untouched
+	 * field therefore takes only a handful of bytes.
+	 * 
+	 * Format (all numbers are unsigned varints):
+	 * 		'S' version columns rows [value length]*
+	 * 
+	 * @return the encoded snapshot
+	 */
+	public byte[] getSnapshot()
+	{
+		int rows = defenseArray[0].length;
+		codeLen = 0;
+		putByte(SNAPSHOT);
+		putVarint(version);
+		putVarint(defenseArray.length);
+		putVarint(rows);
+		
+		int value = defenseArray[0][0];
+		int run = 0;
+		for (int i = 0; i < defenseArray.length; i++)
+		{
+			int[] col = defenseArray[i];
+			for (int j = 0; j < rows; j++)
+			{
+				if (col[j] == value)
+					run++;
+				else
+				{
+					putVarint(value);
+					putVarint(run);
+					value = col[j];
+					run = 1;
+				}
+			}
+		}
+		putVarint(value);
+		putVarint(run);
+		return Arrays.copyOf(codeBuf, codeLen);
+	}
+	
+	/**
+	 * getDiff encodes only those columns of the defenseArray that have
+	 * changed since the given version, each as a run-length encoded column.
+	 * Applying it to a field at sinceVersion (or later) brings that field
+	 * up to the current version.
+	 * 
+	 * Format (all numbers are unsigned varints):
+	 * 		'D' version columns rows numChanged [xGap [value length]*]*
+	 * where xGap is the distance from the previous changed column.
+	 * 
+	 * @param sinceVersion the version the receiver already holds
+	 * @return the encoded diff
+	 */
+	public byte[] getDiff(int sinceVersion)
+	{
+		int rows = defenseArray[0].length;
+		int numChanged = 0;
+		for (int i = 0; i < colVersion.length; i++)
+			if (colVersion[i] > sinceVersion)
+				numChanged++;
+		
+		codeLen = 0;
+		putByte(DIFF);
+		putVarint(version);
+		putVarint(defenseArray.length);
+		putVarint(rows);
+		putVarint(numChanged);
+		
+		int prevX = 0;
+		for (int i = 0; i < colVersion.length; i++)
+		{
+			if (colVersion[i] <= sinceVersion)
+				continue;
+			putVarint(i - prevX);
+			prevX = i;
+			
+			int[] col = defenseArray[i];
+			int value = col[0];
+			int run = 0;
+			for (int j = 0; j < rows; j++)
+			{
+				if (col[j] == value)
+					run++;
+				else
+				{
+					putVarint(value);
+					putVarint(run);
+					value = col[j];
+					run = 1;
+				}
+			}
+			putVarint(value);
+			putVarint(run);
+		}
+		return Arrays.copyOf(codeBuf, codeLen);
+	}
+	
+	/**
+	 * applySnapshot restores the field from data produced by getSnapshot
+	 * or getDiff, updating both the defenseArray and the drawn mask.  The
+	 * field takes on the version stored in the data.
+	 * 
+	 * @param data an encoded snapshot or diff
+	 * @throws IllegalArgumentException if the data is malformed, or was
+	 * 			made by a field of a different size
+	 */
+	public void applySnapshot(byte[] data)
+	{
+		readBuf = data;
+		readPos = 0;
+		try
+		{
+			byte type = getByte();
+			int newVersion = getVarint();
+			int cols = getVarint();
+			int rows = getVarint();
+			if (cols != defenseArray.length || rows != defenseArray[0].length)
+				throw new IllegalArgumentException("Snapshot is " + cols + "x" + rows +
+						", field is " + defenseArray.length + "x" + defenseArray[0].length);
+			
+			if (type == SNAPSHOT)
+			{
+				clearMask(0, cols);
+				int i = 0, j = 0;
+				while (i < cols)
+				{
+					int value = getVarint();
+					int run = getVarint();
+					while (run > 0)
+					{
+						if (i >= cols)
+							throw new IllegalArgumentException("Snapshot runs past end of field");
+						int len = Math.min(run, rows - j);
+						Arrays.fill(defenseArray[i], j, j+len, value);
+						if (value > 0)
+							imageGfx.fillRect(i*res, j*res, res, len*res);
+						run -= len;
+						j += len;
+						if (j == rows)
+						{
+							j = 0;
+							i++;
+						}
+					}
+				}
+				Arrays.fill(colVersion, newVersion);
+			}
+			else if (type == DIFF)
+			{
+				int numChanged = getVarint();
+				int i = 0;
+				for (int n = 0; n < numChanged; n++)
+				{
+					i += getVarint();
+					if (i >= cols)
+						throw new IllegalArgumentException("Diff column " + i + " out of range");
+					clearMask(i, 1);
+					for (int j = 0; j < rows; )
+					{
+						int value = getVarint();
+						int run = getVarint();
+						if (run == 0 || j + run > rows)
+							throw new IllegalArgumentException("Bad run in diff column " + i);
+						Arrays.fill(defenseArray[i], j, j+run, value);
+						if (value > 0)
+							imageGfx.fillRect(i*res, j*res, res, run*res);
+						j += run;
+					}
+					colVersion[i] = newVersion;
+				}
+			}
+			else
+				throw new IllegalArgumentException("Unknown snapshot type: " + type);
+			
+			version = newVersion;
+			markDirty(0, imageMask.getHeight());
+		}
+		finally
+		{
+			readBuf = null;
+		}
+	}
+	
+	/**
+	 * clearMask clears a vertical band of array columns out of the mask.
+	 */
+	private void clearMask(int firstCol, int numCols)
+	{
+		Composite c = imageGfx.getComposite();
+		imageGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR, 0.0f));
+		imageGfx.fillRect(firstCol*res, 0, numCols*res, imageMask.getHeight());
+		imageGfx.setComposite(c);
+	}
+	
+	// ----------- varint helpers for the snapshot format -----------
+	
+	private void putByte(int b)
+	{
+		if (codeLen == codeBuf.length)
+			codeBuf = Arrays.copyOf(codeBuf, codeBuf.length*2);
+		codeBuf[codeLen++] = (byte)b;
+	}
+	
+	private void putVarint(int v)
+	{
+		while ((v & ~0x7F) != 0)
+		{
+			putByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		putByte(v);
+	}
+	
+	private byte getByte()
+	{
+		if (readPos >= readBuf.length)
+			throw new IllegalArgumentException("Snapshot data is truncated");
+		return readBuf[readPos++];
+	}
+	
+	private int getVarint()
+	{
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = getByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("Malformed varint in snapshot data");
 	}
 	
 	/**
@@ -244,14 +766,44 @@ public class DefenseField
 		
 		if(hasChanged)
 		{
-			finalGfx.drawImage(defImage,0,0,null);
-			Composite c = finalGfx.getComposite();
-			finalGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_IN, 1.0f));
-			finalGfx.drawImage(imageMask, 0, 0, null);
-			finalGfx.setComposite(c);
+			if (pixelComposite)
+				compositeRows(dirtyTop, dirtyBottom);
+			else
+			{
+				finalGfx.drawImage(defImage,0,0,null);
+				Composite c = finalGfx.getComposite();
+				finalGfx.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_IN, 1.0f));
+				finalGfx.drawImage(imageMask, 0, 0, null);
+				finalGfx.setComposite(c);
+			}
 			hasChanged = false;
 		}
 		g.drawImage(finalImage, 0, highBound, null);
 		
 	}// end draw()
+	
+	/**
+	 * compositeRows does the work of DST_IN for the rows [top, bottom):
+	 * each texture pixel keeps its colour and has its alpha scaled by
+	 * the mask's alpha.  The mask is almost always fully on or fully off,
+	 * so those cases skip the multiply.
+	 */
+	private void compositeRows(int top, int bottom)
+	{
+		int end = bottom*finalImage.getWidth();
+		for (int p = top*finalImage.getWidth(); p < end; p++)
+		{
+			int maskA = maskPixels[p] >>> 24;
+			int tex = texPixels[p];
+			if (maskA == 0xFF)
+				finalPixels[p] = tex;
+			else if (maskA == 0)
+				finalPixels[p] = 0;
+			else
+			{
+				int a = ((tex >>> 24)*maskA + 127)/255;
+				finalPixels[p] = (a << 24) | (tex & 0x00FFFFFF);
+			}
+		}
+	}
 }
@@ -14,12 +14,12 @@ public class ExplosionSprite extends Sprite
 {
 	private boolean hitPlayer = false;
 
-	public ExplosionSprite ( int x, int y, int pW, int pH, int radius, int expOffset, int xStep, PlayerSprite player, DefenseField dF, ImagesLoader imsLd, String name )
+	public ExplosionSprite ( int x, int y, int pW, int pH, int radius, int expOffset, int xStep, PlayerSprite player, DefenseField dF, ImagesLoader imsLd, int imHandle )
 	{
-		super(x-50, y-100+expOffset, pW, pH, imsLd, name);
+		super(x-50, y-100+expOffset, pW, pH, imsLd, imHandle);
 		setStep(-xStep,0);
 
-		dF.eraseUnder(new Ellipse2D.Double(x-radius, y-radius, radius*2, radius*2));
+		dF.queueErase(new Ellipse2D.Double(x-radius, y-radius, radius*2, radius*2));
 		int cRadius = radius*2/3;
 		if (new Rectangle(x-cRadius, y-cRadius, cRadius, cRadius).intersects(player.getMyRectangle()))
 			hitPlayer = true;
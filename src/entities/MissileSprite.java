@@ -26,6 +26,26 @@ public class MissileSprite extends Sprite
 	private DefenseField dField;
 	private ArrayList<ExplosionSprite> expList;
 	
+	// image handles, resolved once by bindImages()
+	private static int missileIm = -1;
+	private static int exploStayIm = -1;
+	private static int exploMoveIm = -1;
+	
+	/**
+	 * bindImages looks up the images used by missiles and their
+	 * explosions.  It must be called once the images are loaded,
+	 * before any MissileSprite is created.
+	 * 
+	 * @param imsLd the ImagesLoader holding the images
+	 * @throws IllegalArgumentException if an image is missing
+	 */
+	public static void bindImages(ImagesLoader imsLd)
+	{
+		missileIm = imsLd.getHandle("missile");
+		exploStayIm = imsLd.getHandle("exploStay");
+		exploMoveIm = imsLd.getHandle("exploMove");
+	}
+	
 	/**
 	 * The constructor for the Missile class.
 	 * 
@@ -49,7 +69,7 @@ public class MissileSprite extends Sprite
 			int ticksToGoal, ArrayList<ExplosionSprite> e, DefenseField dF, 
 			PlayerSprite plr, boolean target, ImagesLoader imsLd, int prd )
 	{
-		super( new Random().nextInt(pW), -10, pW, pH, imsLd, "missile");
+		super( new Random().nextInt(pW), -10, pW, pH, imsLd, missileIm);
 		Random rand = new Random();
 		yBase = pH-bH;
 		if (!target)
@@ -85,7 +105,7 @@ public class MissileSprite extends Sprite
 			if(dField.hits(x,y))
 			{
 				finished = true;
-				ExplosionSprite exp = new ExplosionSprite(x, y, pWidth, pHeight, bangRadius, bangRadius-5, 0, player, dField, imsLoader, "exploStay");
+				ExplosionSprite exp = new ExplosionSprite(x, y, pWidth, pHeight, bangRadius, bangRadius-5, 0, player, dField, imsLoader, exploStayIm);
 				exp.playImage(period, 0.5);
 				expList.add(exp);
 			}
@@ -93,7 +113,7 @@ public class MissileSprite extends Sprite
 			{
 				finished = true;
 				setPosition(x,yBase);
-				ExplosionSprite exp = new ExplosionSprite(x, y, pWidth, pHeight, bangRadius, 0, baseMoveSize, player, dField, imsLoader, "exploMove");
+				ExplosionSprite exp = new ExplosionSprite(x, y, pWidth, pHeight, bangRadius, 0, baseMoveSize, player, dField, imsLoader, exploMoveIm);
 				exp.playImage(period, 0.5);
 				expList.add(exp);
 			}
@@ -14,10 +14,25 @@ public class NoteSprite extends Sprite
 	private int value; //how much paint is this worth?
 	private int yBase;
 	private DefenseField dField;
+	
+	// image handle, resolved once by bindImages()
+	private static int noteIm = -1;
+	
+	/**
+	 * bindImages looks up the note image.  It must be called once the
+	 * images are loaded, before any NoteSprite is created.
+	 * 
+	 * @param imsLd the ImagesLoader holding the images
+	 * @throws IllegalArgumentException if the image is missing
+	 */
+	public static void bindImages(ImagesLoader imsLd)
+	{
+		noteIm = imsLd.getHandle("note");
+	}
 
 	public NoteSprite( int pW, int pH, int yB, int v, DefenseField dF, ImagesLoader imsLd)
 	{
-		super(new Random().nextInt(pW-24), -35, pW, pH, imsLd, "note");
+		super(new Random().nextInt(pW-24), -35, pW, pH, imsLd, noteIm);
 		setStep(0,1);
 		value = v;
 		yBase = yB;
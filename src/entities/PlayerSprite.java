@@ -13,6 +13,7 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 import image.ImagesLoader;
+import image.RenderQueue;
 
 
 public class PlayerSprite extends Sprite
@@ -108,10 +109,10 @@ public class PlayerSprite extends Sprite
 	 * dangerous object, and returns true or false accordingly.
 	 * 
 	 * @param A an ArrayList of ExplosionSprites to check
-	 * @param w a Wyrm to collision-check against the Player
+	 * @param w the Wyrms to collision-check against the Player
 	 * @return true if the Player is touching something; false otherwise
 	 */
-	public boolean isHit( ArrayList<ExplosionSprite> A, Wyrm w )
+	public boolean isHit( ArrayList<ExplosionSprite> A, WyrmGroup w )
 	{
 		Rectangle pRect = getMyRectangle();
 		for ( int i = 0; i < A.size(); i++ )
@@ -119,7 +120,7 @@ public class PlayerSprite extends Sprite
 			if ( A.get(i).hitPlayer() )
 				return true;
 		}
-		if( w != null && pRect.contains(w.getHead()))
+		if( w != null && w.headWithin(pRect))
 			return true;
 		return false;
 	}
@@ -204,6 +205,8 @@ public class PlayerSprite extends Sprite
 		          g.fillRect((int)locx, (int)locy+ (int)(playerHeight*(1-crouchFactor)), 2*hPlayerWidth, (int)(playerHeight*crouchFactor));
 		          g.setColor(Color.black);
 		        }
+		        else if (getRegion() != null)
+		          getRegion().draw(g, (int)locx, (int)(locy+playerHeight*(1-crouchFactor)), getWidth(), (int)(getHeight()*crouchFactor));
 		        else {
 		          if (isLooping())
 		            image = getIPlayer().getCurrentImage();
@@ -212,4 +215,33 @@ public class PlayerSprite extends Sprite
 		      }
 		}
 	}
+
+	/**
+	 * submitSprite overrides the Sprite's submitSprite method,
+	 * and allows for crouching.
+	 * 
+	 * @param q the RenderQueue to submit to
+	 * @param layer the layer to draw on
+	 */
+	public void submitSprite(RenderQueue q, int layer)
+	{
+		if (!isCrouching)
+			super.submitSprite(q, layer);
+		else if (isActive())
+		{
+			int y = (int)(locy+playerHeight*(1-crouchFactor));
+			int h = (int)(getHeight()*crouchFactor);
+			BufferedImage image = getImage();
+			if (image == null)
+				q.submitRect(layer, Color.red, (int)locx, (int)locy+(int)(playerHeight*(1-crouchFactor)), 2*hPlayerWidth, (int)(playerHeight*crouchFactor));
+			else if (getRegion() != null)
+				q.submit(layer, getRegion(), (int)locx, y, getWidth(), h);
+			else
+			{
+				if (isLooping())
+					image = getIPlayer().getCurrentImage();
+				q.submit(layer, image, (int)locx, y, getWidth(), h);
+			}
+		}
+	}
 }
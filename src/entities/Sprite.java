@@ -6,18 +6,30 @@
  * an image, and can be deactivated.
  *
  * The sprite's image is managed with an ImagesLoader object,
- * and an ImagesPlayer object for looping.
+ * and an ImagesPlayer object for looping.  The player draws its
+ * frames from an AnimationClip shared with every other sprite
+ * playing the same images, so drawing a frame is an array lookup.
 
  * The images stored until the image 'name' can be looped
  * through by calling loopImage(), which uses an
  * ImagesPlayer object.
+ *
+ * A sprite's image can be given by name, which is resolved to an
+ * ImagesLoader handle when it is set (and fails then if the name is
+ * unknown), or by a handle resolved beforehand; sprites made often,
+ * such as missiles, use the latter.
+ *
+ * If the images were packed into the ImagesLoader's texture atlas,
+ * the sprite draws them as regions of the atlas pages instead.
  */
 
 package entities;
 
+import image.AtlasRegion;
 import image.ImagesLoader;
 import image.ImagesPlayer;
 import image.ImagesPlayerWatcher;
+import image.RenderQueue;
 
 import java.awt.*;
 import java.awt.image.*;
@@ -34,8 +46,10 @@ public class Sprite
 
   // image-related
   private ImagesLoader imsLoader;
-  private String imageName;
+  private int imageHandle;
   private BufferedImage image;
+  private AtlasRegion[] regions;  // null if the images are not in the atlas
+  private int regionPosn;         // the region last shown; kept when play stops
   private int width, height;     // image dimensions
 
   private ImagesPlayer player;  // for playing a loop of images
@@ -63,13 +77,30 @@ public class Sprite
   } // end of Sprite()
 
 
+  public Sprite(int x, int y, int w, int h, ImagesLoader imsLd, int handle) 
+  { 
+    locx = x; locy = y;
+    pWidth = w; pHeight = h;
+    dx = XSTEP; dy = YSTEP;
+
+    imsLoader = imsLd;
+    setImage(handle);    // the sprite's default image is 'handle'
+  } // end of Sprite()
+
+
   public void setImage(String name)
   // assign the name image to the sprite
+  {  setImage( imsLoader.getHandle(name) );  }
+
+
+  public void setImage(int handle)
+  // assign the image with the given handle to the sprite
   {
-    imageName = name;
-    image = imsLoader.getImage(imageName);
-    if (image == null) {    // no image of that name was found
-      System.out.println("No sprite image for " + imageName);
+    imageHandle = handle;
+    image = imsLoader.getImage(imageHandle);
+    regions = imsLoader.getRegions(imageHandle);
+    regionPosn = 0;
+    if (image == null) {    // the sprite has no image
       width = SIZE;
       height = SIZE;
     }
@@ -88,10 +119,10 @@ public class Sprite
      seqDuration secs. The update interval (from the enclosing
      panel) is animPeriod ms. */
   {
-    if (imsLoader.numImages(imageName) > 1) {
+    if (imsLoader.numImages(imageHandle) > 1) {
       player = null;   // to encourage garbage collection of previous player
-      player = new ImagesPlayer(imageName, animPeriod, seqDuration,
-                                       false, imsLoader);
+      player = new ImagesPlayer(imsLoader.getClip(imageHandle, animPeriod, seqDuration),
+                                       false);
       player.setWatcher(new ImagesPlayerWatcher()
       {
     	  public void sequenceEnded(String imageName)
@@ -104,7 +135,7 @@ public class Sprite
       isPlaying = true;
     }
     else
-      System.out.println(imageName + " is not a sequence of images");
+      System.out.println(imsLoader.getName(imageHandle) + " is not a sequence of images");
   }  // end of playImage()
   
   
@@ -113,14 +144,14 @@ public class Sprite
      seqDuration secs. The update interval (from the enclosing
      panel) is animPeriod ms. */
   {
-    if (imsLoader.numImages(imageName) > 1) {
+    if (imsLoader.numImages(imageHandle) > 1) {
       player = null;   // to encourage garbage collection of previous player
-      player = new ImagesPlayer(imageName, animPeriod, seqDuration,
-                                       true, imsLoader);
+      player = new ImagesPlayer(imsLoader.getClip(imageHandle, animPeriod, seqDuration),
+                                       true);
       isPlaying = true;
     }
     else
-      System.out.println(imageName + " is not a sequence of images");
+      System.out.println(imsLoader.getName(imageHandle) + " is not a sequence of images");
   }  // end of loopImage()
 
 
@@ -195,6 +226,18 @@ public class Sprite
 
   protected ImagesPlayer getIPlayer()
   { return player; }
+
+  protected AtlasRegion getRegion()
+  /* The atlas region of the current image, or null if not packed.
+     When the sprite is not playing, this is the last one shown, as
+     the image is when it is not packed. */
+  {
+    if (regions == null)
+      return null;
+    if (isPlaying)
+      regionPosn = player.getCurrentPosition();
+    return regions[regionPosn];
+  }  // end of getRegion()
   
   public void updateSprite()
   // move the sprite
@@ -217,6 +260,8 @@ public class Sprite
         g.fillOval((int)locx, (int)locy, SIZE, SIZE);
         g.setColor(Color.black);
       }
+      else if (regions != null)
+        getRegion().draw(g, (int)locx, (int)locy);
       else {
         if (isPlaying)
           image = player.getCurrentImage();
@@ -225,4 +270,21 @@ public class Sprite
     }
   } // end of drawSprite()
 
+
+  public void submitSprite(RenderQueue q, int layer)
+  // as drawSprite(), but queue the draw on the given layer of q
+  {
+    if (isActive()) {
+      if (image == null)   // the sprite has no image
+        q.submitOval(layer, Color.yellow, (int)locx, (int)locy, SIZE, SIZE);
+      else if (regions != null)
+        q.submit(layer, getRegion(), (int)locx, (int)locy);
+      else {
+        if (isPlaying)
+          image = player.getCurrentImage();
+        q.submit(layer, image, (int)locx, (int)locy);
+      }
+    }
+  } // end of submitSprite()
+
 }  // end of Sprite class
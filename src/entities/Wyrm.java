@@ -11,20 +11,23 @@
  * [Much of the sophistication of the original has been removed to
  * make the worm more likely to head straight.]
  * 
- * Note that in this version, each Point2D represents the center of
- * a portion of the worm, rather than the upper-left corner.
+ * Note that in this version, each cell represents the center of
+ * a portion of the worm, rather than the upper-left corner.  The
+ * cells are held in parallel arrays of doubles, so that moving and
+ * hit-testing the wyrm allocates nothing.  A Wyrm can be reset()
+ * and reused, which is how WyrmGroup pools them.
  */
 package entities;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Point2D;
+import java.awt.Rectangle;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 
+import image.AtlasRegion;
 import image.ImagesLoader;
+import image.RenderQueue;
 
 
 public class Wyrm
@@ -35,7 +38,7 @@ public class Wyrm
 	  private static final int MAXPOINTS = 12;
 	
 	  // compass direction/bearing constants
-	  private static final int NUM_DIRS = 8;
+	  public static final int NUM_DIRS = 8;
 	  private static final int N = 0;  // north, etc going clockwise
 	  private static final int NE = 1;
 	  private static final int E = 2;
@@ -50,16 +53,27 @@ public class Wyrm
 	  // Stores the increments in each of the compass dirs.
 	  // An increment is added to the old head position to get the
 	  // new position.
-	  Point2D.Double incrs[];
+	  private static final double INCR_X[] = {0.0, 0.7, 1.0, 0.7, 0.0, -0.7, -1.0, -0.7};
+	  private static final double INCR_Y[] = {-1.0, -0.7, 0.0, 0.7, 1.0, 0.7, 0.0, -0.7};
+	  
+	  // offsets tried, in order, to avoid an obstacle
+	  private static final int FIXED_OFFS[] = {2, -2, 3, -3, -4};
 	
 	  // Probability info for selecting a compass dir.
 	  private static final int NUM_PROBS = 10;
 	  private int probsForOffset[];
 	
-	  // cells[] stores the dots making up the wyrm
-	  // it is treated like a circular buffer
-	  private Point2D cells[];
+	  // cellsX[] and cellsY[] store the dots making up the wyrm
+	  // they are treated like a circular buffer
+	  private double cellsX[];
+	  private double cellsY[];
 	  private int nPoints;
+	  
+	  // result of nextPoint(), and the bites taken from the field in one
+	  // move (erased together once the move is decided)
+	  private double nextX, nextY;
+	  private Ellipse2D.Double bites[];
+	  private int numBites;
 	  private int tailPosn, headPosn;   // the tail and head of the buffer
 	
 	  private int pWidth, pHeight;   // panel dimensions
@@ -70,9 +84,19 @@ public class Wyrm
 	  private int mtInit = 1;
 	  private int moveTimer = mtInit;
 	  
-	  private BufferedImage wormHead;
+	  // the head and tail are drawn facing currCompass, using rotations
+	  // pre-rendered by the ImagesLoader (one per compass direction)
+	  private BufferedImage[] wormHeads;
 	  private BufferedImage wormBody;
-	  private BufferedImage wormTail;
+	  private BufferedImage[] wormTails;
+	  
+	  // the same images as regions of the texture atlas, or null if not packed
+	  private AtlasRegion[] headRegions;
+	  private AtlasRegion bodyRegion;
+	  private AtlasRegion[] tailRegions;
+	  
+	  private static final Color BODY_COLOR = new Color(70,90,60);
+	  private static final Color HEAD_COLOR = new Color(120,180,110);
 	  
 	 /**
 	  * The constructor for the Wyrm class.
@@ -86,21 +110,12 @@ public class Wyrm
 	  {
 	    pWidth = pW; pHeight = pH; yBase = yB;
 	    field = df;
-	    cells = new Point2D[MAXPOINTS];   // initialise buffer
-	    
-		nPoints = 0;
-		headPosn = -1;  tailPosn = -1; //first cell at array location 0
-		
-		// increments for each compass dir
-		incrs = new Point2D.Double[NUM_DIRS];
-		incrs[N] = new Point2D.Double(0.0, -1.0);
-		incrs[NE] = new Point2D.Double(0.7, -0.7);
-		incrs[E] = new Point2D.Double(1.0, 0.0);
-		incrs[SE] = new Point2D.Double(0.7, 0.7);
-		incrs[S] = new Point2D.Double(0.0, 1.0);
-		incrs[SW] = new Point2D.Double(-0.7, 0.7);
-		incrs[W] = new Point2D.Double(-1.0, 0.0);
-		incrs[NW] = new Point2D.Double(-0.7, -0.7);
+	    cellsX = new double[MAXPOINTS];   // initialise buffer
+	    cellsY = new double[MAXPOINTS];
+	    bites = new Ellipse2D.Double[FIXED_OFFS.length+1];
+	    for (int i = 0; i < bites.length; i++)
+	    	bites[i] = new Ellipse2D.Double();
+	    reset();
 		
 		// probability info for selecting a compass dir.
 		//    Makes use of predefined compass directions.
@@ -114,24 +129,60 @@ public class Wyrm
 		probsForOffset[6] = -1;  probsForOffset[7] = -1;
 		probsForOffset[8] = 2;  probsForOffset[9] = -2;
 		
-		wormHead = imsLd.getImage("wormhead");
+		wormHeads = imsLd.getRotations("wormhead", NUM_DIRS);
 		wormBody = imsLd.getImage("wormbody");
-		wormTail = imsLd.getImage("wormtail");
+		wormTails = imsLd.getRotations("wormtail", NUM_DIRS);
+		
+		headRegions = regionsOf(wormHeads, imsLd);
+		bodyRegion = (wormBody == null) ? null : imsLd.getRegion(wormBody);
+		tailRegions = regionsOf(wormTails, imsLd);
 
 	  } // end of Wyrm()
+	  
+	 /**
+	  * regionsOf looks up the atlas regions of a set of rotations.
+	  * 
+	  * @param rots the rotated images, or null
+	  * @param imsLd the ImagesLoader holding the atlas
+	  * @return the regions, or null unless every rotation was packed
+	  */
+	  private static AtlasRegion[] regionsOf(BufferedImage[] rots, ImagesLoader imsLd)
+	  {
+		  if (rots == null)
+			  return null;
+		  AtlasRegion[] regions = new AtlasRegion[rots.length];
+		  for (int d = 0; d < rots.length; d++)
+		  {
+			  regions[d] = imsLd.getRegion(rots[d]);
+			  if (regions[d] == null)
+				  return null;
+		  }
+		  return regions;
+	  }
 	
 	  /**
-	   * getHead returns the Point2D coordinates of the Wyrm's head; it is called
-	   * in Player to determine if the Player has touched the Wyrm's head.
+	   * reset empties the Wyrm, so that it will appear afresh near the
+	   * top of the screen on its next move.
+	   */
+	  public void reset()
+	  {
+		nPoints = 0;
+		headPosn = -1;  tailPosn = -1; //first cell at array location 0
+		currCompass = N;
+		moveTimer = mtInit;
+	  }
+	  
+	  /**
+	   * headWithin determines whether the Wyrm's head lies inside the
+	   * given rectangle; it is called in Player to determine if the Player
+	   * has touched the Wyrm's head.
 	   * 
-	   * @return cells[headPosn] if there is a valid head created; otherwise,
-	   * 			a default "junk" value of -1,-1 is returned.
+	   * @param r the rectangle to check
+	   * @return true if there is a head and it is inside r
 	   */
-	  public Point2D getHead()
+	  public boolean headWithin(Rectangle r)
 	  {
-		  if (headPosn >= 0)
-			  return cells[headPosn];
-		  return new Point2D.Double(-1,-1);
+		  return headPosn >= 0 && r.contains(cellsX[headPosn], cellsY[headPosn]);
 	  }
 	  
 	  /**
@@ -147,8 +198,8 @@ public class Wyrm
 	  {
 		  if (nPoints > 0)
 		  {
-			  if( (Math.abs( cells[headPosn].getX() - x) <= DOTSIZE) &&
-			       (Math.abs( cells[headPosn].getY() - y) <= DOTSIZE) )
+			  if( (Math.abs( cellsX[headPosn] - x) <= DOTSIZE) &&
+			       (Math.abs( cellsY[headPosn] - y) <= DOTSIZE) )
 				  return true;
 	      }
 	    return false;
@@ -168,8 +219,8 @@ public class Wyrm
 		  int i = tailPosn;
 		  		while (i != headPosn)
 		  		{
-		  			if( (Math.abs( cells[i].getX() - x) <= RADIUS) &&
-		  				(Math.abs( cells[i].getY() - y) <= RADIUS) )
+		  			if( (Math.abs( cellsX[i] - x) <= RADIUS) &&
+		  				(Math.abs( cellsY[i] - y) <= RADIUS) )
 		  			return true;
 		  			i = (i+1) % MAXPOINTS;
 		  		}
@@ -202,7 +253,8 @@ public class Wyrm
 		    if (nPoints == 0) //if empty, make the first point near the top of the screen
 		    {   // empty array at start
 		    	tailPosn = headPosn;
-		    	cells[headPosn] = new Point2D.Double( (Math.random()*(pWidth-DOTSIZE))+RADIUS, RADIUS );
+		    	cellsX[headPosn] = (Math.random()*(pWidth-DOTSIZE))+RADIUS;
+		    	cellsY[headPosn] = RADIUS;
 		    	nPoints++;
 		    }
 		    else if (nPoints == MAXPOINTS)     // array is full
@@ -210,7 +262,7 @@ public class Wyrm
 		    	tailPosn = (tailPosn + 1) % MAXPOINTS;    // forget last tail
 		    	newHead(prevPosn);
 		    }
-		    else	     // still room in cells[]
+		    else	     // still room in the cells
 			    {
 			    	newHead(prevPosn);
 			    	nPoints++;
@@ -231,48 +283,75 @@ public class Wyrm
 	   * In the second phase we try a head which is 90 degrees
 	   * clockwise, 90 degress clockwise, or 180 degrees reversed
 	   * so that the obstacle is avoided. These bearings are 
-	   * stored in fixedOffs[].
+	   * stored in FIXED_OFFS[].
 	   * 
 	   * @param prevPosn the previous head location, to move away from
 	   */
 	  private void newHead(int prevPosn)
 	  {
-	    Point2D newPt;
-	    int fixedOffs[] = {2, -2, 3, -3, -4};  // offsets to avoid an obstacle
 		boolean success = true;
 		
 		int newBearing = varyBearing();
-		newPt = nextPoint(prevPosn, newBearing);
+		nextPoint(prevPosn, newBearing);
 		  // Get a new position based on a semi-random
 		  // variation of the current position.
 		
-		if (field.hits((int)newPt.getX(), (int)newPt.getY()) || newPt.getY() > yBase)
+		numBites = 0;
+		if (field.hits((int)nextX, (int)nextY) || nextY > yBase)
 		{
-			field.eraseUnder(new Ellipse2D.Double((int)newPt.getX()-RADIUS-1, (int)newPt.getY()-RADIUS-1, DOTSIZE+2, DOTSIZE+2));
-			//new Ellipse2D.Double(cells[prevPosn].getX() + incrs[newBearing].getX()*.75,
-			//cells[prevPosn].getY() + incrs[newBearing].getY()*.75,DOTSIZE,DOTSIZE)
+			addBite();
 			
-			for (int i=0; i < fixedOffs.length; i++)
+			for (int i=0; i < FIXED_OFFS.length; i++)
 			{
 				//don't repeat the same direction already tried
-				if (fixedOffs[i] != newBearing)
+				if (FIXED_OFFS[i] != newBearing)
 				{
-					newPt = nextPoint(prevPosn, calcBearing(fixedOffs[i]));
-					if (!field.hits((int)newPt.getX(), (int)newPt.getY()) && newPt.getY() <= yBase)
+					nextPoint(prevPosn, calcBearing(FIXED_OFFS[i]));
+					if (!hitsUnbitten((int)nextX, (int)nextY) && nextY <= yBase)
 						break;     // one of the fixed offsets will work
 					
 					//If the Wyrm bumps into the field, it will chew it up.
-					field.eraseUnder(new Ellipse2D.Double((int)newPt.getX()-RADIUS-1, (int)newPt.getY()-RADIUS-1, DOTSIZE+2, DOTSIZE+2));
+					addBite();
 				}
 			}
+			field.eraseUnder(bites, numBites);
 			success = false;
 		}
 		if (success)
-			cells[headPosn] = newPt;     // new head position
+		{
+			cellsX[headPosn] = nextX;     // new head position
+			cellsY[headPosn] = nextY;
+		}
 		else
-			cells[headPosn] = cells[prevPosn];     // if trapped, stay put
+		{
+			cellsX[headPosn] = cellsX[prevPosn];     // if trapped, stay put
+			cellsY[headPosn] = cellsY[prevPosn];
+		}
 	  }  // end of newHead()
 	
+	  /**
+	   * addBite records a bite out of the field around (nextX, nextY),
+	   * to be erased when newHead has finished.
+	   */
+	  private void addBite()
+	  {
+		bites[numBites++].setFrame((int)nextX-RADIUS-1, (int)nextY-RADIUS-1, DOTSIZE+2, DOTSIZE+2);
+	  }
+	  
+	  /**
+	   * hitsUnbitten determines whether the field is filled at (x,y),
+	   * treating the bites already taken this move as erased.
+	   */
+	  private boolean hitsUnbitten(int x, int y)
+	  {
+		if (!field.hits(x, y))
+			return false;
+		for (int i = 0; i < numBites; i++)
+			if (bites[i].contains(x, y))
+				return false;
+		return true;
+	  }
+	
 	  /**
 	   * varyBearing varies the compass bearing semi-randomly 
 	   *
@@ -304,21 +383,19 @@ public class Wyrm
 	  }  // end of calcBearing()
 	  
 	  /**
-	   * nextPoint returns the next coordinate based on the previous
-	   * position and a compass direction.
+	   * nextPoint sets nextX and nextY to the next coordinate based on
+	   * the previous position and a compass direction.
 	   * 
 	   * Convert the direction into predetermined increments (stored
-	   * in incrs[]). Add the increments multiplied by the DOTSIZE
+	   * in INCR_X[] and INCR_Y[]). Add the increments multiplied by the DOTSIZE
 	   * to the old head position.  Collision with the sides of the
 	   * screen is also accounted for.
 	   */
-	  private Point2D nextPoint(int prevPosn, int bearing)
+	  private void nextPoint(int prevPosn, int bearing)
 	  { 
-			// get the increments for the compass bearing
-		Point2D.Double incr = incrs[bearing];
-		
-		int newX = (int)cells[prevPosn].getX() + (int)(DOTSIZE * incr.getX());
-		int newY = (int)cells[prevPosn].getY() + (int)(DOTSIZE * incr.getY());
+			// apply the increments for the compass bearing
+		int newX = (int)cellsX[prevPosn] + (int)(DOTSIZE * INCR_X[bearing]);
+		int newY = (int)cellsY[prevPosn] + (int)(DOTSIZE * INCR_Y[bearing]);
 		
 		// modify newX/newY if they lead over the edge the screen; make the wyrm bounce
 			if (newX < 0)
@@ -343,7 +420,8 @@ public class Wyrm
 				newY = pHeight - RADIUS;
 			}
 			
-			return new Point2D.Double(newX,newY);
+			nextX = newX;
+			nextY = newY;
 	  }  // end of nextPoint()
 	
 	/**
@@ -355,66 +433,107 @@ public class Wyrm
 	{
 		if (nPoints > 0)
 		{
-			g.setColor(new Color(70,90,60));
+			g.setColor(BODY_COLOR);
 			int i = tailPosn;
 
 			if (i != headPosn)
 			{
-				if (wormTail != null)
-					g.drawImage(rotateImage(wormTail), (int) cells[i].getX()-wormTail.getWidth()/2, (int) cells[i].getY()-wormTail.getHeight()/2, null);
+				if (wormTails != null)
+				{
+					BufferedImage wormTail = wormTails[currCompass];
+					int x = (int) cellsX[i]-wormTail.getWidth()/2, y = (int) cellsY[i]-wormTail.getHeight()/2;
+					if (tailRegions != null)
+						tailRegions[currCompass].draw(g, x, y);
+					else
+						g.drawImage(wormTail, x, y, null);
+				}
 				else
-					g.fillOval((int)cells[i].getX()-RADIUS, (int)cells[i].getY()-RADIUS, DOTSIZE, DOTSIZE);
+					g.fillOval((int)cellsX[i]-RADIUS, (int)cellsY[i]-RADIUS, DOTSIZE, DOTSIZE);
 				i = (i+1) % MAXPOINTS;
 			}
 			
 			while (i != headPosn)
 			{
-				if (wormBody != null)
-					g.drawImage(wormBody, (int) cells[i].getX()-wormBody.getWidth()/2, (int) cells[i].getY()-wormBody.getHeight()/2, null);
+				if (bodyRegion != null)
+					bodyRegion.draw(g, (int) cellsX[i]-wormBody.getWidth()/2, (int) cellsY[i]-wormBody.getHeight()/2);
+				else if (wormBody != null)
+					g.drawImage(wormBody, (int) cellsX[i]-wormBody.getWidth()/2, (int) cellsY[i]-wormBody.getHeight()/2, null);
 				else
-					g.fillOval((int)cells[i].getX()-RADIUS, (int)cells[i].getY()-RADIUS, DOTSIZE, DOTSIZE);
+					g.fillOval((int)cellsX[i]-RADIUS, (int)cellsY[i]-RADIUS, DOTSIZE, DOTSIZE);
 				i = (i+1) % MAXPOINTS;
 			}
 			
-			if (wormHead != null)
-				g.drawImage(rotateImage(wormHead), (int) cells[headPosn].getX()-wormHead.getWidth()/2, (int) cells[headPosn].getY()-wormHead.getHeight()/2, null);
+			if (wormHeads != null)
+			{
+				BufferedImage wormHead = wormHeads[currCompass];
+				int x = (int) cellsX[headPosn]-wormHead.getWidth()/2, y = (int) cellsY[headPosn]-wormHead.getHeight()/2;
+				if (headRegions != null)
+					headRegions[currCompass].draw(g, x, y);
+				else
+					g.drawImage(wormHead, x, y, null);
+			}
 			else
 			{
-				g.setColor(new Color(120,180,110));
-				g.fillOval( (int) cells[headPosn].getX()-RADIUS, (int) cells[headPosn].getY()-RADIUS, DOTSIZE, DOTSIZE);
+				g.setColor(HEAD_COLOR);
+				g.fillOval( (int) cellsX[headPosn]-RADIUS, (int) cellsY[headPosn]-RADIUS, DOTSIZE, DOTSIZE);
 			}
 			
 		}
 	}  // end of draw()
 	
-	
 	/**
-	 * rotateImage rotates a given image, with an AffineTransform, and returns it.
-	 *  
-	 * @param src the source image
-	 * @return dest the result image
+	 * submit queues the Wyrm's draws, as draw would make them.  The
+	 * tail and body go on the given layer, and the head on the layer
+	 * above it, so the head stays on top of the body.
+	 * 
+	 * @param q the RenderQueue to submit to
+	 * @param layer the layer for the tail and body
 	 */
-	public BufferedImage rotateImage( BufferedImage src )
+	public void submit(RenderQueue q, int layer)
 	{
-		int angle = currCompass*45;
-		int transparency = src.getColorModel().getTransparency();
-		BufferedImage dest = new BufferedImage(src.getWidth(), src
-				.getHeight(), transparency);
-		Graphics2D g2d = dest.createGraphics();
-
-		AffineTransform origAT = g2d.getTransform(); // save original transform
-
-		// rotate the coord. system of the dest. image around its center
-		AffineTransform rot = new AffineTransform();
-		rot.rotate(Math.toRadians(angle), src.getWidth() / 2,
-				src.getHeight() / 2);
-		g2d.transform(rot);
-
-		g2d.drawImage(src, 0, 0, null); // copy in the image
+		if (nPoints > 0)
+		{
+			int i = tailPosn;
 
-		g2d.setTransform(origAT); // restore original transform
-		
-		return dest;
-	}
+			if (i != headPosn)
+			{
+				if (wormTails != null)
+				{
+					BufferedImage wormTail = wormTails[currCompass];
+					int x = (int) cellsX[i]-wormTail.getWidth()/2, y = (int) cellsY[i]-wormTail.getHeight()/2;
+					if (tailRegions != null)
+						q.submit(layer, tailRegions[currCompass], x, y);
+					else
+						q.submit(layer, wormTail, x, y);
+				}
+				else
+					q.submitOval(layer, BODY_COLOR, (int)cellsX[i]-RADIUS, (int)cellsY[i]-RADIUS, DOTSIZE, DOTSIZE);
+				i = (i+1) % MAXPOINTS;
+			}
+			
+			while (i != headPosn)
+			{
+				if (bodyRegion != null)
+					q.submit(layer, bodyRegion, (int) cellsX[i]-wormBody.getWidth()/2, (int) cellsY[i]-wormBody.getHeight()/2);
+				else if (wormBody != null)
+					q.submit(layer, wormBody, (int) cellsX[i]-wormBody.getWidth()/2, (int) cellsY[i]-wormBody.getHeight()/2);
+				else
+					q.submitOval(layer, BODY_COLOR, (int)cellsX[i]-RADIUS, (int)cellsY[i]-RADIUS, DOTSIZE, DOTSIZE);
+				i = (i+1) % MAXPOINTS;
+			}
+			
+			if (wormHeads != null)
+			{
+				BufferedImage wormHead = wormHeads[currCompass];
+				int x = (int) cellsX[headPosn]-wormHead.getWidth()/2, y = (int) cellsY[headPosn]-wormHead.getHeight()/2;
+				if (headRegions != null)
+					q.submit(layer+1, headRegions[currCompass], x, y);
+				else
+					q.submit(layer+1, wormHead, x, y);
+			}
+			else
+				q.submitOval(layer+1, HEAD_COLOR, (int) cellsX[headPosn]-RADIUS, (int) cellsY[headPosn]-RADIUS, DOTSIZE, DOTSIZE);
+		}
+	}  // end of submit()
 
 }  // end of Wyrm class
@@ -0,0 +1,227 @@
+/**
+ * WyrmGroup.java manages the Wyrms currently attacking the player.
+ *
+ * The Wyrms are kept in a fixed-size pool; a slot is either active
+ * or free, and spawning a Wyrm reuses a free slot rather than creating
+ * a new object.  The number of Wyrms allowed on screen at once can be
+ * raised (up to the size of the pool) as the game gets harder.
+ *
+ * by Anton Ridgway
+ */
+
+package entities;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+import image.ImagesLoader;
+import image.RenderQueue;
+
+public class WyrmGroup
+{
+	public static final int LAYERS_PER_WYRM = 2; // see submit()
+
+	private Wyrm[] wyrms;
+	private boolean[] active;
+	private int numActive = 0;
+	private int limit = 1;
+
+	/**
+	 * The constructor for the WyrmGroup.  Every Wyrm in the pool is
+	 * created here.
+	 *
+	 * @param size the largest number of Wyrms that may be active at once
+	 * @param pW the screen width, for reference
+	 * @param pH the screen height, for reference
+	 * @param yB the y-coordinate of the status bar, for reference
+	 * @param df the defenseField, for the Wyrms to "eat"
+	 * @param imsLd the ImagesLoader holding the Wyrm images
+	 */
+	public WyrmGroup(int size, int pW, int pH, int yB, DefenseField df, ImagesLoader imsLd)
+	{
+		wyrms = new Wyrm[size];
+		active = new boolean[size];
+		for (int i = 0; i < size; i++)
+			wyrms[i] = new Wyrm(pW, pH, yB, df, imsLd);
+	}
+
+	/**
+	 * getLimit returns how many Wyrms may currently be active at once.
+	 * @return limit the current limit
+	 */
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	/**
+	 * setLimit sets how many Wyrms may be active at once, clamped
+	 * to between 1 and the size of the pool.  Wyrms already active
+	 * are left alone.
+	 *
+	 * @param l the new limit
+	 */
+	public void setLimit(int l)
+	{
+		limit = Math.max(1, Math.min(l, wyrms.length));
+	}
+
+	/**
+	 * isFull determines whether another Wyrm may be spawned.
+	 * @return true if the active Wyrms are at the limit
+	 */
+	public boolean isFull()
+	{
+		return numActive >= limit;
+	}
+
+	/**
+	 * numActive returns the number of active Wyrms.
+	 * @return numActive the number of active Wyrms
+	 */
+	public int numActive()
+	{
+		return numActive;
+	}
+
+	/**
+	 * spawn activates a free Wyrm from the pool, if the limit allows.
+	 *
+	 * @return true if a Wyrm was spawned
+	 */
+	public boolean spawn()
+	{
+		if (isFull())
+			return false;
+		for (int i = 0; i < wyrms.length; i++)
+		{
+			if (!active[i])
+			{
+				wyrms[i].reset();
+				active[i] = true;
+				numActive++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * clear deactivates every Wyrm; used with a game restart.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			active[i] = false;
+		numActive = 0;
+	}
+
+	/**
+	 * killAt deactivates the first active Wyrm whose head is near
+	 * the given coordinates.
+	 *
+	 * @param x the x-coordinate to check
+	 * @param y the y-coordinate to check
+	 * @return true if a Wyrm was killed
+	 */
+	public boolean killAt(int x, int y)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+		{
+			if (active[i] && wyrms[i].nearHead(x, y))
+			{
+				active[i] = false;
+				numActive--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * nearHead determines whether the given coordinates are near the
+	 * head of any active Wyrm.
+	 *
+	 * @param x the x-coordinate to check
+	 * @param y the y-coordinate to check
+	 * @return true if they are near a head
+	 */
+	public boolean nearHead(int x, int y)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i] && wyrms[i].nearHead(x, y))
+				return true;
+		return false;
+	}
+
+	/**
+	 * touchedAt determines whether the given coordinates touch the
+	 * body of any active Wyrm.
+	 *
+	 * @param x the x-coordinate to check
+	 * @param y the y-coordinate to check
+	 * @return true if they touch a body
+	 */
+	public boolean touchedAt(int x, int y)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i] && wyrms[i].touchedAt(x, y))
+				return true;
+		return false;
+	}
+
+	/**
+	 * headWithin determines whether the head of any active Wyrm lies
+	 * inside the given rectangle.
+	 *
+	 * @param r the rectangle to check
+	 * @return true if a head is inside r
+	 */
+	public boolean headWithin(Rectangle r)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i] && wyrms[i].headWithin(r))
+				return true;
+		return false;
+	}
+
+	/**
+	 * move moves each active Wyrm.
+	 */
+	public void move()
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i])
+				wyrms[i].move();
+	}
+
+	/**
+	 * draw draws each active Wyrm.
+	 *
+	 * @param g the Graphics object to use.
+	 */
+	public void draw(Graphics g)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i])
+				wyrms[i].draw(g);
+	}
+
+	/**
+	 * submit queues the draws of each active Wyrm.  Each Wyrm in the
+	 * pool has its own LAYERS_PER_WYRM layers, from the given one up,
+	 * for its body and then its head; so the Wyrms overlap just as
+	 * they do when drawn in turn, a head covering only its own body
+	 * and the Wyrms before it.  The layers used run up to
+	 * layer + LAYERS_PER_WYRM*size - 1.
+	 *
+	 * @param q the RenderQueue to submit to
+	 * @param layer the first Wyrm's body layer
+	 */
+	public void submit(RenderQueue q, int layer)
+	{
+		for (int i = 0; i < wyrms.length; i++)
+			if (active[i])
+				wyrms[i].submit(q, layer + LAYERS_PER_WYRM*i);
+	}
+}
@@ -1,15 +1,26 @@
 /**
  * GameMenu.java manages the display for the game's GUI menu.
+ * 
+ * The current menu screen is rendered once into a cached image,
+ * which is drawn over the animated background each frame.  It is
+ * only rendered again when the screen changes, the high score table
+ * changes, or (on the audio screen) the music track info changes.
+ * Only the part of the image that was drawn on is blitted.
+ * 
  * by Anton Ridgway
  */
 
 package framework;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 
 import image.ImagesLoader;
@@ -51,6 +62,13 @@ public class GameMenu {
 	private ScoreTable scoreTable;
 	private MusicManager musicMan;
 	
+	// the cached rendering of the current screen, and what it shows
+	private BufferedImage screenImage;
+	private Rectangle screenBounds = new Rectangle(); // the part drawn on
+	private int cachedScreen = -1;       // -1 when the cache is invalid
+	private int cachedScores;            // the ScoreTable version shown
+	private String cachedInfo;           // the music track info shown
+	
 	public GameMenu( int pW, int pH, ScoreTable sTable, MusicManager mMan, ImagesLoader imsLd )
 	{
 		pWidth = pW;
@@ -89,6 +107,16 @@ public class GameMenu {
 		keysY = pHeight-keys.getHeight();
 		staffX = (pWidth-staff.getWidth())/2;
 		staffY = (pHeight-staff.getHeight())/4;
+		
+		try
+		{
+			screenImage = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().
+					getDefaultConfiguration().createCompatibleImage(pWidth, pHeight, Transparency.TRANSLUCENT);
+		}
+		catch (HeadlessException e)
+		{
+			screenImage = new BufferedImage(pWidth, pHeight, BufferedImage.TYPE_INT_ARGB);
+		}
 	}
 	
 	/**
@@ -171,11 +199,86 @@ public class GameMenu {
 	}
 
 	/**
-	 * displayMenu display's the various portions of the game menu,
-	 * depending on a switch statement on the menuScreen integer.
+	 * displayMenu displays the current menu screen, from the cached
+	 * image, first rendering it again if what it shows has changed.
+	 * 
 	 * @param g the Graphics object to display to.
 	 */
 	public void displayMenu( Graphics g )
+	{
+		if (menuScreen != cachedScreen || scoreTable.getVersion() != cachedScores ||
+				(menuScreen == 4 && musicMan.getInfo() != cachedInfo))
+			renderCache();
+		
+		if (!screenBounds.isEmpty())
+			g.drawImage(screenImage, screenBounds.x, screenBounds.y, 
+					screenBounds.x+screenBounds.width, screenBounds.y+screenBounds.height,
+					screenBounds.x, screenBounds.y, 
+					screenBounds.x+screenBounds.width, screenBounds.y+screenBounds.height, null);
+	}
+	
+	/**
+	 * invalidate makes the menu render its screen again on the next
+	 * displayMenu call; for changes the menu cannot see for itself.
+	 */
+	public void invalidate()
+	{
+		cachedScreen = -1;
+	}
+	
+	/**
+	 * renderCache renders the current screen into the cached image,
+	 * and finds the bounds of the part of it that was drawn on.
+	 */
+	private void renderCache()
+	{
+		Graphics2D g2 = screenImage.createGraphics();
+		g2.setComposite(AlphaComposite.Clear);
+		g2.fillRect(0, 0, pWidth, pHeight);
+		g2.setComposite(AlphaComposite.SrcOver);
+		renderScreen(g2);
+		g2.dispose();
+		
+		cachedScreen = menuScreen;
+		cachedScores = scoreTable.getVersion();
+		cachedInfo = musicMan.getInfo();
+		findBounds();
+	}
+	
+	/**
+	 * findBounds sets screenBounds to the smallest rectangle holding
+	 * every pixel of the cached image that is not fully transparent.
+	 */
+	private void findBounds()
+	{
+		int[] row = new int[pWidth];
+		int minX = pWidth, maxX = -1, minY = pHeight, maxY = -1;
+		for (int y = 0; y < pHeight; y++)
+		{
+			screenImage.getRGB(0, y, pWidth, 1, row, 0, pWidth);
+			for (int x = 0; x < pWidth; x++)
+			{
+				if ((row[x] >>> 24) != 0)
+				{
+					if (x < minX) minX = x;
+					if (x > maxX) maxX = x;
+					if (y < minY) minY = y;
+					maxY = y;
+				}
+			}
+		}
+		if (maxX < 0)
+			screenBounds.setBounds(0, 0, 0, 0);
+		else
+			screenBounds.setBounds(minX, minY, maxX-minX+1, maxY-minY+1);
+	}
+
+	/**
+	 * renderScreen draws the various portions of the game menu,
+	 * depending on a switch statement on the menuScreen integer.
+	 * @param g the Graphics object to draw to.
+	 */
+	private void renderScreen( Graphics g )
 	{
 		Graphics2D g2 = (Graphics2D)g;
 		g2.setFont(font);
@@ -17,20 +17,57 @@ package framework;
    in the panel.
 
    A collection of ribbons are managed by a RibbonsManager object.
+
+   Rather than stitching the tail and head together at the wrap
+   point with two draws, the ribbon draws from an extended copy of
+   its image: the image followed by its first pWidth+1 columns again
+   (tiled, if the image is narrower than the panel). Any scroll
+   position is then a single unscaled blit of a pWidth-wide slice
+   of the copy. Only the rows which can appear in the panel are
+   copied. The copies are shared by ribbons using the same image,
+   and are kept only while some ribbon is using them. The ribbon
+   keeps only the copy, not the image (though the image is still
+   referred to by the shared copies' cache while its copy is used).
+
+   Alternatively, the owner of the image can make the copy with
+   extend(), keep it in place of the image, and build ribbons from
+   it with fromExtended(); an ImageResidency does this, so that the
+   copies are what it counts and evicts.
+
+   A ribbon can also be set to scroll smoothly, by sub-pixel
+   amounts, which suits slow ribbons that would otherwise jump a
+   whole pixel every few frames. The slice is then drawn translated
+   by the fraction, with bilinear interpolation.
+
+   If the ribbon is given a SurfaceCache, the extended copy is drawn
+   through it, from an accelerated mirror where one is available.
 */
 
 import java.awt.*;
 import javax.swing.*;
 import java.awt.image.*;
+import java.lang.ref.WeakReference;
+import image.SurfaceCache;
+import java.util.HashMap;
+import java.util.Iterator;
 
 
 
 public class Ribbon
 {
-  private BufferedImage im;
+  private static final int SUB_STEPS = 8;   // sub-pixel positions per pixel
+
+  private static HashMap<ExtKey, WeakReference<BufferedImage>> extCache =
+                      new HashMap<ExtKey, WeakReference<BufferedImage>>();
+     // the extended copies, shared by all ribbons
+
   private int width;      // the width of the image (>= pWidth)
   private int pWidth, pHeight;    // dimensions of display panel
-  private int drawHeight;
+
+  private BufferedImage extIm;    // the extended copy of the image
+  private int extY, extHeight;    // where it is drawn in the panel, and its rows
+  private boolean isSmooth = false;   // scroll by sub-pixel amounts?
+  private SurfaceCache surfaces = null;   // null to draw extIm directly
 
   private double moveSize;       // size of the image move (in pixels)
   private boolean isMovingRight;  // movement flags
@@ -48,15 +85,28 @@ public class Ribbon
  
 
   public Ribbon(int w, int h, BufferedImage im, int baseH, double moveSz)
+  // use the extended copy of im, making it if no other ribbon has
+  {  this(getExtended(im, w, h, baseH), w, h, baseH, moveSz);  }
+
+
+  public static Ribbon fromExtended(int w, int h, BufferedImage extIm, 
+                                              int baseH, double moveSz)
+  // use extIm, made by extend() for a w by h panel and the same baseH
+  {  return new Ribbon(extIm, w, h, baseH, moveSz);  }
+
+
+  private Ribbon(BufferedImage extIm, int w, int h, int baseH, double moveSz)
   {
     pWidth = w; pHeight = h;
     
-    this.im = im;
-    width = im.getWidth();    // no need to store the height
+    this.extIm = extIm;
+    width = extIm.getWidth() - pWidth - 1;
     if (width < pWidth) 
       System.out.println("Ribbon width < panel width");
 
-    drawHeight = pHeight-baseH-im.getHeight();
+    // the copy holds the visible rows, down to baseH above the panel's bottom
+    extHeight = extIm.getHeight();
+    extY = pHeight - Math.max(0, baseH) - extHeight;
 
     moveSize = moveSz;
     isMovingRight = false;   // no movement at start
@@ -66,11 +116,41 @@ public class Ribbon
 
   public boolean isNullImage()
   {
-	  if (im == null)
+	  if (extIm == null)
 		  return true;
 	  return false;
   }
   
+  public boolean isMoving()
+  // will the next update move the ribbon?
+  {  return (isMovingRight || isMovingLeft) && (moveSize != 0);  }
+
+
+  public double getMoveSize()
+  {  return moveSize;  }
+
+
+  public int getOffset()
+  /* The position of the image head as display() uses it: in whole
+     pixels, or in steps of 1/SUB_STEPS of a pixel if the ribbon is
+     scrolling smoothly. The ribbon looks the same whenever this is. */
+  {
+    if (isSmooth)
+      return (int)Math.ceil(xImHead*SUB_STEPS);
+    return (int)xImHead;
+  }  // end of getOffset()
+
+
+  public void setSurfaceCache(SurfaceCache sc)
+  // draw through sc, or directly if sc is null
+  {  surfaces = sc;  }
+
+
+  public void setSmooth(boolean b)
+  // scroll by sub-pixel amounts (true) or whole pixels (false)
+  {  isSmooth = b;  }
+
+
   public void moveRight()
   // move the ribbon image to the right on the next update
   { isMovingRight = true;
@@ -107,42 +187,176 @@ public class Ribbon
 
 
   public void display(Graphics g)
-  /* Consider 5 cases: 
-       when xImHead == 0, draw only the im head
-       when xImHead > 0, draw the im tail and im head, or only the im tail.
-       when xImHead < 0, draw the im tail, or the im tail and im head
+  // draw the ribbon across the whole panel
+  {  display(g, 0, pWidth);  }
+
 
-     xImHead can range between -width to width (exclusive)
+  public void display(Graphics g, int x1, int x2)
+  /* Draw only the part of the ribbon lying between x1 and x2 
+     (exclusive) in the panel.
+
+     The panel's left edge shows column (-xImHead) of the image,
+     wrapped into 0 to width-1; the extended copy holds pWidth+1 
+     columns after that, so the slice never needs wrapping.
+     For whole-pixel scrolling, xImHead is truncated as before.
   */
   {
-	int xTemp = (int)xImHead; //prevent repeated casting
-    if (xTemp == 0)   // draw im head at (0,0)
-      draw(g, im, 0, pWidth, 0, pWidth);
-    else if ((xTemp > 0) && (xTemp < pWidth)) {  
-       // draw im tail at (0,0) and im head at (xImHead,0) 
-      draw(g, im, 0, xTemp, width-xTemp, width);   // im tail
-      draw(g, im, xTemp, pWidth, 0, pWidth-xTemp);  // im head
-    }
-    else if (xTemp >= pWidth)   // only draw im tail at (0,0)
-      draw(g, im, 0, pWidth, 
-                  width-xTemp, width-xTemp+pWidth);  // im tail
-    else if ((xTemp < 0) && (xImHead >= pWidth-width))
-      draw(g, im, 0, pWidth, -xTemp, pWidth-xTemp);  // im body
-    else if (xImHead < pWidth-width) {
-       // draw im tail at (0,0) and im head at (width+xImHead,0)
-      draw(g, im, 0, width+xTemp, -xTemp, width);  // im tail
-      draw(g, im, width+xTemp, pWidth, 
-                  0, pWidth-width-xTemp);  // im head
+    if (isSmooth && (x1 == 0) && (x2 == pWidth)) {
+      displaySmooth(g);
+      return;
     }
+    int col = startColumn((int)xImHead);
+    blit(g, x1, extY, x2, extY+extHeight,
+                       col+x1, 0, col+x2, extHeight);
   } // end of display()
 
-  
-  private void draw(Graphics g, BufferedImage im, 
-                        int scrX1, int scrX2, int imX1, int imX2)
-  /* The y-coords of the image always starts at 0 and ends at
-     pHeight (the height of the panel), so are hardwired. */
-  { g.drawImage(im, scrX1, drawHeight, scrX2, drawHeight+im.getHeight(), 
-                     imX1, 0,  imX2, im.getHeight(), null);
+
+  private void displaySmooth(Graphics g)
+  /* Draw the slice at the next whole pixel to the right, shifted
+     left by the fractional part of xImHead. The slice is a column
+     wider than the panel, to fill the gap this leaves at the right.
+     Partial draws (during a background switch) stay whole-pixel. */
+  {
+    double xPos = Math.ceil(xImHead*SUB_STEPS)/SUB_STEPS;
+    int xCeil = (int)Math.ceil(xPos);
+    double frac = xPos - xCeil;     // in (-1, 0]
+    int col = startColumn(xCeil);
+
+    Graphics2D g2d = (Graphics2D)g;
+    Object hint = g2d.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+    g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                         RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g2d.translate(frac, 0);
+    blit(g2d, 0, extY, pWidth+1, extY+extHeight,
+                         col, 0, col+pWidth+1, extHeight);
+    g2d.translate(-frac, 0);
+    if (hint != null)
+      g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
+  }  // end of displaySmooth()
+
+
+  private void blit(Graphics g, int dx1, int dy1, int dx2, int dy2,
+                                 int sx1, int sy1, int sx2, int sy2)
+  // draw part of the extended copy, through the surface cache if there is one
+  {
+    if (surfaces != null)
+      surfaces.drawImage(g, extIm, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2);
+    else
+      g.drawImage(extIm, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+  }  // end of blit()
+
+
+  private int startColumn(int xHead)
+  // the column of the image shown at the panel's left edge
+  {
+    int col = (-xHead) % width;
+    return (col < 0) ? col+width : col;
   }
 
+
+  public BufferedImage getImage()
+  /* The image the ribbon draws from, which is the extended copy,
+     shared with any other ribbons showing the same image. */
+  {  return extIm;  }
+
+
+  // ------------- the extended copies --------------------
+
+
+  public static BufferedImage extend(BufferedImage im, int pWidth, 
+                                          int pHeight, int baseH)
+  /* Make a new extended copy of im, for a ribbon baseH above the
+     bottom of a pWidth by pHeight panel. It is not shared with
+     other ribbons, and does not keep im alive. */
+  {
+    int top = firstRow(im, pHeight, baseH);
+    return makeExtended(im, pWidth, top, numRows(im, pHeight, baseH, top));
+  }  // end of extend()
+
+
+  private static int firstRow(BufferedImage im, int pHeight, int baseH)
+  // the first row of im which can appear in the panel
+  {  return Math.max(0, -(pHeight-baseH-im.getHeight()));  }
+
+
+  private static int numRows(BufferedImage im, int pHeight, int baseH, int top)
+  // how many rows of im, from top, can appear in the panel
+  {
+    int drawHeight = pHeight-baseH-im.getHeight();
+    return Math.max(1, Math.min(im.getHeight(), pHeight-drawHeight) - top);
+  }
+
+
+  private static synchronized BufferedImage getExtended(BufferedImage im, 
+                                   int pWidth, int pHeight, int baseH)
+  /* Return the extended copy of the visible rows of im, with
+     pWidth+1 extra columns, making it if it is not already in use.
+     Ribbons may be made on more than one thread. */
+  {
+    int top = firstRow(im, pHeight, baseH);
+    int rows = numRows(im, pHeight, baseH, top);
+    ExtKey key = new ExtKey(im, pWidth, top, rows);
+    WeakReference<BufferedImage> ref = extCache.get(key);
+    BufferedImage ext = (ref == null) ? null : ref.get();
+    if (ext == null) {
+      // forget the copies no longer in use, whose keys would keep their images alive
+      Iterator<WeakReference<BufferedImage>> it = extCache.values().iterator();
+      while (it.hasNext())
+        if (it.next().get() == null)
+          it.remove();
+      ext = makeExtended(im, pWidth, top, rows);
+      extCache.put(key, new WeakReference<BufferedImage>(ext));
+    }
+    return ext;
+  }  // end of getExtended()
+
+
+  private static BufferedImage makeExtended(BufferedImage im, int pWidth,
+                                                  int top, int rows)
+  {
+    int width = im.getWidth();
+    int extWidth = width + pWidth + 1;
+    BufferedImage ext;
+    try {
+      GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+                                    getDefaultScreenDevice().getDefaultConfiguration();
+      ext = gc.createCompatibleImage(extWidth, rows, im.getTransparency());
+    }
+    catch (HeadlessException e) 
+    {  ext = new BufferedImage(extWidth, rows, BufferedImage.TYPE_INT_ARGB);  }
+
+    Graphics2D g2d = ext.createGraphics();
+    g2d.setComposite(AlphaComposite.Src);
+    for (int x = 0; x < extWidth; x += width)    // tile the image across
+      g2d.drawImage(im, x, -top, null);
+    g2d.dispose();
+    return ext;
+  }  // end of makeExtended()
+
+
+  private static class ExtKey
+  // identifies an extended copy: the image, panel width, and rows
+  {
+    private BufferedImage im;
+    private int pWidth, top, rows;
+
+    public ExtKey(BufferedImage im, int pWidth, int top, int rows)
+    { this.im = im;  this.pWidth = pWidth;
+      this.top = top;  this.rows = rows;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof ExtKey))
+        return false;
+      ExtKey k = (ExtKey) o;
+      return (im == k.im) && (pWidth == k.pWidth) &&
+             (top == k.top) && (rows == k.rows);
+    }
+
+    public int hashCode()
+    {  return System.identityHashCode(im) + 31*(pWidth + 31*(top + 31*rows));  }
+
+  }  // end of ExtKey class
+
 }  // end of Ribbon
@@ -14,12 +14,43 @@ package framework;
    sprite doesn't actually move, instead the ribbons move in
    the _opposite_direction (right or left).
 
+   The ribbons at the back of the scene which move by less than
+   a pixel a tick (such as the sky), and any others in front of
+   them which are currently standing still, are composited into a
+   cached backdrop image. The backdrop is only redrawn when one of
+   those ribbons reaches a new whole-pixel offset, or the set of
+   cached ribbons changes; the other frames draw it with a single
+   blit, followed by the moving ribbons in front of it.
+
+   The next background set is prepared ahead of time on a
+   background thread: its ribbons are built, and their images drawn
+   once to an accelerated surface so the JVM has cached them before
+   they first appear. switchTo() then picks the prepared set up
+   without any work on the update thread. During the transition,
+   the old ribbons are drawn to the left of the switching edge and
+   the new ones to its right, each only over its visible slice.
+   When the transition ends, the cached surfaces of any images the
+   new set does not use are released.
+
+   The background images are loaded on demand, through an
+   ImageResidency which keeps each set as a group. The current set
+   is acquired, and so is the next one when it is prepared, which
+   prefetches it; a set is released once it is no longer shown, and
+   may then be evicted if the images go over the residency's budget.
+   The residency keeps each image's extended ribbon copy (see Ribbon)
+   in place of the image, so the budget counts the memory the ribbons
+   really use. An image must have the same base height in every set.
 */
 
+import image.ImageResidency;
 import image.ImagesLoader;
+import image.SurfaceCache;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RibbonsManager
 {
@@ -41,36 +72,193 @@ public class RibbonsManager
   // standard distance for a ribbon to 'move' each tick
   
   private Ribbon[] switchRibbons;
-  private BufferedImage switchOverlay;
-  private Graphics2D overlayGfx;
   int switchingx;
   int switchingv;
   int pWidth;
   int pHeight;
 
+  private BufferedImage backdrop;   // the cached back ribbons
+  private Graphics2D backdropGfx;
+  private Ribbon[] cachedRibbons = null;   // the ribbons array drawn into it
+  private int numCached = 0;               // how many of them, from the back
+  private int[] cachedOffsets;             // their offsets when drawn
+
+  private volatile boolean smoothSlow = false;   // slow ribbons scroll by sub-pixels?
+  private volatile SurfaceCache surfaces = null;   // used by the ribbons, if set
+
+  private GraphicsConfiguration gc;
+  private ImagesLoader imsLoader;
+  private ImageResidency residency;
+  private int currSet, switchSet = -1;   // the sets acquired for ribbons and switchRibbons
+  private ExecutorService preparer;    // a single background thread
+  private int preparedSet = -1;        // the set being prepared, if any
+  private Future<Ribbon[]> prepared;
+  private AtomicBoolean preparedAcquired;   // has the prepared set been acquired?
+
 
   public RibbonsManager(int set, int w, int h, int baseMvSz, ImagesLoader imsLd)
+  // keep all the background sets resident
+  {  this(set, w, h, baseMvSz, imsLd, Long.MAX_VALUE);  }
+
+
+  public RibbonsManager(int set, int w, int h, int baseMvSz, ImagesLoader imsLd,
+                        long budgetBytes)
+  /* Evict the background sets not being shown when their images
+     take more than budgetBytes. */
   {
 	pWidth = w;
 	pHeight = h;
     moveSize = baseMvSz;
 
+    imsLoader = imsLd;
+    residency = new ImageResidency(imsLd, budgetBytes);
+    residency.setPreparer(new ImageResidency.Preparer() {
+      public BufferedImage prepare(String name, BufferedImage im)
+      {  return Ribbon.extend(im, pWidth, pHeight, baseHeight(name));  }
+    });
+    for (int i = 0; i < ribImageSets.length; i++)
+      residency.defineGroup(groupName(i), ribImageSets[i]);
+
     numRibbons = ribImageSets[set].length;
-    ribbons = new Ribbon[numRibbons];
+    currSet = set;
+    ribbons = makeRibbons(set);
 
-    for (int i = 0; i < numRibbons; i++)
-    	ribbons[i] = new Ribbon(w, h, imsLd.getImage( ribImageSets[set][i] ), baseHeights[i],
-						(moveFactors[i]*moveSize) );
+    gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+                                  getDefaultScreenDevice().getDefaultConfiguration();
+    backdrop = gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+    backdropGfx = backdrop.createGraphics();
+    cachedOffsets = new int[numRibbons];
 
-    switchOverlay = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-    overlayGfx = switchOverlay.createGraphics();
+    preparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      { Thread t = new Thread(r, "RibbonsPreparer");
+        t.setDaemon(true);     // don't keep the game alive
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+    prepare( (set+1) % ribImageSets.length );
   }  // end of RibbonsManager()
 
+
+  private static String groupName(int set)
+  {  return "background" + set;  }
+
+
+  private int baseHeight(String name)
+  // the base height of the ribbons showing name
+  {
+    for (int set = 0; set < ribImageSets.length; set++)
+      for (int i = 0; i < ribImageSets[set].length; i++)
+        if (ribImageSets[set][i].equals(name))
+          return baseHeights[i];
+    return 0;
+  }  // end of baseHeight()
+
+
+  private BufferedImage getImage(String name)
+  // the images of the sets are loaded on demand, unless the Imagesfile says otherwise
+  {
+    if (imsLoader.isLazy(name))
+      return null;
+    return imsLoader.getImage(name);
+  }  // end of getImage()
+
+
+  private Ribbon[] makeRibbons(int set)
+  /* Make the ribbons for <set>, acquiring its images' extended
+     copies from the residency; the set must be released when they 
+     are finished with. */
+  {
+    BufferedImage[] exts = residency.acquire( groupName(set) );
+    Ribbon[] ribs = new Ribbon[ribImageSets[set].length];
+    for (int i = 0; i < ribs.length; i++) {
+      if (exts[i] != null)
+        ribs[i] = Ribbon.fromExtended(pWidth, pHeight, exts[i], baseHeights[i],
+                        (moveFactors[i]*moveSize) );
+      else
+    	ribs[i] = new Ribbon(pWidth, pHeight, getImage(ribImageSets[set][i]),
+                        baseHeights[i], (moveFactors[i]*moveSize) );
+    }
+    setSmooth(ribs, smoothSlow);
+    for (int i = 0; i < ribs.length; i++)
+      ribs[i].setSurfaceCache(surfaces);
+    return ribs;
+  }  // end of makeRibbons()
+
+
+  private void prepare(final int set)
+  /* Start building the ribbons for <set> on the background thread,
+     and warm up their images by drawing each one to a small
+     accelerated surface (if one can be made). */
+  {
+    preparedSet = set;
+    final AtomicBoolean acquired = new AtomicBoolean(false);
+    preparedAcquired = acquired;
+    prepared = preparer.submit(new Callable<Ribbon[]>() {
+      public Ribbon[] call()
+      {
+        Ribbon[] ribs = makeRibbons(set);
+        acquired.set(true);
+        VolatileImage warm = null;
+        try {
+          warm = gc.createCompatibleVolatileImage(1, 1, Transparency.TRANSLUCENT);
+        }
+        catch (Exception e) {}   // no accelerated surfaces; skip the warm up
+        if (warm != null) {
+          Graphics2D wg = warm.createGraphics();
+          for (int i = 0; i < ribs.length; i++)
+            wg.drawImage(ribs[i].getImage(), 0, 0, 1, 1, 0, 0, 1, 1, null);
+          wg.dispose();
+          warm.flush();
+        }
+        return ribs;
+      }
+    });
+  }  // end of prepare()
+
   public int getNumBgs()
   {
 	  return ribImageSets.length;
   }
 
+  public ImageResidency getResidency()
+  {  return residency;  }
+
+  public void setSurfaceCache(SurfaceCache sc)
+  /* Draw the ribbon images through sc (null to draw them directly).
+     The backdrop is redrawn too often to be worth mirroring. */
+  {
+    surfaces = sc;
+    for (int i = 0; i < ribbons.length; i++)
+      ribbons[i].setSurfaceCache(sc);
+    if (switchRibbons != null)
+      for (int i = 0; i < switchRibbons.length; i++)
+        switchRibbons[i].setSurfaceCache(sc);
+  }  // end of setSurfaceCache()
+
+
+  public void setSmoothScrolling(boolean b)
+  /* Make the ribbons moving less than a pixel a tick scroll by 
+     sub-pixel amounts (true), or whole pixels (false, the default).
+     Smooth ribbons change every frame, so they are cached in the
+     backdrop less often. */
+  {
+    smoothSlow = b;
+    setSmooth(ribbons, b);
+    if (switchRibbons != null)
+      setSmooth(switchRibbons, b);
+  }  // end of setSmoothScrolling()
+
+
+  private void setSmooth(Ribbon[] ribs, boolean b)
+  {
+    for (int i = 0; i < ribs.length; i++)
+      ribs[i].setSmooth(b && (Math.abs(ribs[i].getMoveSize()) < 1) 
+                          && (ribs[i].getMoveSize() != 0));
+  }  // end of setSmooth()
+
+
   public void moveRight()
   { for (int i=0; i < numRibbons; i++)
       ribbons[i].moveRight();
@@ -87,17 +275,83 @@ public class RibbonsManager
   }
   
   public void switchTo( int set, int w, int h, int baseMvSz, ImagesLoader imsLd )
+  /* Begin the transition to <set>, using its prepared ribbons if
+     they are ready; otherwise they are built here, as before. 
+     Preparation of the set after it is then started. */
   {
-	  switchRibbons = new Ribbon[ribImageSets[set].length];
+	  if (switchRibbons != null)    // finish any transition in progress
+		  endSwitch();
+
+	  switchRibbons = null;
+	  if ((set == preparedSet) && prepared.isDone()) {
+		  try {
+			  switchRibbons = prepared.get();
+		  }
+		  catch (Exception e) 
+		  {  System.out.println("Could not prepare background set " + set + ": " + e);  }
+	  }
+	  else if (prepared != null)
+		  prepared.cancel(false);
+	  if ((switchRibbons == null) && (prepared != null))
+		  unprepare(preparedSet);
+	  if (switchRibbons == null)
+		  switchRibbons = makeRibbons(set);
+	  else
+		  setSmooth(switchRibbons, smoothSlow);
+	  switchSet = set;
+	  for( int i = 0; i < switchRibbons.length; i++ )
+		  switchRibbons[i].setSurfaceCache(surfaces);
+
 	  for( int i = 0; i < switchRibbons.length; i++ )
-	  {
-	    	switchRibbons[i] = new Ribbon(w, h, imsLd.getImage( ribImageSets[set][i] ), baseHeights[i],
-					(moveFactors[i]*moveSize) );
 	    	switchRibbons[i].moveLeft();
-	  }
 	  switchingx = w;
 	  switchingv = w/50;
-  }
+
+	  prepare( (set+1) % ribImageSets.length );
+  }  // end of switchTo()
+
+
+  private void unprepare(final int set)
+  /* Release the prepared set, which will not be used, once the
+     preparer is finished with it (the preparer runs its tasks in
+     order, so this comes after any preparation in progress). */
+  {
+    final AtomicBoolean acquired = preparedAcquired;
+    preparer.submit(new Runnable() {
+      public void run()
+      {
+        if (acquired.getAndSet(false))
+          residency.release( groupName(set) );
+      }
+    });
+  }  // end of unprepare()
+
+
+  private void endSwitch()
+  /* Make the new ribbons current, release the old set, and the
+     cached surfaces of the old images which the new set does not
+     use. The images stay resident until the residency evicts them,
+     and will be cached again if they are shown again. */
+  {
+	  Ribbon[] oldRibbons = ribbons;
+	  ribbons = switchRibbons;
+	  switchRibbons = null;
+	  residency.release( groupName(currSet) );
+	  currSet = switchSet;
+	  switchSet = -1;
+	  for (int i = 0; i < oldRibbons.length; i++) {
+		  BufferedImage im = oldRibbons[i].getImage();
+		  boolean inUse = false;
+		  for (int j = 0; j < ribbons.length; j++)
+			  if (ribbons[j].getImage() == im)
+				  inUse = true;
+		  if (!inUse) {
+			  im.flush();
+			  if (surfaces != null)
+				  surfaces.release(im);
+		  }
+	  }
+  }  // end of endSwitch()
 
 
   public void update()
@@ -112,10 +366,7 @@ public class RibbonsManager
 		  }
 		  switchingx -= switchingv;
 		  if(switchingx < 0)
-		  {
-			  ribbons = switchRibbons;
-			  switchRibbons = null;
-		  }
+			  endSwitch();
 	  }
   }
 
@@ -123,15 +374,54 @@ public class RibbonsManager
   /* The display order is important.
      Display ribbons from the back to the front of the scene. */
   {
-	  for (int i=0; i < numRibbons; i++)
-		  ribbons[i].display(g);
+	  // the old ribbons show to the left of the switching edge
+	  int edge = (switchRibbons != null) ? Math.max(switchingx, 0) : pWidth;
+	  int first = displayBackdrop(g, edge);
+	  for (int i=first; i < numRibbons; i++)
+		  ribbons[i].display(g, 0, edge);
 	  if (switchRibbons != null)
 	  {
 		  for (int i=0; i < switchRibbons.length; i++)
-			  switchRibbons[i].display(overlayGfx);
-		  g.drawImage(switchOverlay, switchingx, 0, pWidth, pHeight, switchingx, 0, pWidth, pHeight, null);
+			  switchRibbons[i].display(g, edge, pWidth);
 	  }
   }
 
+
+  private int displayBackdrop(Graphics g, int x2)
+  /* Draw the backdrop to the left of x2, first bringing it up to 
+     date, and return the number of ribbons it holds. The backdrop 
+     holds the slow ribbons at the back, and any still ones in 
+     front of them. */
+  {
+	  int n = 0;
+	  while ((n < numRibbons) && 
+			 ((Math.abs(ribbons[n].getMoveSize()) < 1) || !ribbons[n].isMoving()))
+		  n++;
+	  if (n == 0)
+		  return 0;
+
+	  boolean changed = (ribbons != cachedRibbons) || (n != numCached);
+	  for (int i=0; (i < n) && !changed; i++)
+		  if (ribbons[i].getOffset() != cachedOffsets[i])
+			  changed = true;
+
+	  if (changed) {
+		  backdropGfx.setComposite(AlphaComposite.Clear);
+		  backdropGfx.fillRect(0, 0, pWidth, pHeight);
+		  backdropGfx.setComposite(AlphaComposite.SrcOver);
+		  for (int i=0; i < n; i++) {
+			  ribbons[i].display(backdropGfx);
+			  cachedOffsets[i] = ribbons[i].getOffset();
+		  }
+		  cachedRibbons = ribbons;
+		  numCached = n;
+	  }
+	  if (x2 == pWidth)
+		  g.drawImage(backdrop, 0, 0, null);
+	  else if (x2 > 0)
+		  g.drawImage(backdrop, 0, 0, x2, pHeight, 0, 0, x2, pHeight, null);
+	  return n;
+  }  // end of displayBackdrop()
+
 } // end of RibbonsManager
 
@@ -14,6 +14,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Scanner;
+import timing.StartupTrace;
 
 public class ScoreTable
 {
@@ -21,9 +22,11 @@ public class ScoreTable
 	final String[] defNames = {"Dr. Mailler", "Blinky", "Pinky", "Inky", "Clyde", "Osdo", "Kurt", "Hank", "Frank", "Lennie"};
 	int[] scores = {0,0,0,0,0,0,0,0,0,0};
 	String[] names = {"","","","","","","","","",""};
+	private int version = 0; // changed whenever the table's contents change
 	
 	public ScoreTable()
 	{
+		StartupTrace.Span span = StartupTrace.begin("startup", "ScoreTable");
 		try
 		{
 			File table = new File("hscores.sco");
@@ -41,6 +44,7 @@ public class ScoreTable
 			System.out.println("File Not Found Exception: "+e+"\nResetting scores to default.");
 			resetScores();
 		}
+		span.end();
 	}
 	
 	/**
@@ -50,6 +54,7 @@ public class ScoreTable
 	{
 		scores = Arrays.copyOf(defScores, 10);
 		names = Arrays.copyOf(defNames, 10);
+		version++;
 	}
 	
 	/**
@@ -94,9 +99,22 @@ public class ScoreTable
 			}
 			scores[i] = score;
 			names[i] = name;
+			version++;
 		}
 	}
 	
+	/**
+	 * getVersion returns a number which changes whenever an entry
+	 * is added or the scores are reset, so that anything showing
+	 * the table knows when to redraw it.
+	 * 
+	 * @return version the current version
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
 	/**
 	 * getName returns the name at the given position
 	 * 
@@ -0,0 +1,152 @@
+package framework;
+
+// StatusHud.java
+// Anton Ridgway
+
+/* StatusHud draws the in-game status display along the bottom of
+   the screen: the score and high score, the energy bar, and the
+   Restart and Menu 'buttons'.
+
+   Nothing is laid out or rasterized from scratch each frame. The
+   labels are TextLabels, so the score texts are only rebuilt when
+   the scores change. The buttons are rendered once, in both their
+   normal and highlighted colours, and the energy bar is kept in
+   its own image, where only the strip between the old and new
+   energy levels is refilled when the energy changes.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+
+
+public class StatusHud
+{
+  private static final String SCORE_PREFIX = "Score: ";
+  private static final String HIGH_SCORE_PREFIX = "High Score: ";
+
+  // the energy bar's position and size, and its inset fill
+  private static final int BAR_X = 300, BAR_Y_OFFSET = 45;
+  private static final int BAR_WIDTH = 200, BAR_HEIGHT = 30;
+  private static final int BAR_INSET = 2;
+
+  private int pHeight;
+
+  private TextLabel scoreLabel, highScoreLabel, energyLabel;
+
+  private BufferedImage energyBar;
+  private Graphics2D barGfx;
+  private Color barColor;
+  private int barFill = 0;    // width of the filled part of the bar
+
+  private Button restartButton, quitButton;
+
+
+  public StatusHud(int pW, int pH, Font font, Color bColor,
+                         Rectangle restartArea, Rectangle quitArea)
+  {
+    pHeight = pH;
+    barColor = bColor;
+
+    scoreLabel = new TextLabel(font, Color.white);
+    highScoreLabel = new TextLabel(font, Color.white);
+    energyLabel = new TextLabel(font, Color.white, "Energy: ");
+
+    energyBar = new BufferedImage(BAR_WIDTH, BAR_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    barGfx = energyBar.createGraphics();
+    barGfx.setColor(Color.black);
+    barGfx.fillRect(0, 0, BAR_WIDTH, BAR_HEIGHT);
+
+    restartButton = new Button(restartArea, "Restart", 4, font);
+    quitButton = new Button(quitArea, "Menu", 10, font);
+  }  // end of StatusHud()
+
+
+  public void draw(Graphics g, int score, int highScore, int energy, int energyMax,
+                       boolean overRestart, boolean overQuit)
+  {
+    // report score, and remaining energy at bottom left
+    scoreLabel.setNumber(SCORE_PREFIX, score);
+    highScoreLabel.setNumber(HIGH_SCORE_PREFIX, highScore);
+    scoreLabel.draw(g, 20, pHeight - 35);
+    highScoreLabel.draw(g, 20, pHeight - 10);
+    energyLabel.draw(g, 230, pHeight - 20);
+
+    updateBar( (int)((BAR_WIDTH-2*BAR_INSET)*(((double)energy)/energyMax)) );
+    g.drawImage(energyBar, BAR_X, pHeight-BAR_Y_OFFSET, null);
+
+    restartButton.draw(g, overRestart);
+    quitButton.draw(g, overQuit);
+  }  // end of draw()
+
+
+  private void updateBar(int fill)
+  // refill only the strip of the bar between the old and new levels
+  {
+    fill = Math.max(0, Math.min(fill, BAR_WIDTH-2*BAR_INSET));
+    if (fill == barFill)
+      return;
+    int inner = BAR_HEIGHT-2*BAR_INSET;
+    if (fill > barFill) {
+      barGfx.setColor(barColor);
+      barGfx.fillRect(BAR_INSET+barFill, BAR_INSET, fill-barFill, inner);
+    }
+    else {
+      barGfx.setColor(Color.black);
+      barGfx.fillRect(BAR_INSET+fill, BAR_INSET, barFill-fill, inner);
+    }
+    barFill = fill;
+  }  // end of updateBar()
+
+
+  // ----------------------------------------------------
+
+  private static class Button
+  /* A button's outline and label, rendered in black and in white
+     (for when the mouse is over it). */
+  {
+    private BufferedImage normalIm, overIm;
+    private int x, y;     // where the images are drawn
+
+
+    public Button(Rectangle area, String label, int labelX, Font font)
+    {
+      TextLabel black = new TextLabel(font, Color.black, label);
+      TextLabel white = new TextLabel(font, Color.white, label);
+
+      // the images must hold both the oval and the (larger) label
+      BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D sg = scratch.createGraphics();
+      FontMetrics fm = sg.getFontMetrics(font);
+      sg.dispose();
+      int left = Math.min(0, labelX-2);
+      int top = Math.min(0, 10-fm.getAscent()-2);
+      int right = Math.max(area.width+1, labelX+black.getWidth()+2);
+      int bottom = Math.max(area.height+1, 10+fm.getDescent()+2);
+
+      normalIm = render(area, black, labelX, Color.black, left, top, right, bottom);
+      overIm = render(area, white, labelX, Color.white, left, top, right, bottom);
+      x = area.x + left;
+      y = area.y + top;
+    }  // end of Button()
+
+
+    private BufferedImage render(Rectangle area, TextLabel text, int labelX, Color c,
+                                      int left, int top, int right, int bottom)
+    {
+      BufferedImage im = new BufferedImage(right-left, bottom-top, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g2d = im.createGraphics();
+      g2d.translate(-left, -top);
+      g2d.setColor(c);
+      g2d.drawOval(0, 0, area.width, area.height);
+      text.draw(g2d, labelX, 10);
+      g2d.dispose();
+      return im;
+    }  // end of render()
+
+
+    public void draw(Graphics g, boolean isOver)
+    {  g.drawImage(isOver ? overIm : normalIm, x, y, null);  }
+
+  }  // end of Button class
+
+}  // end of StatusHud class
@@ -0,0 +1,124 @@
+package framework;
+
+// TextLabel.java
+// Anton Ridgway
+
+/* A TextLabel is a line of text rasterized once into an image, so
+   drawing it each frame is a single blit, with no string building
+   or glyph layout.
+
+   The text is only rasterized again when it changes. setNumber()
+   is for the common case of a fixed prefix followed by a number,
+   such as "Score: 120"; it compares the number, and builds the new
+   string only when it differs.
+
+   A label is drawn by its baseline, as Graphics.drawString() would
+   draw the same text, with the same font and colour.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+
+
+public class TextLabel
+{
+  private static final int PAD = 2;   // room for glyphs overhanging their advance
+
+  private Font font;
+  private Color color;
+  private FontMetrics metrics;
+  private GraphicsConfiguration gc;
+
+  private String text = null;
+  private String prefix = null;     // the prefix and number last given
+  private int number;               //   to setNumber()
+
+  private BufferedImage image = null;   // null for empty text
+  private int textWidth = 0;
+
+
+  public TextLabel(Font f, Color c)
+  {
+    font = f;
+    color = c;
+    try {
+      gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+                 getDefaultScreenDevice().getDefaultConfiguration();
+    }
+    catch (HeadlessException e)
+    {  gc = null;  }
+
+    BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2d = scratch.createGraphics();
+    metrics = g2d.getFontMetrics(font);
+    g2d.dispose();
+  }  // end of TextLabel()
+
+
+  public TextLabel(Font f, Color c, String s)
+  {  this(f, c);
+     setText(s);
+  }
+
+
+  public void setText(String s)
+  // change the text, rasterizing it only if it is different
+  {
+    if ((text != null) && text.equals(s))
+      return;
+    text = s;
+    prefix = null;
+    rasterize();
+  }  // end of setText()
+
+
+  public void setNumber(String pre, int n)
+  // change the text to pre followed by n, if either has changed
+  {
+    if ((pre == prefix) && (n == number))
+      return;
+    text = pre + n;
+    prefix = pre;
+    number = n;
+    rasterize();
+  }  // end of setNumber()
+
+
+  private void rasterize()
+  {
+    textWidth = metrics.stringWidth(text);
+    if (text.length() == 0) {
+      image = null;
+      return;
+    }
+    int w = textWidth + 2*PAD;
+    int h = metrics.getAscent() + metrics.getDescent() + 2*PAD;
+    if (gc != null)
+      image = gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+    else
+      image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+    Graphics2D g2d = image.createGraphics();
+    g2d.setFont(font);
+    g2d.setColor(color);
+    g2d.drawString(text, PAD, PAD + metrics.getAscent());
+    g2d.dispose();
+  }  // end of rasterize()
+
+
+  public void draw(Graphics g, int x, int y)
+  // draw the text with its baseline starting at (x,y)
+  {
+    if (image != null)
+      g.drawImage(image, x-PAD, y-metrics.getAscent()-PAD, null);
+  }
+
+
+  public int getWidth()
+  // the width of the text, as FontMetrics.stringWidth() gives it
+  {  return textWidth;  }
+
+  public String getText()
+  {  return text;  }
+
+}  // end of TextLabel class
@@ -0,0 +1,95 @@
+package image;
+
+// AnimationClip.java
+// Anton Ridgway
+
+/* An AnimationClip is the shared, unchanging part of an image
+   sequence animation: the frames themselves, and a table giving
+   which frame to show on each tick of the animation loop.
+
+   The table is worked out once, from the animation period
+   (animPeriod, how often the loop ticks, in ms) and the duration
+   of the whole sequence (seqDuration, in secs), using the same
+   arithmetic ImagesPlayer has always used. It covers one pass of
+   the sequence, so entry k is the frame showing k ticks after the
+   sequence starts; a looping player simply wraps around.
+
+   Clips are obtained from ImagesLoader.getClip(), which shares one
+   clip between every sprite that plays the same images at the same
+   rate. Each ImagesPlayer then only needs to remember its tick.
+*/
+
+import java.awt.image.*;
+
+
+public class AnimationClip
+{
+  private String name;
+  private BufferedImage[] frames;
+  private int animPeriod;       // period used by animation loop (in ms)
+  private double seqDuration;   // total duration of the sequence (in secs)
+  private int showPeriod;       // period each image is shown (in ms)
+  private int[] frameTable;     // frame index for each tick of one pass
+
+
+  public AnimationClip(String nm, BufferedImage[] ims, int ap, double d)
+  {
+    name = nm;
+    frames = ims;
+    animPeriod = ap;
+    seqDuration = d;
+
+    if (seqDuration < 0.5) {
+      System.out.println("Warning: minimum sequence duration is 0.5 sec.");
+      seqDuration = 0.5;
+    }
+
+    showPeriod = (int) (1000 * seqDuration / frames.length);
+    long seqTime = (long)(1000 * seqDuration);
+
+    // one entry per tick, until the animation time wraps around
+    int numTicks = (int) ((seqTime + animPeriod - 1) / animPeriod);
+    frameTable = new int[Math.max(numTicks, 1)];
+    for (int k = 0; k < frameTable.length; k++) {
+      long animTime = ((long)k * animPeriod) % seqTime;
+      frameTable[k] = (int) (animTime / showPeriod) % frames.length;
+    }
+  }  // end of AnimationClip()
+
+
+  public boolean matches(int ap, double d)
+  // was this clip built for the animation period and duration?
+  {  return (animPeriod == ap) && (seqDuration == Math.max(d, 0.5));  }
+
+
+  public String getName()
+  {  return name;  }
+
+  public int numFrames()
+  {  return frames.length;  }
+
+  public int numTicks()
+  // the number of ticks in one pass of the sequence
+  {  return frameTable.length;  }
+
+
+  public int frameAt(int tick)
+  // the frame index shown at <tick>, which must be in 0 to numTicks()-1
+  {  return frameTable[tick];  }
+
+
+  public BufferedImage getFrame(int posn)
+  {  return frames[posn];  }
+
+
+  public int firstTickOf(int posn)
+  /* The first tick at which frame <posn> is shown, or 0 if it
+     is never shown (possible when frames are shorter than a tick). */
+  {
+    for (int k = 0; k < frameTable.length; k++)
+      if (frameTable[k] == posn)
+        return k;
+    return 0;
+  }  // end of firstTickOf()
+
+}  // end of AnimationClip class
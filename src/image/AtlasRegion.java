@@ -0,0 +1,60 @@
+package image;
+
+// AtlasRegion.java
+// Anton Ridgway
+
+/* An AtlasRegion is the rectangle of a TextureAtlas page that holds
+   a copy of one image. Drawing it blits that sub-rectangle of the
+   page, so many different small images can be drawn from the same
+   source surface.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+
+
+public class AtlasRegion
+{
+  private BufferedImage page;   // the atlas page holding the image
+  private int pageNum;          // its index in the atlas
+  private int sx, sy;           // top-left of the image in the page
+  private int width, height;
+
+
+  public AtlasRegion(BufferedImage pg, int pn, int x, int y, int w, int h)
+  {
+    page = pg;  pageNum = pn;
+    sx = x;  sy = y;
+    width = w;  height = h;
+  }  // end of AtlasRegion()
+
+
+  public void draw(Graphics g, int x, int y)
+  // draw the image unscaled with its top-left at (x,y)
+  {
+    g.drawImage(page, x, y, x+width, y+height,
+                      sx, sy, sx+width, sy+height, null);
+  }
+
+
+  public void draw(Graphics g, int x, int y, int w, int h)
+  // draw the image scaled to w by h, with its top-left at (x,y)
+  {
+    g.drawImage(page, x, y, x+w, y+h,
+                      sx, sy, sx+width, sy+height, null);
+  }
+
+
+  public BufferedImage getPage()
+  {  return page;  }
+
+  public int getPageNum()
+  {  return pageNum;  }
+
+  public int getWidth()
+  {  return width;  }
+
+  public int getHeight()
+  {  return height;  }
+
+}  // end of AtlasRegion class
@@ -0,0 +1,142 @@
+package image;
+
+// BandRenderer.java
+// Anton Ridgway
+
+/* A BandRenderer spreads the rasterizing of a frame across several
+   threads, for when Java2D renders in software, so that the whole
+   frame would otherwise be drawn by the animation thread.
+
+   The frame is first drawn as usual to the Graphics2D returned by
+   begin(), which only records the drawing commands (see
+   RecordingGraphics). end() then splits the frame into horizontal
+   bands, and replays the commands into a shared offscreen image on
+   a fork-join pool, one band per task, each with its own Graphics2D
+   clipped to its band. The finished image is returned, to be drawn
+   to the screen in one blit.
+
+   Recording first means the game's drawing code (and the caches
+   it updates) still runs on one thread only; the threads share
+   nothing but the read-only recording and their own rows of the
+   offscreen image.
+
+   The recording holds the images drawn, not copies of them, so an
+   image must not be changed between being drawn and end().
+   Graphics.copyArea() is replayed within each band separately, and
+   so cannot copy between bands.
+
+   The bands match a frame drawn in one piece, except that the edges
+   of antialiased curves may differ by a few levels, since Java2D's
+   renderer clips paths to the band before rasterizing them.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.concurrent.*;
+
+
+public class BandRenderer
+{
+  private int width, height;
+  private int numBands;
+
+  private BufferedImage frame;    // the offscreen image the bands are drawn into
+  private FrameRecording rec;     // reused for every frame
+  private BufferedImage scratch;  // tracks the recording's state, see RecordingGraphics
+  private ForkJoinPool pool;
+
+  private long frameCount = 0;
+  private long startTime;         // when the current frame was begun
+  private long recordTime = 0;    // total nanosecs spent recording
+  private long replayTime = 0;    //   and replaying
+
+
+  public BandRenderer(GraphicsConfiguration gc, int w, int h, int bands)
+  {
+    width = w;
+    height = h;
+    numBands = Math.max(1, Math.min(bands, h));
+
+    if (gc != null)
+      frame = gc.createCompatibleImage(w, h);
+    else
+      frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    rec = new FrameRecording(w, h, false);
+    scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    pool = new ForkJoinPool(numBands);
+    System.out.println("Rendering in " + numBands + " parallel bands");
+  }  // end of BandRenderer()
+
+
+  public Graphics2D begin()
+  /* Start a frame, returning the Graphics2D to draw it to. It should
+     be disposed of before end() is called. */
+  {
+    startTime = System.nanoTime();
+    rec.clear();
+    return new RecordingGraphics(scratch.createGraphics(), rec);
+  }  // end of begin()
+
+
+  public BufferedImage end()
+  // render the recorded frame in parallel, and return the image of it
+  {
+    long midTime = System.nanoTime();
+    pool.invoke( new BandTask(0, numBands) );
+    long endTime = System.nanoTime();
+
+    frameCount++;
+    recordTime += midTime - startTime;
+    replayTime += endTime - midTime;
+    return frame;
+  }  // end of end()
+
+
+  private void renderBand(int band)
+  {
+    int y1 = band*height/numBands;
+    int y2 = (band+1)*height/numBands;
+    Graphics2D g2d = frame.createGraphics();
+    g2d.setClip(0, y1, width, y2-y1);
+    rec.replay(g2d);
+    g2d.dispose();
+  }  // end of renderBand()
+
+
+  private class BandTask extends RecursiveAction
+  // render the bands from first up to (but not including) last
+  {
+    private static final long serialVersionUID = 1L;
+    private int first, last;
+
+    public BandTask(int first, int last)
+    {  this.first = first;
+       this.last = last;
+    }
+
+    protected void compute()
+    {
+      if (last - first == 1)
+        renderBand(first);
+      else {
+        int mid = (first + last)/2;
+        invokeAll( new BandTask(first, mid), new BandTask(mid, last) );
+      }
+    }
+  }  // end of BandTask class
+
+
+  public int getNumBands()
+  {  return numBands;  }
+
+
+  public String getStats()
+  // the average recording and replaying times per frame
+  {
+    if (frameCount == 0)
+      return "no frames";
+    return String.format("%.2f ms recording, %.2f ms rendering per frame",
+                         recordTime/1e6/frameCount, replayTime/1e6/frameCount);
+  }  // end of getStats()
+
+}  // end of BandRenderer class
@@ -0,0 +1,598 @@
+package image;
+
+// FrameRecording.java
+// Anton Ridgway
+
+/* A FrameRecording is the list of drawing commands issued while
+   rendering one frame, as captured by a RecordingGraphics. It can
+   be replayed into any Graphics2D, any number of times, and saved
+   to and loaded from a file, so a real frame of the game can be
+   rendered again away from the game loop (see RenderBench).
+
+   Each command is an opcode with a few int and double arguments,
+   and sometimes one object: a String, or a Shape held as a
+   Rectangle2D or a Path2D. State changes (colour, font, stroke,
+   composite, hints, transform and clip) are recorded as commands
+   too, so a replay reproduces the frame's state as well as its
+   drawing.
+
+   Every image drawn is held once, in a table of snapshots taken
+   when it was first drawn, and the draw commands refer to it by its
+   index. The snapshots are plain TYPE_INT_RGB or TYPE_INT_ARGB
+   images; makeCompatible() converts them for a given screen before
+   a replay that should match the game's own image formats.
+
+   A recording that is only replayed straight away, such as the one
+   a BandRenderer makes each frame, can hold the BufferedImages
+   themselves instead of snapshots, and can be cleared and reused
+   for the next frame. Its images must not change between being
+   drawn and the replay.
+
+   If the Graphics2D being replayed into has a clip, the recorded
+   clips are kept within it, so a replay can be confined to part of
+   the frame.
+
+   Transforms are recorded relative to the transform the recording
+   started with, and replayed relative to the transform of the
+   Graphics2D being replayed into.
+
+   Operations the recording cannot represent (non-colour paints,
+   non-alpha composites, attributed strings, renderable images) are
+   still drawn by the RecordingGraphics, but are only counted here.
+*/
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+public class FrameRecording
+{
+  private static final int MAGIC = 0x42425246;   // "BBRF"
+  private static final int FILE_VERSION = 1;
+
+  // opcodes
+  static final int SET_COLOR = 0;         // ints: argb
+  static final int SET_FONT = 1;          // obj: name; ints: style; nums: size
+  static final int SET_STROKE = 2;        // ints: cap, join; nums: width, miter, phase, dash...
+  static final int SET_COMPOSITE = 3;     // ints: rule; nums: alpha
+  static final int SET_XOR_MODE = 4;      // ints: argb
+  static final int SET_PAINT_MODE = 5;
+  static final int SET_BACKGROUND = 6;    // ints: argb
+  static final int SET_HINT = 7;          // ints: key index, value index
+  static final int SET_TRANSFORM = 8;     // nums: the six matrix entries
+  static final int SET_CLIP = 9;          // obj: shape, or null for no clip
+  static final int CLIP = 10;             // obj: shape
+  static final int PUSH = 11;             // Graphics.create()
+  static final int POP = 12;              // dispose() of a created Graphics
+  static final int IMAGE = 13;            // ints: image, dx1,dy1,dx2,dy2, sx1,sy1,sx2,sy2, hasBg, bg
+  static final int IMAGE_XFORM = 14;      // ints: image; nums: the six matrix entries
+  static final int FILL_RECT = 15;        // ints: x,y,w,h
+  static final int DRAW_RECT = 16;
+  static final int CLEAR_RECT = 17;
+  static final int DRAW_LINE = 18;        // ints: x1,y1,x2,y2
+  static final int FILL_OVAL = 19;        // ints: x,y,w,h
+  static final int DRAW_OVAL = 20;
+  static final int FILL_ARC = 21;         // ints: x,y,w,h,start,extent
+  static final int DRAW_ARC = 22;
+  static final int FILL_ROUND_RECT = 23;  // ints: x,y,w,h,arcW,arcH
+  static final int DRAW_ROUND_RECT = 24;
+  static final int FILL_POLYGON = 25;     // ints: xs..., ys...
+  static final int DRAW_POLYGON = 26;
+  static final int DRAW_POLYLINE = 27;
+  static final int DRAW_STRING = 28;      // obj: text; nums: x,y
+  static final int FILL_SHAPE = 29;       // obj: shape
+  static final int DRAW_SHAPE = 30;
+  static final int COPY_AREA = 31;        // ints: x,y,w,h,dx,dy
+
+  // the rendering hints that are recorded, and their values
+  static final RenderingHints.Key[] HINT_KEYS = {
+    RenderingHints.KEY_ANTIALIASING, RenderingHints.KEY_TEXT_ANTIALIASING,
+    RenderingHints.KEY_RENDERING, RenderingHints.KEY_INTERPOLATION,
+    RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.KEY_COLOR_RENDERING,
+    RenderingHints.KEY_STROKE_CONTROL, RenderingHints.KEY_FRACTIONALMETRICS,
+    RenderingHints.KEY_DITHERING
+  };
+  static final Object[] HINT_VALUES = {
+    RenderingHints.VALUE_ANTIALIAS_ON, RenderingHints.VALUE_ANTIALIAS_OFF,
+    RenderingHints.VALUE_ANTIALIAS_DEFAULT,
+    RenderingHints.VALUE_TEXT_ANTIALIAS_ON, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+    RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT, RenderingHints.VALUE_TEXT_ANTIALIAS_GASP,
+    RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HBGR,
+    RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VRGB, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VBGR,
+    RenderingHints.VALUE_RENDER_SPEED, RenderingHints.VALUE_RENDER_QUALITY,
+    RenderingHints.VALUE_RENDER_DEFAULT,
+    RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+    RenderingHints.VALUE_INTERPOLATION_BILINEAR, RenderingHints.VALUE_INTERPOLATION_BICUBIC,
+    RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY,
+    RenderingHints.VALUE_ALPHA_INTERPOLATION_DEFAULT,
+    RenderingHints.VALUE_COLOR_RENDER_SPEED, RenderingHints.VALUE_COLOR_RENDER_QUALITY,
+    RenderingHints.VALUE_COLOR_RENDER_DEFAULT,
+    RenderingHints.VALUE_STROKE_NORMALIZE, RenderingHints.VALUE_STROKE_PURE,
+    RenderingHints.VALUE_STROKE_DEFAULT,
+    RenderingHints.VALUE_FRACTIONALMETRICS_ON, RenderingHints.VALUE_FRACTIONALMETRICS_OFF,
+    RenderingHints.VALUE_FRACTIONALMETRICS_DEFAULT,
+    RenderingHints.VALUE_DITHER_ENABLE, RenderingHints.VALUE_DITHER_DISABLE,
+    RenderingHints.VALUE_DITHER_DEFAULT
+  };
+
+  private static final int[] NO_INTS = new int[0];
+  private static final double[] NO_NUMS = new double[0];
+
+
+  private static class Op
+  {
+    int code;
+    int[] ints;
+    double[] nums;
+    Object obj;     // a String, a Rectangle2D, a Path2D, or null
+
+    Op(int code, int[] ints, double[] nums, Object obj)
+    { this.code = code;
+      this.ints = (ints == null) ? NO_INTS : ints;
+      this.nums = (nums == null) ? NO_NUMS : nums;
+      this.obj = obj;
+    }
+  }  // end of Op class
+
+
+  private int width, height;      // the size of the recorded frame
+  private boolean isSnapshot;     // whether the images are copied
+  private ArrayList<Op> ops = new ArrayList<Op>();
+  private ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+  private IdentityHashMap<Image, Integer> imageIndices = new IdentityHashMap<Image, Integer>();
+
+  private int numUnsupported = 0;
+  private TreeSet<String> unsupported = new TreeSet<String>();
+
+
+
+  public FrameRecording(int w, int h)
+  {  this(w, h, true);  }
+
+
+  public FrameRecording(int w, int h, boolean snapshots)
+  /* A recording which copies each image drawn if snapshots is
+     true, or otherwise holds the image itself. */
+  {  width = w;
+     height = h;
+     isSnapshot = snapshots;
+  }
+
+
+  public void clear()
+  // remove all the commands and images, to record a new frame
+  {
+    ops.clear();
+    images.clear();
+    imageIndices.clear();
+    numUnsupported = 0;
+    unsupported.clear();
+  }  // end of clear()
+
+
+  // ------------------------ recording ---------------------------
+
+
+  void add(int code, int[] ints, double[] nums, Object obj)
+  {  ops.add( new Op(code, ints, nums, obj) );  }
+
+
+  void add(int code, int... ints)
+  {  ops.add( new Op(code, ints, null, null) );  }
+
+
+  int imageIndex(Image im)
+  /* Return the index of im in the image table, adding a snapshot of
+     it if it was not drawn before, or -1 if no snapshot can be made. */
+  {
+    Integer idx = imageIndices.get(im);
+    if (idx != null)
+      return idx;
+
+    BufferedImage snap = (!isSnapshot && (im instanceof BufferedImage)) ?
+                             (BufferedImage) im : snapshot(im);
+    if (snap == null) {
+      unsupported("image of unknown size");
+      return -1;
+    }
+    images.add(snap);
+    imageIndices.put(im, images.size()-1);
+    return images.size()-1;
+  }  // end of imageIndex()
+
+
+  private BufferedImage snapshot(Image im)
+  // copy im into a plain RGB or ARGB image
+  {
+    if (im instanceof VolatileImage)
+      im = ((VolatileImage) im).getSnapshot();
+    int w = im.getWidth(null);
+    int h = im.getHeight(null);
+    if ((w <= 0) || (h <= 0))
+      return null;
+
+    boolean isOpaque = (im instanceof BufferedImage) &&
+                       (((BufferedImage) im).getTransparency() == Transparency.OPAQUE);
+    BufferedImage snap = new BufferedImage(w, h,
+             isOpaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2d = snap.createGraphics();
+    g2d.setComposite(AlphaComposite.Src);
+    g2d.drawImage(im, 0, 0, null);
+    g2d.dispose();
+    return snap;
+  }  // end of snapshot()
+
+
+  void unsupported(String what)
+  {  numUnsupported++;
+     unsupported.add(what);
+  }
+
+
+  // ------------------------ replaying ---------------------------
+
+
+  public void replay(Graphics2D g)
+  /* Issue every recorded command to g. The state of g is changed
+     by the replay, so pass a Graphics2D that can be thrown away.
+     Different threads may replay the same recording at once, each
+     into its own Graphics2D. */
+  {
+    AffineTransform base = g.getTransform();
+    Shape baseClip = g.getClip();
+    AffineTransform at = new AffineTransform();
+    ArrayDeque<Graphics2D> stack = new ArrayDeque<Graphics2D>();
+
+    for (int i = 0; i < ops.size(); i++) {
+      Op op = ops.get(i);
+      int[] a = op.ints;
+      double[] n = op.nums;
+      switch (op.code) {
+        case SET_COLOR:
+          g.setColor( new Color(a[0], true) );  break;
+        case SET_FONT:
+          g.setFont( new Font((String) op.obj, a[0], 1).deriveFont((float) n[0]) );  break;
+        case SET_STROKE:
+          g.setStroke( makeStroke(a, n) );  break;
+        case SET_COMPOSITE:
+          g.setComposite( AlphaComposite.getInstance(a[0], (float) n[0]) );  break;
+        case SET_XOR_MODE:
+          g.setXORMode( new Color(a[0], true) );  break;
+        case SET_PAINT_MODE:
+          g.setPaintMode();  break;
+        case SET_BACKGROUND:
+          g.setBackground( new Color(a[0], true) );  break;
+        case SET_HINT:
+          g.setRenderingHint(HINT_KEYS[a[0]], HINT_VALUES[a[1]]);  break;
+        case SET_TRANSFORM:
+          at.setTransform(base);
+          at.concatenate( new AffineTransform(n) );
+          g.setTransform(at);
+          break;
+        case SET_CLIP:
+          setClip(g, base, baseClip, (Shape) op.obj);  break;
+        case CLIP:
+          g.clip( (Shape) op.obj );  break;
+        case PUSH:
+          stack.push(g);
+          g = (Graphics2D) g.create();
+          break;
+        case POP:
+          if (!stack.isEmpty()) {
+            g.dispose();
+            g = stack.pop();
+          }
+          break;
+        case IMAGE:
+          if (a[9] != 0)
+            g.drawImage(images.get(a[0]), a[1], a[2], a[3], a[4],
+                        a[5], a[6], a[7], a[8], new Color(a[10], true), null);
+          else
+            g.drawImage(images.get(a[0]), a[1], a[2], a[3], a[4],
+                        a[5], a[6], a[7], a[8], null);
+          break;
+        case IMAGE_XFORM:
+          g.drawImage(images.get(a[0]), new AffineTransform(n), null);  break;
+        case FILL_RECT:
+          g.fillRect(a[0], a[1], a[2], a[3]);  break;
+        case DRAW_RECT:
+          g.drawRect(a[0], a[1], a[2], a[3]);  break;
+        case CLEAR_RECT:
+          g.clearRect(a[0], a[1], a[2], a[3]);  break;
+        case DRAW_LINE:
+          g.drawLine(a[0], a[1], a[2], a[3]);  break;
+        case FILL_OVAL:
+          g.fillOval(a[0], a[1], a[2], a[3]);  break;
+        case DRAW_OVAL:
+          g.drawOval(a[0], a[1], a[2], a[3]);  break;
+        case FILL_ARC:
+          g.fillArc(a[0], a[1], a[2], a[3], a[4], a[5]);  break;
+        case DRAW_ARC:
+          g.drawArc(a[0], a[1], a[2], a[3], a[4], a[5]);  break;
+        case FILL_ROUND_RECT:
+          g.fillRoundRect(a[0], a[1], a[2], a[3], a[4], a[5]);  break;
+        case DRAW_ROUND_RECT:
+          g.drawRoundRect(a[0], a[1], a[2], a[3], a[4], a[5]);  break;
+        case FILL_POLYGON:
+        case DRAW_POLYGON:
+        case DRAW_POLYLINE:
+          replayPoly(g, op.code, a);  break;
+        case DRAW_STRING:
+          g.drawString((String) op.obj, (float) n[0], (float) n[1]);  break;
+        case FILL_SHAPE:
+          g.fill( (Shape) op.obj );  break;
+        case DRAW_SHAPE:
+          g.draw( (Shape) op.obj );  break;
+        case COPY_AREA:
+          g.copyArea(a[0], a[1], a[2], a[3], a[4], a[5]);  break;
+      }
+    }
+    while (!stack.isEmpty()) {   // the recording ended inside a create()
+      g.dispose();
+      g = stack.pop();
+    }
+  }  // end of replay()
+
+
+  private static void setClip(Graphics2D g, AffineTransform base,
+                                   Shape baseClip, Shape clip)
+  // set the clip to clip, within any clip g had when the replay started
+  {
+    if (baseClip == null) {
+      g.setClip(clip);
+      return;
+    }
+    AffineTransform at = g.getTransform();
+    g.setTransform(base);
+    g.setClip(baseClip);
+    g.setTransform(at);
+    if (clip != null)
+      g.clip(clip);
+  }  // end of setClip()
+
+
+  private void replayPoly(Graphics2D g, int code, int[] a)
+  {
+    int num = a.length/2;
+    int[] xs = Arrays.copyOfRange(a, 0, num);
+    int[] ys = Arrays.copyOfRange(a, num, 2*num);
+    if (code == FILL_POLYGON)
+      g.fillPolygon(xs, ys, num);
+    else if (code == DRAW_POLYGON)
+      g.drawPolygon(xs, ys, num);
+    else
+      g.drawPolyline(xs, ys, num);
+  }  // end of replayPoly()
+
+
+  private static BasicStroke makeStroke(int[] a, double[] n)
+  {
+    float[] dash = null;
+    if (n.length > 3) {
+      dash = new float[n.length-3];
+      for (int i = 0; i < dash.length; i++)
+        dash[i] = (float) n[i+3];
+    }
+    return new BasicStroke((float) n[0], a[0], a[1], (float) n[1], dash, (float) n[2]);
+  }  // end of makeStroke()
+
+
+  public void makeCompatible(GraphicsConfiguration gc)
+  /* Replace the image snapshots by images compatible with gc, as
+     the game's own images are. */
+  {
+    for (int i = 0; i < images.size(); i++) {
+      BufferedImage im = images.get(i);
+      BufferedImage copy = gc.createCompatibleImage(im.getWidth(), im.getHeight(),
+                                                    im.getTransparency());
+      Graphics2D g2d = copy.createGraphics();
+      g2d.setComposite(AlphaComposite.Src);
+      g2d.drawImage(im, 0, 0, null);
+      g2d.dispose();
+      images.set(i, copy);
+    }
+  }  // end of makeCompatible()
+
+
+  // ------------------------ file I/O ---------------------------
+
+
+  public void save(File f) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                               new GZIPOutputStream( new FileOutputStream(f) )));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeInt(width);
+      out.writeInt(height);
+
+      out.writeInt(images.size());
+      for (BufferedImage im : images) {
+        int w = im.getWidth();
+        int h = im.getHeight();
+        out.writeInt(w);
+        out.writeInt(h);
+        out.writeBoolean(im.getTransparency() == Transparency.OPAQUE);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+          im.getRGB(0, y, w, 1, row, 0, w);
+          for (int x = 0; x < w; x++)
+            out.writeInt(row[x]);
+        }
+      }
+
+      out.writeInt(ops.size());
+      for (Op op : ops) {
+        out.writeByte(op.code);
+        out.writeInt(op.ints.length);
+        for (int v : op.ints)
+          out.writeInt(v);
+        out.writeInt(op.nums.length);
+        for (double v : op.nums)
+          out.writeDouble(v);
+        writeObject(out, op.obj);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }  // end of save()
+
+
+  private void writeObject(DataOutputStream out, Object obj) throws IOException
+  {
+    if (obj == null)
+      out.writeByte(0);
+    else if (obj instanceof String) {
+      out.writeByte(1);
+      out.writeUTF((String) obj);
+    }
+    else if (obj instanceof Rectangle2D) {
+      Rectangle2D r = (Rectangle2D) obj;
+      out.writeByte(3);
+      out.writeDouble(r.getX());
+      out.writeDouble(r.getY());
+      out.writeDouble(r.getWidth());
+      out.writeDouble(r.getHeight());
+    }
+    else {   // any other shape
+      out.writeByte(2);
+      PathIterator pi = ((Shape) obj).getPathIterator(null);
+      out.writeByte(pi.getWindingRule());
+      double[] coords = new double[6];
+      while (!pi.isDone()) {
+        int type = pi.currentSegment(coords);
+        out.writeByte(type);
+        for (int i = 0; i < numCoords(type); i++)
+          out.writeDouble(coords[i]);
+        pi.next();
+      }
+      out.writeByte(-1);
+    }
+  }  // end of writeObject()
+
+
+  public static FrameRecording load(File f) throws IOException
+  {
+    DataInputStream in = new DataInputStream( new BufferedInputStream(
+                             new GZIPInputStream( new FileInputStream(f) )));
+    try {
+      if (in.readInt() != MAGIC)
+        throw new IOException(f + " is not a frame recording");
+      int version = in.readInt();
+      if (version != FILE_VERSION)
+        throw new IOException(f + " has unknown version " + version);
+      FrameRecording rec = new FrameRecording(in.readInt(), in.readInt());
+
+      int numImages = in.readInt();
+      for (int i = 0; i < numImages; i++) {
+        int w = in.readInt();
+        int h = in.readInt();
+        boolean isOpaque = in.readBoolean();
+        BufferedImage im = new BufferedImage(w, h,
+             isOpaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+          for (int x = 0; x < w; x++)
+            row[x] = in.readInt();
+          im.setRGB(0, y, w, 1, row, 0, w);
+        }
+        rec.images.add(im);
+      }
+
+      int numOps = in.readInt();
+      rec.ops.ensureCapacity(numOps);
+      for (int i = 0; i < numOps; i++) {
+        int code = in.readByte();
+        int[] ints = new int[in.readInt()];
+        for (int j = 0; j < ints.length; j++)
+          ints[j] = in.readInt();
+        double[] nums = new double[in.readInt()];
+        for (int j = 0; j < nums.length; j++)
+          nums[j] = in.readDouble();
+        rec.add(code, ints, nums, readObject(in));
+      }
+      return rec;
+    }
+    finally {
+      in.close();
+    }
+  }  // end of load()
+
+
+  private static Object readObject(DataInputStream in) throws IOException
+  {
+    int tag = in.readByte();
+    if (tag == 0)
+      return null;
+    if (tag == 1)
+      return in.readUTF();
+    if (tag == 3)
+      return new Rectangle2D.Double(in.readDouble(), in.readDouble(),
+                                    in.readDouble(), in.readDouble());
+
+    Path2D.Double path = new Path2D.Double(in.readByte());
+    double[] c = new double[6];
+    int type;
+    while ((type = in.readByte()) != -1) {
+      for (int i = 0; i < numCoords(type); i++)
+        c[i] = in.readDouble();
+      switch (type) {
+        case PathIterator.SEG_MOVETO:  path.moveTo(c[0], c[1]);  break;
+        case PathIterator.SEG_LINETO:  path.lineTo(c[0], c[1]);  break;
+        case PathIterator.SEG_QUADTO:  path.quadTo(c[0], c[1], c[2], c[3]);  break;
+        case PathIterator.SEG_CUBICTO:
+          path.curveTo(c[0], c[1], c[2], c[3], c[4], c[5]);  break;
+        case PathIterator.SEG_CLOSE:  path.closePath();  break;
+      }
+    }
+    return path;
+  }  // end of readObject()
+
+
+  private static int numCoords(int segType)
+  {
+    switch (segType) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:  return 2;
+      case PathIterator.SEG_QUADTO:  return 4;
+      case PathIterator.SEG_CUBICTO: return 6;
+      default:                       return 0;
+    }
+  }  // end of numCoords()
+
+
+  // ------------------------ info ---------------------------
+
+
+  public int getWidth()
+  {  return width;  }
+
+  public int getHeight()
+  {  return height;  }
+
+  public int numOps()
+  {  return ops.size();  }
+
+  public int numImages()
+  {  return images.size();  }
+
+  public int numUnsupported()
+  {  return numUnsupported;  }
+
+
+  public String toString()
+  {
+    String s = numOps() + " commands, " + numImages() + " images, " +
+               width + "x" + height;
+    if (numUnsupported > 0)
+      s += "; " + numUnsupported + " unsupported: " + unsupported;
+    return s;
+  }  // end of toString()
+
+}  // end of FrameRecording class
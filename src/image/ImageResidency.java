@@ -0,0 +1,245 @@
+package image;
+
+// ImageResidency.java
+// Anton Ridgway
+
+/* An ImageResidency keeps the images loaded on demand (the 'l'
+   lines of the Imagesfile, see ImagesLoader) in memory only while
+   they are wanted, within a memory budget.
+
+   The images are used in named groups, such as the sets of
+   background ribbons. acquire() returns a group's images, loading
+   any which are not resident, and marks the group as in use until
+   it is release()d. Acquiring a group ahead of time, on another
+   thread, prefetches it.
+
+   Groups which are no longer in use stay resident, in case they
+   are wanted again, until the resident images go over the budget.
+   Then the least recently used groups which are not in use are
+   evicted, until the images fit again; an image is only dropped
+   if no other resident group holds it. The groups in use are never
+   evicted, so the budget may be exceeded if they need more.
+
+   A Preparer may be set, to replace each image as it is loaded by
+   the copy its users actually draw (such as a ribbon's extended
+   copy). The copy is then what is kept, shared, counted against the
+   budget, and evicted, and the image it was made from is let go.
+
+   getStats() reports the bytes resident in every group (an image
+   shared by several groups is counted in each of them), and the
+   total held, counting each image once.
+
+   The methods may be called from any thread. Images are loaded
+   without holding the lock, so one thread prefetching a group does
+   not hold up another using a resident one.
+*/
+
+import java.awt.image.*;
+import java.util.*;
+
+
+public class ImageResidency
+{
+  private ImagesLoader imsLoader;
+  private long budget;        // in bytes
+
+  private LinkedHashMap<String, Group> groups;
+    /* The key is the group's name. Ordered from the least recently
+       used (acquired or released) group to the most recent. */
+  private HashMap<String, BufferedImage> images;
+    // the resident images, by name
+  private long residentBytes = 0;
+  private Preparer preparer = null;   // makes the copies kept, if set
+
+  private int loads = 0;
+  private int evictions = 0;
+
+
+  public interface Preparer
+  // makes the copy of a loaded image which is kept in its place
+  {  BufferedImage prepare(String name, BufferedImage im);  }
+
+
+  private static class Group
+  {
+    String[] names;
+    int uses = 0;           // acquire()s not yet released
+    boolean isResident = false;
+  }
+
+
+  public ImageResidency(ImagesLoader imsLd, long budgetBytes)
+  {
+    imsLoader = imsLd;
+    budget = budgetBytes;
+    groups = new LinkedHashMap<String, Group>(16, 0.75f, true);   // access order
+    images = new HashMap<String, BufferedImage>();
+  }  // end of ImageResidency()
+
+
+  public synchronized void defineGroup(String group, String[] names)
+  // the images making up group, which are not loaded yet
+  {
+    Group g = new Group();
+    g.names = names.clone();
+    groups.put(group, g);
+  }  // end of defineGroup()
+
+
+  public synchronized void setPreparer(Preparer p)
+  // used on the images loaded from now on, so set it before acquiring any groups
+  {  preparer = p;  }
+
+
+  public BufferedImage[] acquire(String group)
+  /* Return the images of group, in the order they were defined,
+     loading any which are not resident. The group stays resident
+     until it is released. */
+  {
+    ArrayList<String> missing = new ArrayList<String>();
+    Preparer p;
+    synchronized(this) {
+      p = preparer;
+      Group g = getGroup(group);
+      g.uses++;
+      for (int i = 0; i < g.names.length; i++)
+        if (!images.containsKey(g.names[i]) && !missing.contains(g.names[i]))
+          missing.add(g.names[i]);
+    }
+
+    // load (and prepare) the missing images without holding the lock
+    HashMap<String, BufferedImage> loaded = new HashMap<String, BufferedImage>();
+    for (String name : missing) {
+      BufferedImage im = imsLoader.loadLazyImage(name);
+      if ((im != null) && (p != null))
+        im = p.prepare(name, im);
+      loaded.put(name, im);
+    }
+
+    synchronized(this) {
+      Group g = groups.get(group);   // also makes it the most recently used
+      for (String name : missing) {
+        BufferedImage im = loaded.get(name);
+        if ((im != null) && !images.containsKey(name)) {   // not loaded meanwhile
+          images.put(name, im);
+          residentBytes += sizeOf(im);
+          loads++;
+        }
+      }
+      g.isResident = true;
+      BufferedImage[] ims = new BufferedImage[g.names.length];
+      for (int i = 0; i < ims.length; i++)
+        ims[i] = images.get(g.names[i]);
+      evict();
+      return ims;
+    }
+  }  // end of acquire()
+
+
+  public synchronized void release(String group)
+  /* The group is no longer used by one of those who acquired it,
+     so it may be evicted once no one uses it. */
+  {
+    Group g = getGroup(group);
+    if (g.uses > 0)
+      g.uses--;
+    evict();
+  }  // end of release()
+
+
+  private Group getGroup(String group)
+  {
+    Group g = groups.get(group);
+    if (g == null)
+      throw new IllegalArgumentException("No image group called " + group);
+    return g;
+  }  // end of getGroup()
+
+
+  private void evict()
+  /* Evict the least recently used groups which are not in use
+     until the resident images fit in the budget. */
+  {
+    Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+    while ((residentBytes > budget) && it.hasNext()) {
+      Map.Entry<String, Group> e = it.next();
+      Group g = e.getValue();
+      if (!g.isResident || (g.uses > 0))
+        continue;
+      g.isResident = false;
+      for (int i = 0; i < g.names.length; i++)
+        if (!isHeld(g.names[i])) {
+          BufferedImage im = images.remove(g.names[i]);
+          if (im != null) {
+            residentBytes -= sizeOf(im);
+            im.flush();
+          }
+        }
+      evictions++;
+      System.out.println("Evicted image group " + e.getKey());
+    }
+  }  // end of evict()
+
+
+  private boolean isHeld(String name)
+  // is the image name part of a resident group?
+  {
+    for (Group g : groups.values())
+      if (g.isResident)
+        for (int i = 0; i < g.names.length; i++)
+          if (g.names[i].equals(name))
+            return true;
+    return false;
+  }  // end of isHeld()
+
+
+  public static long sizeOf(BufferedImage im)
+  // the bytes held by im's pixels
+  {
+    DataBuffer db = im.getRaster().getDataBuffer();
+    return (long) db.getSize() * db.getNumBanks() *
+                  DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+  }  // end of sizeOf()
+
+
+  // ------------------ access methods -------------------
+
+  public synchronized boolean isResident(String group)
+  {  return getGroup(group).isResident;  }
+
+
+  public synchronized long getResidentBytes()
+  {  return residentBytes;  }
+
+
+  public long getBudget()
+  {  return budget;  }
+
+
+  public synchronized String getStats()
+  /* The bytes resident in each group, from the least recently used,
+     and in total. */
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Group> e : groups.entrySet()) {
+      Group g = e.getValue();
+      long bytes = 0;
+      for (int i = 0; i < g.names.length; i++) {
+        BufferedImage im = images.get(g.names[i]);
+        if (im != null)
+          bytes += sizeOf(im);
+      }
+      sb.append(e.getKey()).append(": ").append(bytes/1024).append(" KB");
+      if (g.uses > 0)
+        sb.append(" (in use)");
+      else if (!g.isResident)
+        sb.append(" (not resident)");
+      sb.append("; ");
+    }
+    sb.append("total ").append(residentBytes/1024).append(" KB of ").
+       append(budget/1024).append(" KB; ").append(loads).append(" loads, ").
+       append(evictions).append(" evictions");
+    return sb.toString();
+  }  // end of getStats()
+
+}  // end of ImageResidency class
@@ -10,6 +10,8 @@ package image;
 
     o <fnm>                     // a single image file
 
+    l <fnm>                     // a single image file, loaded on demand
+
     n <fnm*.ext> <number>       // a series of numbered image files, whose
                                 // filenames use the numbers 0 - <number>-1
 
@@ -33,18 +35,59 @@ package image;
     <fnm> prefix of the particular file, or its position in the group.
 
 
+    The 'l' images are not loaded with the others, but only their
+    names and filenames noted. They are meant to be loaded and
+    evicted by an ImageResidency, through loadLazyImage(), so that
+    large images (such as the backgrounds) need only be in memory
+    while they are being used.
+
     The images are stored as BufferedImage objects, so they will be 
     manipulated as 'managed' images by the JVM (when possible).
+
+    Every name stored is also given an int handle, numbered densely
+    from 0 in load order. getHandle() resolves a name once, when a
+    sprite or other user is set up, and fails at that point if the
+    name is unknown; after that the handle indexes straight into
+    arrays of frames and clips, without any String lookups.
+
+    packAtlas() copies a chosen set of small images (and their
+    rotations) into the pages of a TextureAtlas, so they can be
+    drawn as sub-rectangles of a few shared surfaces; getRegions()
+    then gives the AtlasRegions for a handle's images.
+
+    The images named in the Imagesfile are decoded in parallel, on
+    a fixed pool of threads. Every image file is read and decoded
+    ahead of time by the pool, while the lines are still processed
+    one at a time, in order, taking the images from the pool as they
+    are needed; so the names, handles, and messages are the same as
+    when loading serially (which a single thread still does). The
+    time taken is reported, along with an estimate of how long the
+    loading would take serially.
+
+    A PixelCache may be given, to keep the decoded pixels of the
+    images on disk; then an image is only decoded if it has no
+    up-to-date cached copy, and is otherwise read back from the cache.
+
+    The loading may be staged, by naming the images needed first;
+    the constructor then loads only those (and notes the 'l' images),
+    leaving the other lines for loadRemaining(), which can be called
+    on another thread while the first images are already in use.
 */
 
 
 import java.awt.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 import javax.imageio.*;
 import javax.swing.*;     // for ImageIcon
 
+import assets.AssetIndex;
+import timing.LoadThreads;
+import timing.StartupTrace;
+
 
 public class ImagesLoader
 {
@@ -60,13 +103,74 @@ public class ImagesLoader
 
   private GraphicsConfiguration gc;
 
+  private RotationCache rotations;
+    // pre-rendered rotated copies of images, built on demand
+
+  private HashMap<String, Integer> handlesMap;
+    // The key is the image name, the value is its handle
+  private ArrayList<String> namesList;
+    // The name for each handle, indexed by handle
+  private ArrayList<BufferedImage[]> framesList;
+    // The images for each handle, indexed by handle
+  private ArrayList<AnimationClip> clipsList;
+    /* The AnimationClip most recently built for each handle, 
+       shared by its ImagesPlayers; indexed by handle */
+  private HashMap<String, String> lazyMap;
+    /* The key is the name of an image loaded on demand,
+       the value its filename */
+
+  private TextureAtlas atlas = null;   // null until packAtlas() is called
+
+  private HashMap<String, Future<BufferedImage>> pending = null;
+    /* The key is an image filename, the value its image being decoded
+       by the loading threads; only used while loading the Imagesfile */
+  private AtomicLong decodeTime = new AtomicLong();
+    // total nanosecs the loading threads spent decoding
+  private long waitTime = 0;
+    // nanosecs spent waiting for the loading threads
+
+  private PixelCache pixelCache = null;   // null when there is no cache
+
+  private ArrayList<String> remainingLines = null;
+  private ArrayList<AssetIndex.Entry> remainingEntries = null;
+    /* The lines of the Imagesfile (or the entries of its index) left
+       for loadRemaining(); both null when there are none */
+  private int remainingThreads;
+
+  private HashMap<String, int[]> indexSizes = new HashMap<String, int[]>();
+    /* The key is an image filename, the value the width and height
+       of its image from the index; filled in before any image is
+       decoded, and then only read, by decodeImage() */
+
 
   public ImagesLoader(String fnm)
   // begin by loading the images specified in fnm
-  { initLoader();
-    loadImagesFile(fnm);
+  { this(fnm, LoadThreads.getDefault());  }
+
+
+  public ImagesLoader(String fnm, int numThreads)
+  /* Load the images specified in fnm, decoding them on numThreads
+     threads; 1 loads them serially. */
+  { this(fnm, numThreads, null);  }
+
+
+  public ImagesLoader(String fnm, int numThreads, PixelCache cache)
+  // as above, but reading and saving decoded images in cache (if not null)
+  { this(fnm, numThreads, cache, null);  }
+
+
+  public ImagesLoader(String fnm, int numThreads, PixelCache cache,
+                                                  String[] firstNames)
+  /* As above, but only load the images stored under firstNames,
+     leaving the rest for loadRemaining(); null loads them all. */
+  { StartupTrace.Span span = StartupTrace.begin("startup", "ImagesLoader", fnm);
+    initLoader();
+    pixelCache = cache;
+    loadImagesFile(fnm, numThreads, firstNames);
+    span.end();
   }  // end of ImagesLoader()
 
+
   public ImagesLoader()
   {  initLoader();  } 
 
@@ -78,43 +182,65 @@ public class ImagesLoader
 
     GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
     gc = ge.getDefaultScreenDevice().getDefaultConfiguration();
+    rotations = new RotationCache(this, gc);
+    handlesMap = new HashMap<String, Integer>();
+    namesList = new ArrayList<String>();
+    framesList = new ArrayList<BufferedImage[]>();
+    clipsList = new ArrayList<AnimationClip>();
+    lazyMap = new HashMap<String, String>();
   }  // end of initLoader()
 
 
-  private void loadImagesFile(String fnm)
+  private void loadImagesFile(String fnm, int numThreads, String[] firstNames)
   /* Formats:
         o <fnm>                     // a single image
+        l <fnm>                     // a single image, loaded on demand
         n <fnm*.ext> <number>       // a numbered sequence of images
         s <fnm> <number>            // an images strip
         g <name> <fnm> [ <fnm> ]*   // a group of images 
 
      and blank lines and comment lines.
+
+     If the Imagesfile has an up-to-date index (see AssetIndex),
+     the index is read instead.
+
+     Only the lines for firstNames (and the 'l' lines) are loaded if
+     firstNames is not null; the others are kept for loadRemaining().
   */
   { 
     String imsFNm = IMAGE_DIR + fnm;
+    remainingThreads = numThreads;
+    AssetIndex index = AssetIndex.load(getClass(), imsFNm);
+    if (index != null) {
+      System.out.println("Reading index: " + AssetIndex.indexName(imsFNm));
+      ArrayList<AssetIndex.Entry> first = new ArrayList<AssetIndex.Entry>();
+      ArrayList<AssetIndex.Entry> rest = new ArrayList<AssetIndex.Entry>();
+      for (AssetIndex.Entry e : index.getEntries()) {
+        noteIndexSizes(e);
+        if (isFirst(e.kind, e.name, firstNames))
+          first.add(e);
+        else
+          rest.add(e);
+      }
+      loadImages(AssetIndex.getFiles(first), null, first, numThreads);
+      if (rest.size() > 0)
+        remainingEntries = rest;
+      return;
+    }
+
     System.out.println("Reading file: " + imsFNm);
+    ArrayList<String> lines = new ArrayList<String>();
     try {
       InputStream in = getClass().getResourceAsStream(imsFNm);
       BufferedReader br = new BufferedReader( new InputStreamReader(in));
       //BufferedReader br = new BufferedReader( new FileReader(imsFNm));
       String line;
-      char ch;
       while((line = br.readLine()) != null) {
         if (line.length() == 0)  // blank line
           continue;
         if (line.startsWith("//"))   // comment
           continue;
-        ch = Character.toLowerCase( line.charAt(0) );
-        if (ch == 'o')  // a single image
-          getFileNameImage(line);
-        else if (ch == 'n')  // a numbered sequence of images
-          getNumberedImages(line);
-        else if (ch == 's')  // an images strip
-          getStripImages(line);
-        else if (ch == 'g')  // a group of images
-          getGroupImages(line);
-        else
-          System.out.println("Do not recognize line: " + line);
+        lines.add(line);
       }
       br.close();
     } 
@@ -122,9 +248,303 @@ public class ImagesLoader
     { System.out.println("Error reading file: " + imsFNm);
       System.exit(1);
     }
+
+    ArrayList<String> first = new ArrayList<String>();
+    ArrayList<String> rest = new ArrayList<String>();
+    for (String line : lines) {
+      char ch = Character.toLowerCase( line.charAt(0) );
+      String name = getLineName(line);
+      if ((name == null) || isFirst(ch, name, firstNames))
+        first.add(line);    // a bad line is reported now
+      else
+        rest.add(line);
+    }
+    loadImages(getFileNames(first), first, null, numThreads);
+    if (rest.size() > 0)
+      remainingLines = rest;
   }  // end of loadImagesFile()
 
 
+  private boolean isFirst(char ch, String name, String[] firstNames)
+  // should the line for name be loaded by the constructor?
+  {
+    if ((firstNames == null) || (ch == 'l'))   // 'l' lines only note a name
+      return true;
+    for (int i = 0; i < firstNames.length; i++)
+      if (firstNames[i].equals(name))
+        return true;
+    return false;
+  }  // end of isFirst()
+
+
+  private String getLineName(String line)
+  // the name the line's images are stored under, or null if it is wrong
+  {
+    StringTokenizer tokens = new StringTokenizer(line);
+    if (tokens.countTokens() < 2)
+      return null;
+    char ch = Character.toLowerCase( tokens.nextToken().charAt(0) );
+    String fnm = tokens.nextToken();
+    if (ch == 'g')
+      return fnm;    // the group's name
+    if (ch == 'n') {
+      int starPosn = fnm.lastIndexOf("*");
+      return (starPosn == -1) ? getPrefix(fnm) : fnm.substring(0, starPosn);
+    }
+    return getPrefix(fnm);
+  }  // end of getLineName()
+
+
+  public void loadRemaining()
+  /* Load the images left over by the constructor, if it was given
+     the names to load first. This may be called on another thread,
+     while the images already loaded are being used, but nothing
+     else may call the ImagesLoader until it returns. */
+  {
+    ArrayList<AssetIndex.Entry> entries = remainingEntries;
+    ArrayList<String> lines = remainingLines;
+    remainingEntries = null;
+    remainingLines = null;
+    if (entries != null)
+      loadImages(AssetIndex.getFiles(entries), null, entries, remainingThreads);
+    else if (lines != null)
+      loadImages(getFileNames(lines), lines, null, remainingThreads);
+  }  // end of loadRemaining()
+
+
+  public boolean hasRemaining()
+  {  return (remainingEntries != null) || (remainingLines != null);  }
+
+
+  private void loadImages(ArrayList<String> fnms, ArrayList<String> lines,
+                          ArrayList<AssetIndex.Entry> entries, int numThreads)
+  /* Load the images from the lines of the Imagesfile, or from the
+     entries of its index, decoding the files fnms on numThreads
+     threads. */
+  {
+    long startTime = System.nanoTime();
+    int numLoaded = framesList.size();
+    decodeTime.set(0);
+    waitTime = 0;
+    ExecutorService pool = null;
+    if (numThreads > 1) {
+      pool = Executors.newFixedThreadPool(numThreads);
+      startDecoding(fnms, pool);
+    }
+    try {
+      if (entries != null)
+        loadIndexEntries(entries);
+      else
+        loadLines(lines);
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();   // stop decoding any images left unused
+        pending = null;
+      }
+    }
+    reportLoadTime(framesList.size() - numLoaded, System.nanoTime() - startTime, numThreads);
+  }  // end of loadImages()
+
+
+  private void loadLines(ArrayList<String> lines)
+  {
+    char ch;
+    for (String line : lines) {
+      ch = Character.toLowerCase( line.charAt(0) );
+      if (ch == 'o')  // a single image
+        getFileNameImage(line);
+      else if (ch == 'n')  // a numbered sequence of images
+        getNumberedImages(line);
+      else if (ch == 's')  // an images strip
+        getStripImages(line);
+      else if (ch == 'l')  // an image loaded on demand
+        getLazyImage(line);
+      else if (ch == 'g')  // a group of images
+        getGroupImages(line);
+      else
+        System.out.println("Do not recognize line: " + line);
+    }
+  }  // end of loadLines()
+
+
+  private void loadIndexEntries(ArrayList<AssetIndex.Entry> entries)
+  /* The entries have been checked when the index was built, so they
+     are loaded without any parsing. */
+  {
+    for (AssetIndex.Entry e : entries) {
+      if (e.kind == 'o')
+        loadSingleImage(e.files[0]);
+      else if (e.kind == 'n')
+        loadNumImages(e.files[0], e.number);
+      else if (e.kind == 's')
+        loadStripImages(e.files[0], e.number);
+      else if (e.kind == 'l')
+        noteLazyImage(e.name, e.files[0]);
+      else if (e.kind == 'g')
+        loadGroupImages(e.name, e.files);
+      else
+        System.out.println("Do not recognize index entry: " + e.kind + " " + e.name);
+    }
+  }  // end of loadIndexEntries()
+
+
+  private void noteIndexSizes(AssetIndex.Entry e)
+  /* Store the size of each image the entry names, as the index
+     has it; a strip's is its frame size times its frame count. */
+  {
+    for (int i = 0; i < e.files.length; i++)
+      if (e.widths[i] > 0) {
+        int width = (e.kind == 's') ? e.widths[i]*e.number : e.widths[i];
+        indexSizes.put(e.files[i], new int[] {width, e.heights[i]});
+      }
+  }  // end of noteIndexSizes()
+
+
+  private void checkIndexSize(String fnm, BufferedImage im)
+  // report if the image in <fnm> has changed size since the index was built
+  {
+    int[] size = indexSizes.get(fnm);
+    if ((size != null) && ((im.getWidth() != size[0]) || (im.getHeight() != size[1])))
+      System.out.println("Warning: " + fnm + " is " + im.getWidth() + "x" + im.getHeight() +
+                         ", but the index has " + size[0] + "x" + size[1] +
+                         "; rebuild it with assets.ManifestCompiler");
+  }  // end of checkIndexSize()
+
+
+  private void startDecoding(ArrayList<String> fnms, ExecutorService pool)
+  /* Submit every image file in fnms to the pool, in the order they
+     will be needed, storing their futures in pending. */
+  {
+    pending = new HashMap<String, Future<BufferedImage>>();
+    for (final String fnm : fnms)
+      if (!pending.containsKey(fnm))
+        pending.put(fnm, pool.submit( new Callable<BufferedImage>() {
+          public BufferedImage call()
+          { long t = System.nanoTime();
+            BufferedImage im = decodeImage(fnm);
+            decodeTime.addAndGet(System.nanoTime() - t);
+            return im;
+          }
+        }));
+  }  // end of startDecoding()
+
+
+  private ArrayList<String> getFileNames(ArrayList<String> lines)
+  // the image files named in lines to be loaded now, in order
+  {
+    ArrayList<String> fnms = new ArrayList<String>();
+    for (String line : lines) {
+      StringTokenizer tokens = new StringTokenizer(line);
+      int numTokens = tokens.countTokens();
+      if (numTokens == 0)
+        continue;
+      char ch = Character.toLowerCase( tokens.nextToken().charAt(0) );
+      if (((ch == 'o') && (numTokens == 2)) || ((ch == 's') && (numTokens == 3)))
+        fnms.add( tokens.nextToken() );
+      else if ((ch == 'g') && (numTokens >= 3)) {
+        tokens.nextToken();    // skip the group name
+        while (tokens.hasMoreTokens())
+          fnms.add( tokens.nextToken() );
+      }
+      else if ((ch == 'n') && (numTokens == 3)) {
+        String fnm = tokens.nextToken();
+        int starPosn = fnm.lastIndexOf("*");
+        int number;
+        try {
+          number = Integer.parseInt( tokens.nextToken() );
+        }
+        catch (NumberFormatException e)
+        {  number = 0;  }
+        if (starPosn != -1) {   // otherwise leave it to loadNumImages()
+          String prefix = fnm.substring(0, starPosn);
+          String postfix = fnm.substring(starPosn+1);
+          if (number <= 0)
+            fnms.add(prefix + postfix);
+          for (int i = 0; i < number; i++)
+            fnms.add(prefix + i + postfix);
+        }
+      }
+    }
+    return fnms;
+  }  // end of getFileNames()
+
+
+  private void reportLoadTime(int numLoaded, long loadTime, int numThreads)
+  /* The serial estimate is the time this thread spent working,
+     plus all the time spent decoding by the loading threads. */
+  {
+    long serialTime = loadTime - waitTime + decodeTime.get();
+    System.out.println("Loaded " + numLoaded + " images in " + 
+                 (loadTime/1000000L) + " ms on " + Math.max(1, numThreads) + 
+                 " thread(s); about " + (serialTime/1000000L) + " ms serially");
+    if ((pixelCache != null) && pixelCache.isEnabled())
+      System.out.println("Pixel cache: " + pixelCache.getStats());
+  }  // end of reportLoadTime()
+
+
+  // --------- an image loaded on demand ------------------------
+
+  private void getLazyImage(String line)
+  /* format:
+        l <fnm>
+  */
+  { StringTokenizer tokens = new StringTokenizer(line);
+
+    if (tokens.countTokens() != 2)
+      System.out.println("Wrong no. of arguments for " + line);
+    else {
+      tokens.nextToken();    // skip command label
+      System.out.print("l Line: ");
+      String fnm = tokens.nextToken();
+      noteLazyImage(getPrefix(fnm), fnm);
+    }
+  }  // end of getLazyImage()
+
+
+  private void noteLazyImage(String name, String fnm)
+  {
+    if (imagesMap.containsKey(name) || lazyMap.containsKey(name))
+      System.out.println( "Error: " + name + "already used");
+    else {
+      lazyMap.put(name, fnm);
+      System.out.println("  Noted " + name + "/" + fnm + " to load on demand");
+    }
+  }  // end of noteLazyImage()
+
+
+  public boolean isLazy(String name)
+  // is <name> an image loaded on demand?
+  {  return lazyMap.containsKey(name);  }
+
+
+  public BufferedImage loadLazyImage(String name)
+  /* Load the image <name> which is loaded on demand, returning
+     a new copy of it every time; it is not stored here. Returns
+     null if there is no such image. This may be called from any
+     thread.
+  */
+  {
+    String fnm = lazyMap.get(name);
+    if (fnm == null) {
+      System.out.println("No image to load on demand under " + name);
+      return null;
+    }
+    return decodeImage(fnm);
+  }  // end of loadLazyImage()
+
+
+  public long getResidentBytes()
+  // the bytes held by the pixels of the images stored here
+  {
+    long bytes = 0;
+    for (BufferedImage[] frames : framesList)
+      for (int i = 0; i < frames.length; i++)
+        bytes += ImageResidency.sizeOf(frames[i]);
+    return bytes;
+  }  // end of getResidentBytes()
+
+
   // --------- load a single image -------------------------------
 
   private void getFileNameImage(String line)
@@ -155,9 +575,9 @@ public class ImagesLoader
 
     BufferedImage bi = loadImage(fnm);
     if (bi != null) {
-      ArrayList imsList = new ArrayList();
+      ArrayList<BufferedImage> imsList = new ArrayList<BufferedImage>();
       imsList.add(bi);
-      imagesMap.put(name, imsList);
+      store(name, imsList);
       System.out.println("  Stored " + name + "/" + fnm);
       return true;
     }
@@ -166,6 +586,17 @@ public class ImagesLoader
   }  // end of loadSingleImage()
 
 
+  private void store(String name, ArrayList<BufferedImage> imsList)
+  // store the images under <name>, and give them the next handle
+  {
+    imagesMap.put(name, imsList);
+    handlesMap.put(name, framesList.size());
+    namesList.add(name);
+    framesList.add( imsList.toArray(new BufferedImage[imsList.size()]) );
+    clipsList.add(null);
+  }  // end of store()
+
+
   private String getPrefix(String fnm)
   // extract name before '.' of filename
   {
@@ -245,7 +676,7 @@ public class ImagesLoader
   { 
     String imFnm;
     BufferedImage bi;
-    ArrayList imsList = new ArrayList();
+    ArrayList<BufferedImage> imsList = new ArrayList<BufferedImage>();
     int loadCount = 0;
 
     if (number <= 0) {
@@ -274,7 +705,7 @@ public class ImagesLoader
     if (loadCount == 0)
       System.out.println("No images loaded for " + prefix);
     else 
-      imagesMap.put(prefix, imsList);
+      store(prefix, imsList);
 
     return loadCount;
   }  // end of loadNumImages()
@@ -325,7 +756,7 @@ public class ImagesLoader
     if (strip == null)
       return 0;
 
-    ArrayList imsList = new ArrayList();
+    ArrayList<BufferedImage> imsList = new ArrayList<BufferedImage>();
     int loadCount = 0;
     System.out.print("  Adding " + name + "/" + fnm + "... ");
     for (int i=0; i < strip.length; i++) {
@@ -338,7 +769,7 @@ public class ImagesLoader
     if (loadCount == 0)
       System.out.println("No images loaded for " + name);
     else 
-      imagesMap.put(name, imsList);
+      store(name, imsList);
 
     return loadCount;
   }  // end of loadStripImages()
@@ -391,7 +822,7 @@ public class ImagesLoader
 
     BufferedImage bi;
     ArrayList nms = new ArrayList();
-    ArrayList imsList = new ArrayList();
+    ArrayList<BufferedImage> imsList = new ArrayList<BufferedImage>();
     String nm, fnm;
     int loadCount = 0;
 
@@ -412,7 +843,7 @@ public class ImagesLoader
     if (loadCount == 0)
       System.out.println("No images loaded for " + name);
     else {
-      imagesMap.put(name, imsList);
+      store(name, imsList);
       gNamesMap.put(name, nms);
     }
 
@@ -544,6 +975,15 @@ public class ImagesLoader
   }  // end of getImages();
 
 
+  public BufferedImage[] getRotations(String name, int numDirs)
+  /* Return <numDirs> copies of the image <name>, each rotated 
+     clockwise by a further 360/numDirs degrees. They are rendered
+     on the first request and shared after that. Returns null
+     if there is no image stored under <name>.
+  */
+  {  return rotations.getRotations(name, numDirs);  }
+
+
   public boolean isLoaded(String name)
   // is <name> a key in the imagesMap hashMap?
   {
@@ -566,6 +1006,110 @@ public class ImagesLoader
   } // end of numImages()
 
 
+  // ------------------ handle access methods -------------------
+
+  public int getHandle(String name)
+  /* Resolve <name> to its handle. This is meant to be called once,
+     when the user of the images is set up, and an unknown name is
+     an error rather than something to be put up with every frame.
+  */
+  {
+    Integer handle = handlesMap.get(name);
+    if (handle == null)
+      throw new IllegalArgumentException("No image(s) stored under " + name);
+    return handle;
+  }  // end of getHandle()
+
+
+  public BufferedImage getImage(int handle)
+  // the first image stored under <handle>
+  {  return framesList.get(handle)[0];  }
+
+
+  public BufferedImage[] getFrames(int handle)
+  /* All of the images stored under <handle>. The array is shared,
+     and must not be modified. */
+  {  return framesList.get(handle);  }
+
+
+  public int numImages(int handle)
+  {  return framesList.get(handle).length;  }
+
+
+  public String getName(int handle)
+  // the name stored under <handle>, for messages
+  {  return namesList.get(handle);  }
+
+
+  public AnimationClip getClip(int handle, int animPeriod, double seqDuration)
+  /* Return the AnimationClip for playing the images stored under
+     <handle> over seqDuration secs, with an update every animPeriod ms.
+     Clips are built on the first request and shared after that.
+  */
+  {
+    AnimationClip clip = clipsList.get(handle);
+    if ((clip == null) || !clip.matches(animPeriod, seqDuration)) {
+      clip = new AnimationClip(getName(handle), framesList.get(handle), 
+                                       animPeriod, seqDuration);
+      clipsList.set(handle, clip);
+    }
+    return clip;
+  }  // end of getClip()
+
+
+  public AnimationClip getClip(String name, int animPeriod, double seqDuration)
+  // as above, for the images stored under <name>
+  {  return getClip(getHandle(name), animPeriod, seqDuration);  }
+
+
+  // ------------------ texture atlas methods -------------------
+
+  public void packAtlas(String[] names, String[] rotatedNames, 
+                                         int numDirs, int pageSize)
+  /* Pack the images stored under each of <names>, and the <numDirs>
+     rotations of each of <rotatedNames>, into atlas pages of 
+     pageSize by pageSize pixels. Unknown names are reported and
+     skipped. This should be called once, after loading, and before
+     any regions are asked for.
+  */
+  {
+    if (atlas == null)
+      atlas = new TextureAtlas(gc, pageSize);
+
+    for (int i = 0; i < names.length; i++) {
+      Integer handle = handlesMap.get(names[i]);
+      if (handle == null)
+        System.out.println("No image(s) stored under " + names[i]);
+      else
+        atlas.add(framesList.get(handle));
+    }
+    for (int i = 0; i < rotatedNames.length; i++)
+      atlas.add( rotations.getRotations(rotatedNames[i], numDirs) );
+
+    atlas.pack();
+  }  // end of packAtlas()
+
+
+  public AtlasRegion[] getRegions(int handle)
+  /* The atlas regions for the images stored under <handle>, in the
+     same order as getFrames(), or null if they were not packed. */
+  {
+    if (atlas == null)
+      return null;
+    return atlas.getRegions(framesList.get(handle));
+  }  // end of getRegions()
+
+
+  public AtlasRegion getRegion(BufferedImage im)
+  /* The atlas region holding a copy of <im> (which may be one of
+     its rotations), or null if it was not packed. */
+  {
+    if (atlas == null)
+      return null;
+    return atlas.getRegion(im);
+  }  // end of getRegion()
+
+
   // ------------------- Image Input ------------------
 
   /* There are three versions of loadImage() here! They use:
@@ -579,28 +1123,70 @@ public class ImagesLoader
    public BufferedImage loadImage(String fnm) 
    /* Load the image from <fnm>, returning it as a BufferedImage
       which is compatible with the graphics device being used.
-      Uses ImageIO.
+      If the loading threads are already decoding it, wait for them
+      to finish it.
+   */
+   {
+     Future<BufferedImage> future = (pending == null) ? null : pending.remove(fnm);
+     if (future == null)
+       return decodeImage(fnm);
+
+     long t = System.nanoTime();
+     try {
+       return future.get();
+     }
+     catch (InterruptedException e) {
+       Thread.currentThread().interrupt();   // keep the flag, and decode the file here
+       return decodeImage(fnm);
+     }
+     catch (ExecutionException e) {
+       if (e.getCause() instanceof RuntimeException)
+         throw (RuntimeException) e.getCause();
+       throw new RuntimeException(e.getCause());
+     }
+     finally {
+       waitTime += System.nanoTime() - t;
+     }
+   }  // end of loadImage()
+
+
+   private BufferedImage decodeImage(String fnm)
+   /* Load the image from <fnm>, returning it as a BufferedImage
+      which is compatible with the graphics device being used,
+      and checking its size against the index, if there is one.
+      This may be called from any thread.
    */
+   {
+     BufferedImage im = decodeFile(fnm);
+     if (im != null)
+       checkIndexSize(fnm, im);
+     return im;
+   }  // end of decodeImage()
+
+
+   private BufferedImage decodeFile(String fnm)
+   /* Uses ImageIO, unless the pixel cache has an up-to-date copy
+      of the image. */
    {
      try {
     	 InputStream in = getClass().getResourceAsStream(IMAGE_DIR + fnm);
-    	 BufferedImage im = ImageIO.read(in ); 
-       // An image returned from ImageIO in J2SE <= 1.4.2 is 
-       // _not_ a managed image, but is after copying!
-
-       int transparency = im.getColorModel().getTransparency();
-       BufferedImage copy =  gc.createCompatibleImage(
-                                im.getWidth(), im.getHeight(),
-		                        transparency );
-       // create a graphics context
-       Graphics2D g2d = copy.createGraphics();
-       // g2d.setComposite(AlphaComposite.Src);
-
-       // reportTransparency(IMAGE_DIR + fnm, transparency);
-
-       // copy image
-       g2d.drawImage(im,0,0,null);
-       g2d.dispose();
+       if ((pixelCache == null) || !pixelCache.isEnabled())
+         return decodeCompatible(fnm, in);
+
+       if (in == null)
+         throw new FileNotFoundException("no such resource");
+       StartupTrace.Span span = StartupTrace.begin("images", "read", fnm);
+       byte[] src = PixelCache.readAll(in);
+       span.end();
+       span = StartupTrace.begin("images", "cache read", fnm);
+       BufferedImage copy = pixelCache.load(fnm, src, gc);
+       span.end();
+       if (copy == null) {
+         copy = decodeCompatible(fnm, new ByteArrayInputStream(src));
+         span = StartupTrace.begin("images", "cache write", fnm);
+         pixelCache.store(fnm, src, copy);
+         span.end();
+       }
        return copy;
      } 
      catch(IOException e) {
@@ -608,7 +1194,43 @@ public class ImagesLoader
                      IMAGE_DIR + "/" + fnm + ":\n" + e); 
        return null;
      }
-  } // end of loadImage() using ImageIO
+  } // end of decodeFile() using ImageIO
+
+
+  private BufferedImage decodeCompatible(String fnm, InputStream in) throws IOException
+  // decode the image in <fnm> from in, and copy it into a compatible image
+  {
+    StartupTrace.Span span = StartupTrace.begin("images", "decode", fnm);
+    BufferedImage im = ImageIO.read(in);
+    span.end();
+    span = StartupTrace.begin("images", "copy", fnm);
+    BufferedImage copy = makeCompatible(im);
+    span.end();
+    return copy;
+  }  // end of decodeCompatible()
+
+
+  private BufferedImage makeCompatible(BufferedImage im)
+  // copy the decoded image im into an image compatible with the device
+  {
+    // An image returned from ImageIO in J2SE <= 1.4.2 is 
+    // _not_ a managed image, but is after copying!
+
+    int transparency = im.getColorModel().getTransparency();
+    BufferedImage copy =  gc.createCompatibleImage(
+                             im.getWidth(), im.getHeight(),
+                             transparency );
+    // create a graphics context
+    Graphics2D g2d = copy.createGraphics();
+    // g2d.setComposite(AlphaComposite.Src);
+
+    // reportTransparency(IMAGE_DIR + fnm, transparency);
+
+    // copy image
+    g2d.drawImage(im,0,0,null);
+    g2d.dispose();
+    return copy;
+  } // end of makeCompatible()
 
 
   private void reportTransparency(String fnm, int transparency)
@@ -19,16 +19,18 @@ package image;
    called. The intention is that updateTick() will be called periodically
    from the update() method in the top-level animation framework.
 
-   The current animation time is calculated when updateTick()
-   is called, and used to calculate imPosition, imPosition
-   specifies which image should be returned when getCurrentImage() 
-   is called.
+   The frames, and the image position to show on each tick, are
+   held in an AnimationClip shared by every player of the same
+   images at the same rate. The player itself only counts ticks;
+   updateTick() advances the count and looks up imPosition in the
+   clip's table, and getCurrentImage() returns that frame from
+   the clip's array.
 
    The ImagesPlayer can be set to cycle, stop, resume, or restart
    at a given image position.
 
    When the sequence finishes, a callback, sequenceEnded(), can
-   be invoked in a specified object implementing the 
+   be invoked in a specified object implementing the
    ImagesPlayerWatcher interface.
 
 */
@@ -41,16 +43,9 @@ public class ImagesPlayer
 {
   private String imName;
   private boolean isRepeating, ticksIgnored;
-  private ImagesLoader imsLoader;
 
-  private int animPeriod;
-         // period used by animation loop (in ms)
-  private long animTotalTime;
-
-  private int showPeriod;     
-         // period the current image is shown (in ms)
-  private double seqDuration;   
-         // total duration of the entire image sequence (in secs)
+  private AnimationClip clip;   // null if the images are not known
+  private int tick;             // ticks since the start of this pass
 
   private int numImages;
   private int imPosition;     // position of current displayable image
@@ -58,33 +53,32 @@ public class ImagesPlayer
   private ImagesPlayerWatcher watcher = null;
 
 
-  public ImagesPlayer(String nm, int ap, double d, 
-                                boolean isr, ImagesLoader il) 
+  public ImagesPlayer(String nm, int ap, double d,
+                                boolean isr, ImagesLoader il)
+  {  this(nm, il.isLoaded(nm) ? il.getClip(nm, ap, d) : null, isr);  }
+
+
+  public ImagesPlayer(AnimationClip c, boolean isr)
+  {  this(c.getName(), c, isr);  }
+
+
+  private ImagesPlayer(String nm, AnimationClip c, boolean isr)
   {
     imName = nm;
-    animPeriod = ap; 
-    seqDuration = d;
+    clip = c;
     isRepeating = isr;
-    imsLoader = il;
+    tick = 0;
 
-    animTotalTime = 0L;
-
-    if (seqDuration < 0.5) {
-      System.out.println("Warning: minimum sequence duration is 0.5 sec.");
-      seqDuration = 0.5;
-    }
-
-    if (!imsLoader.isLoaded(imName)) {
+    if (clip == null) {
       System.out.println(imName + " is not known by the ImagesLoader");
       numImages = 0;
       imPosition = -1;
       ticksIgnored = true;
     }
     else {
-      numImages = imsLoader.numImages(imName);
+      numImages = clip.numFrames();
       imPosition = 0;
       ticksIgnored = false;
-      showPeriod = (int) (1000 * seqDuration / numImages);
     }
   } // end of ImagesPlayer()
 
@@ -94,11 +88,12 @@ public class ImagesPlayer
   /* We assume that this method is called every animPeriod ms */
   {
     if (!ticksIgnored) {
-      // update total animation time, modulo the animation sequence duration
-      animTotalTime = (animTotalTime + animPeriod) % (long)(1000 * seqDuration);
+      // advance the tick, wrapping at the end of the sequence
+      if (++tick == clip.numTicks())
+        tick = 0;
 
-      // calculate current displayable image position
-      imPosition = (int) (animTotalTime / showPeriod);   // in range 0 to num-1
+      // look up the current displayable image position
+      imPosition = clip.frameAt(tick);   // in range 0 to num-1
       if ((imPosition == numImages-1) && (!isRepeating)) {  // at end of sequence
         ticksIgnored = true;   // stop at this image
         if (watcher != null)
@@ -111,9 +106,9 @@ public class ImagesPlayer
 
   public BufferedImage getCurrentImage()
   { if (numImages != 0)
-      return imsLoader.getImage(imName, imPosition); 
+      return clip.getFrame(imPosition);
     else
-      return null; 
+      return null;
   } // end of getCurrentImage()
 
 
@@ -124,11 +119,11 @@ public class ImagesPlayer
 
   public void setWatcher(ImagesPlayerWatcher w)
   {  watcher = w;  }
-   
+
 
   public void stop()
   /* updateTick() calls will no longer update the
-     total animation time or imPosition. */
+     tick count or imPosition. */
   {  ticksIgnored = true;  }
 
 
@@ -144,7 +139,7 @@ public class ImagesPlayer
 
   public void restartAt(int imPosn)
   /* Start showing the images again, starting with image number
-     imPosn. This requires a resetting of the animation time as 
+     imPosn. This requires a resetting of the tick count as
      well. */
   {
     if (numImages != 0) {
@@ -154,8 +149,8 @@ public class ImagesPlayer
       }
 
       imPosition = imPosn;
-      // calculate a suitable animation time
-      animTotalTime = (long) imPosition * showPeriod;
+      // find a suitable tick
+      tick = clip.firstTickOf(imPosition);
       ticksIgnored = false;
     }
   }  // end of restartAt()
@@ -163,10 +158,10 @@ public class ImagesPlayer
 
   public void resume()
   // start at previous image position
-  { 
+  {
     if (numImages != 0)
       ticksIgnored = false;
-  } 
+  }
 
 
 } // end of ImagesPlayer class
@@ -0,0 +1,380 @@
+package image;
+
+// PixelCache.java
+// Anton Ridgway
+
+/* A PixelCache keeps the decoded pixels of the game's images on
+   disk, so that later launches can skip decoding the PNG and JPG
+   files, and copying them into compatible images (see
+   ImagesLoader.decodeImage()).
+
+   Every image is stored in its own file in the cache directory,
+   named after the image file, as a header followed by the raw
+   contents of the compatible image's raster, row by row. The header
+   holds the image file's name, length and CRC32, and the layout of
+   the raster. A cached file is used only if the image file still
+   has the same name, length and CRC32, and the graphics
+   configuration still makes compatible images with the same
+   layout; otherwise the image is decoded again and its cached file
+   replaced. So changing an image, or the display, invalidates the
+   cache automatically.
+
+   A cached file's header is read with a FileChannel first, and only
+   if it is up-to-date is the rest of the file memory-mapped, and
+   each row of the mapped buffer copied into the raster with
+   setDataElements(). (A stale file is never mapped, so it can be
+   replaced straight away, even on Windows.) Copying (rather than using the raster's data
+   array directly) keeps the image a 'managed' image, which Java2D
+   may still accelerate.
+
+   The cache directory is "pixcache/" next to the game's jar (or
+   classes directory), or in the temporary directory if that cannot
+   be written to. If neither can be used, the cache is disabled, and
+   every image is decoded.
+
+   load() and store() may be called from any thread, although not
+   for the same image file at the same time.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+
+public class PixelCache
+{
+  private final static String CACHE_DIR = "pixcache";
+  private final static String EXT = ".pix";
+
+  private final static int MAGIC = 0x42425058;   // "BBPX"
+  private final static int VERSION = 1;
+
+  private File dir;
+  private boolean isEnabled;
+
+  private AtomicInteger hits = new AtomicInteger();
+  private AtomicInteger misses = new AtomicInteger();
+  private AtomicLong bytesRead = new AtomicLong();
+
+
+  public PixelCache(boolean enabled)
+  // use the cache directory next to the game
+  {  this(defaultDir(), enabled);  }
+
+
+  public PixelCache(File dir, boolean enabled)
+  {
+    this.dir = dir;
+    isEnabled = enabled && makeDir(dir);
+    if (enabled && !isEnabled) {
+      this.dir = new File(System.getProperty("java.io.tmpdir"), "beatbros-" + CACHE_DIR);
+      isEnabled = makeDir(this.dir);
+    }
+    if (isEnabled)
+      System.out.println("Pixel cache in " + this.dir);
+    else
+      System.out.println("Pixel cache disabled");
+  }  // end of PixelCache()
+
+
+  public static File defaultDir()
+  // the cache directory next to the jar or classes directory holding the game
+  {
+    try {
+      URL loc = PixelCache.class.getProtectionDomain().getCodeSource().getLocation();
+      File f = new File(loc.toURI());
+      return new File(f.isFile() ? f.getParentFile() : f, CACHE_DIR);
+    }
+    catch (Exception e) {     // no code source, or not a file
+      return new File(System.getProperty("java.io.tmpdir"), "beatbros-" + CACHE_DIR);
+    }
+  }  // end of defaultDir()
+
+
+  private static boolean makeDir(File d)
+  {
+    if (d == null)
+      return false;
+    d.mkdirs();
+    return d.isDirectory() && d.canWrite();
+  }  // end of makeDir()
+
+
+  public boolean isEnabled()
+  {  return isEnabled;  }
+
+
+  public static byte[] readAll(InputStream in) throws IOException
+  // read all of in, which is closed afterwards
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int n;
+    try {
+      while ((n = in.read(buf)) != -1)
+        bytes.write(buf, 0, n);
+    }
+    finally {
+      in.close();
+    }
+    return bytes.toByteArray();
+  }  // end of readAll()
+
+
+
+  // ----------------- reading a cached image ---------------------
+
+
+  public BufferedImage load(String fnm, byte[] src, GraphicsConfiguration gc)
+  /* Return the cached image for the image file fnm, whose contents
+     are src, as a compatible image for gc; or null if there is no
+     up-to-date cached image for it.
+
+     The header is read first, and the file is only mapped if it is
+     up-to-date; a stale file is left unmapped, so store() can
+     replace it (which Windows does not allow while it is mapped). */
+  {
+    if (!isEnabled)
+      return null;
+    File f = cacheFile(fnm);
+    if (!f.isFile()) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    BufferedImage im = null;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try {
+        FileChannel ch = raf.getChannel();
+        int headerLen = headerLength( fnm.getBytes(StandardCharsets.UTF_8) );
+        ByteBuffer header = ByteBuffer.allocate(headerLen);
+        header.order(ByteOrder.nativeOrder());
+        while (header.hasRemaining() && (ch.read(header) != -1))
+          ;
+        header.flip();
+        if (header.remaining() == headerLen)
+          im = readHeader(header, fnm, src, gc);
+        if (im != null) {
+          MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                                        headerLen, ch.size() - headerLen);
+          buf.order(ByteOrder.nativeOrder());
+          if (readPixels(buf, im))
+            bytesRead.addAndGet(ch.size());
+          else
+            im = null;
+        }
+      }
+      finally {
+        raf.close();
+      }
+    }
+    catch (IOException e) {
+      System.out.println("Pixel cache read error for " + f + ": " + e);
+      im = null;
+    }
+    catch (RuntimeException e) {   // a corrupted file
+      im = null;
+    }
+
+    if (im == null)
+      misses.incrementAndGet();
+    else
+      hits.incrementAndGet();
+    return im;
+  }  // end of load()
+
+
+  private BufferedImage readHeader(ByteBuffer buf, String fnm, byte[] src,
+                                   GraphicsConfiguration gc)
+  /* Check the header in buf, returning a new compatible image to
+     copy the pixels into, or null if the cached file is stale. */
+  {
+    if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION))
+      return null;     // another format, or written with another byte order
+    int nameLen = buf.getInt();
+    if ((nameLen < 0) || (nameLen > buf.remaining()))
+      return null;
+    byte[] name = new byte[nameLen];
+    buf.get(name);
+    if (!fnm.equals( new String(name, StandardCharsets.UTF_8) ) ||
+        (buf.getLong() != src.length) || (buf.getLong() != checksum(src)))
+      return null;     // the image file has changed
+
+    int width = buf.getInt();
+    int height = buf.getInt();
+    int transparency = buf.getInt();
+    int type = buf.getInt();
+    int transferType = buf.getInt();
+    int numElems = buf.getInt();
+
+    BufferedImage im = gc.createCompatibleImage(width, height, transparency);
+    WritableRaster raster = im.getRaster();
+    if ((im.getType() != type) || (raster.getTransferType() != transferType) ||
+        (raster.getNumDataElements() != numElems))
+      return null;     // the display makes different images now
+    return im;
+  }  // end of readHeader()
+
+
+  private boolean readPixels(ByteBuffer buf, BufferedImage im)
+  // copy the pixels in buf into im, or return false if there are too few
+  {
+    WritableRaster raster = im.getRaster();
+    int width = im.getWidth();
+    int height = im.getHeight();
+    int transferType = raster.getTransferType();
+    int rowLen = width * raster.getNumDataElements();
+    if (buf.remaining() < rowLen * height * elemSize(transferType))
+      return false;    // a truncated file
+    switch (transferType) {
+      case DataBuffer.TYPE_INT:
+        IntBuffer ints = buf.asIntBuffer();
+        int[] intRow = new int[rowLen];
+        for (int y = 0; y < height; y++) {
+          ints.get(intRow);
+          raster.setDataElements(0, y, width, 1, intRow);
+        }
+        break;
+      case DataBuffer.TYPE_USHORT:
+        ShortBuffer shorts = buf.asShortBuffer();
+        short[] shortRow = new short[rowLen];
+        for (int y = 0; y < height; y++) {
+          shorts.get(shortRow);
+          raster.setDataElements(0, y, width, 1, shortRow);
+        }
+        break;
+      case DataBuffer.TYPE_BYTE:
+        byte[] byteRow = new byte[rowLen];
+        for (int y = 0; y < height; y++) {
+          buf.get(byteRow);
+          raster.setDataElements(0, y, width, 1, byteRow);
+        }
+        break;
+      default:
+        return false;
+    }
+    return true;
+  }  // end of readPixels()
+
+
+
+  // ----------------- writing a cached image ---------------------
+
+
+  public void store(String fnm, byte[] src, BufferedImage im)
+  /* Save the pixels of im, decoded from the image file fnm whose
+     contents are src. The file is written under a temporary name and
+     then renamed, so a half-written file is never read. */
+  {
+    if (!isEnabled || (im == null))
+      return;
+    WritableRaster raster = im.getRaster();
+    int transferType = raster.getTransferType();
+    if (elemSize(transferType) == 0)
+      return;      // a layout the cache does not handle
+
+    int width = im.getWidth();
+    int height = im.getHeight();
+    int numElems = raster.getNumDataElements();
+    int rowLen = width * numElems;
+    byte[] name = fnm.getBytes(StandardCharsets.UTF_8);
+
+    int headerLen = headerLength(name);
+    ByteBuffer buf = ByteBuffer.allocate(headerLen + rowLen*height*elemSize(transferType));
+    buf.order(ByteOrder.nativeOrder());
+    buf.putInt(MAGIC).putInt(VERSION);
+    buf.putInt(name.length).put(name);
+    buf.putLong(src.length).putLong(checksum(src));
+    buf.putInt(width).putInt(height);
+    buf.putInt(im.getColorModel().getTransparency());
+    buf.putInt(im.getType()).putInt(transferType).putInt(numElems);
+    align(buf);
+
+    Object row = null;
+    for (int y = 0; y < height; y++) {
+      row = raster.getDataElements(0, y, width, 1, row);
+      if (transferType == DataBuffer.TYPE_INT)
+        buf.asIntBuffer().put((int[]) row);
+      else if (transferType == DataBuffer.TYPE_USHORT)
+        buf.asShortBuffer().put((short[]) row);
+      else
+        buf.duplicate().put((byte[]) row);
+      buf.position( buf.position() + rowLen*elemSize(transferType) );
+    }
+    buf.flip();
+
+    File f = cacheFile(fnm);
+    File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        FileChannel ch = out.getChannel();
+        while (buf.hasRemaining())
+          ch.write(buf);
+      }
+      finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      System.out.println("Pixel cache write error for " + f + ": " + e);
+      tmp.delete();
+    }
+  }  // end of store()
+
+
+
+  // ------------------------ utilities ---------------------------
+
+
+  private File cacheFile(String fnm)
+  // the cached file for fnm, with any unusual characters replaced
+  {  return new File(dir, fnm.replaceAll("[^A-Za-z0-9._-]", "_") + EXT);  }
+
+
+  private static int headerLength(byte[] name)
+  // the header's length in bytes, padded so the pixels are aligned
+  {  return (9*4 + 2*8 + name.length + 7) & ~7;  }
+
+
+  private static long checksum(byte[] src)
+  {
+    CRC32 crc = new CRC32();
+    crc.update(src, 0, src.length);
+    return crc.getValue();
+  }
+
+
+  private static void align(ByteBuffer buf)
+  // move buf on to the next multiple of 8 bytes, where the pixels start
+  {  buf.position( (buf.position() + 7) & ~7 );  }
+
+
+  private static int elemSize(int transferType)
+  // the size in bytes of a raster data element; 0 if it is not handled
+  {
+    switch (transferType) {
+      case DataBuffer.TYPE_INT:    return 4;
+      case DataBuffer.TYPE_USHORT: return 2;
+      case DataBuffer.TYPE_BYTE:   return 1;
+      default:                     return 0;
+    }
+  }  // end of elemSize()
+
+
+  public String getStats()
+  {
+    return hits.get() + " hits, " + misses.get() + " misses, " +
+           (bytesRead.get()/1024) + " KB read";
+  }
+
+}  // end of PixelCache class
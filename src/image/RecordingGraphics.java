@@ -0,0 +1,577 @@
+package image;
+
+// RecordingGraphics.java
+// Anton Ridgway
+
+/* A RecordingGraphics is a Graphics2D which records every drawing
+   command and state change made through it into a FrameRecording,
+   and also passes each one on to another Graphics2D.
+
+   Passing the commands on means a real frame can be recorded while
+   it is shown: wrap the frame's Graphics, render as usual, and the
+   screen gets the frame while the recording gets its commands. All
+   queries (the colour, font metrics, clip, transform and so on)
+   are answered by the wrapped Graphics2D, so code which draws to a
+   RecordingGraphics behaves exactly as it would without it.
+
+   If no Graphics2D is given, the commands are passed to one for a
+   1x1 scratch image, only to keep track of the state.
+
+   A Graphics made by create() records into the same recording; its
+   commands are replayed on a Graphics made by create() in turn.
+*/
+
+import java.awt.*;
+import java.awt.font.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import java.text.*;
+import java.util.*;
+
+
+public class RecordingGraphics extends Graphics2D
+{
+  private Graphics2D target;      // where the commands are passed on to
+  private FrameRecording rec;
+  private AffineTransform baseInverse;
+    // the inverse of the transform the recording started with
+  private boolean isChild;        // made by create()
+
+
+  public RecordingGraphics(Graphics2D g, int width, int height)
+  /* Record into a new FrameRecording of the given size, passing
+     the commands on to g, which may be null. */
+  {  this(g, new FrameRecording(width, height));  }
+
+
+  public RecordingGraphics(Graphics2D g, FrameRecording r)
+  // record into r, passing the commands on to g, which may be null
+  {
+    if (g == null) {
+      BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+      g = scratch.createGraphics();
+    }
+    target = g;
+    rec = r;
+    try {
+      baseInverse = g.getTransform().createInverse();
+    }
+    catch (NoninvertibleTransformException e)
+    {  baseInverse = new AffineTransform();  }
+    isChild = false;
+    recordState();
+  }  // end of RecordingGraphics()
+
+
+  private RecordingGraphics(RecordingGraphics parent)
+  // a Graphics for create(), recording into the parent's recording
+  {
+    target = (Graphics2D) parent.target.create();
+    rec = parent.rec;
+    baseInverse = parent.baseInverse;
+    isChild = true;
+    rec.add(FrameRecording.PUSH);
+  }
+
+
+  private void recordState()
+  // record the target's current state, as the starting state
+  {
+    recordColor(FrameRecording.SET_COLOR, target.getColor());
+    recordFont(target.getFont());
+    recordStroke(target.getStroke());
+    recordComposite(target.getComposite());
+    recordColor(FrameRecording.SET_BACKGROUND, target.getBackground());
+    for (int i = 0; i < FrameRecording.HINT_KEYS.length; i++)
+      recordHint(FrameRecording.HINT_KEYS[i], target.getRenderingHint(FrameRecording.HINT_KEYS[i]));
+    recordTransform();
+    Shape clip = target.getClip();
+    rec.add(FrameRecording.SET_CLIP, null, null, (clip == null) ? null : copyShape(clip));
+  }  // end of recordState()
+
+
+  public FrameRecording getRecording()
+  {  return rec;  }
+
+
+  // ---------------------- recording state ---------------------------
+
+
+  private void recordColor(int code, Color c)
+  {  if (c != null)
+       rec.add(code, c.getRGB());
+  }
+
+  private void recordFont(Font f)
+  {  if (f != null)
+       rec.add(FrameRecording.SET_FONT, new int[] { f.getStyle() },
+               new double[] { f.getSize2D() }, f.getName());
+  }
+
+
+  private void recordStroke(Stroke s)
+  {
+    if (!(s instanceof BasicStroke)) {
+      rec.unsupported("stroke " + s.getClass().getName());
+      return;
+    }
+    BasicStroke bs = (BasicStroke) s;
+    float[] dash = bs.getDashArray();
+    double[] nums = new double[3 + ((dash == null) ? 0 : dash.length)];
+    nums[0] = bs.getLineWidth();
+    nums[1] = bs.getMiterLimit();
+    nums[2] = bs.getDashPhase();
+    for (int i = 3; i < nums.length; i++)
+      nums[i] = dash[i-3];
+    rec.add(FrameRecording.SET_STROKE, new int[] { bs.getEndCap(), bs.getLineJoin() }, nums, null);
+  }  // end of recordStroke()
+
+
+  private void recordComposite(Composite c)
+  {
+    if (c instanceof AlphaComposite) {
+      AlphaComposite ac = (AlphaComposite) c;
+      rec.add(FrameRecording.SET_COMPOSITE, new int[] { ac.getRule() },
+              new double[] { ac.getAlpha() }, null);
+    }
+    else
+      rec.unsupported("composite " + c.getClass().getName());
+  }  // end of recordComposite()
+
+
+  private void recordHint(RenderingHints.Key key, Object value)
+  {
+    int k = indexOf(FrameRecording.HINT_KEYS, key);
+    int v = indexOf(FrameRecording.HINT_VALUES, value);
+    if ((k != -1) && (v != -1))
+      rec.add(FrameRecording.SET_HINT, k, v);
+  }
+
+  private static Shape copyShape(Shape s)
+  /* A copy of s, so later changes to s do not affect the recording.
+     Rectangles stay rectangles, since they can be filled differently
+     from a general path with the same outline. */
+  {
+    if (s instanceof Rectangle2D) {
+      Rectangle2D r = (Rectangle2D) s;
+      return new Rectangle2D.Double(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+    return new Path2D.Double(s);
+  }
+
+
+  private static int indexOf(Object[] arr, Object o)
+  {
+    for (int i = 0; i < arr.length; i++)
+      if (arr[i] == o)
+        return i;
+    return -1;
+  }
+
+
+  private void recordTransform()
+  // record the target's transform, relative to the starting one
+  {
+    AffineTransform at = new AffineTransform(baseInverse);
+    at.concatenate(target.getTransform());
+    double[] m = new double[6];
+    at.getMatrix(m);
+    rec.add(FrameRecording.SET_TRANSFORM, null, m, null);
+  }  // end of recordTransform()
+
+
+  private void recordImage(Image im, int dx1, int dy1, int dx2, int dy2,
+                           int sx1, int sy1, int sx2, int sy2, Color bg)
+  {
+    int idx = rec.imageIndex(im);
+    if (idx != -1)
+      rec.add(FrameRecording.IMAGE, idx, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2,
+              (bg == null) ? 0 : 1, (bg == null) ? 0 : bg.getRGB());
+  }
+
+  private void recordImage(Image im, int x, int y, int w, int h, Color bg)
+  {
+    int iw = im.getWidth(null);
+    int ih = im.getHeight(null);
+    if ((iw > 0) && (ih > 0))
+      recordImage(im, x, y, x+w, y+h, 0, 0, iw, ih, bg);
+  }
+
+
+  // ---------------------- Graphics state ---------------------------
+
+
+  public Graphics create()
+  {  return new RecordingGraphics(this);  }
+
+  public void dispose()
+  {  if (isChild)
+       rec.add(FrameRecording.POP);
+     target.dispose();
+  }
+
+
+  public Color getColor()
+  {  return target.getColor();  }
+
+  public void setColor(Color c)
+  {  target.setColor(c);
+     recordColor(FrameRecording.SET_COLOR, c);
+  }
+
+  public void setPaintMode()
+  {  target.setPaintMode();
+     rec.add(FrameRecording.SET_PAINT_MODE);
+  }
+
+  public void setXORMode(Color c)
+  {  target.setXORMode(c);
+     recordColor(FrameRecording.SET_XOR_MODE, c);
+  }
+
+  public Font getFont()
+  {  return target.getFont();  }
+
+  public void setFont(Font f)
+  {  target.setFont(f);
+     recordFont(f);
+  }
+
+  public FontMetrics getFontMetrics(Font f)
+  {  return target.getFontMetrics(f);  }
+
+
+  public Rectangle getClipBounds()
+  {  return target.getClipBounds();  }
+
+  public Shape getClip()
+  {  return target.getClip();  }
+
+  public void clipRect(int x, int y, int w, int h)
+  {  clip( new Rectangle(x, y, w, h) );  }
+
+  public void setClip(int x, int y, int w, int h)
+  {  setClip( new Rectangle(x, y, w, h) );  }
+
+  public void setClip(Shape clip)
+  {  target.setClip(clip);
+     rec.add(FrameRecording.SET_CLIP, null, null, (clip == null) ? null : copyShape(clip));
+  }
+
+  public void clip(Shape s)
+  {  target.clip(s);
+     if (s == null)
+       rec.add(FrameRecording.SET_CLIP, null, null, null);
+     else
+       rec.add(FrameRecording.CLIP, null, null, copyShape(s));
+  }
+
+
+  // ---------------------- Graphics2D state ---------------------------
+
+
+  public GraphicsConfiguration getDeviceConfiguration()
+  {  return target.getDeviceConfiguration();  }
+
+  public FontRenderContext getFontRenderContext()
+  {  return target.getFontRenderContext();  }
+
+  public boolean hit(Rectangle rect, Shape s, boolean onStroke)
+  {  return target.hit(rect, s, onStroke);  }
+
+
+  public Paint getPaint()
+  {  return target.getPaint();  }
+
+  public void setPaint(Paint p)
+  {  target.setPaint(p);
+     if (p instanceof Color)
+       recordColor(FrameRecording.SET_COLOR, (Color) p);
+     else if (p != null)
+       rec.unsupported("paint " + p.getClass().getName());
+  }
+
+  public Composite getComposite()
+  {  return target.getComposite();  }
+
+  public void setComposite(Composite c)
+  {  target.setComposite(c);
+     recordComposite(c);
+  }
+
+  public Stroke getStroke()
+  {  return target.getStroke();  }
+
+  public void setStroke(Stroke s)
+  {  target.setStroke(s);
+     recordStroke(s);
+  }
+
+  public Color getBackground()
+  {  return target.getBackground();  }
+
+  public void setBackground(Color c)
+  {  target.setBackground(c);
+     recordColor(FrameRecording.SET_BACKGROUND, c);
+  }
+
+
+  public Object getRenderingHint(RenderingHints.Key key)
+  {  return target.getRenderingHint(key);  }
+
+  public void setRenderingHint(RenderingHints.Key key, Object value)
+  {  target.setRenderingHint(key, value);
+     recordHint(key, value);
+  }
+
+  public RenderingHints getRenderingHints()
+  {  return target.getRenderingHints();  }
+
+  public void setRenderingHints(Map<?,?> hints)
+  {  target.setRenderingHints(hints);
+     for (int i = 0; i < FrameRecording.HINT_KEYS.length; i++)
+       recordHint(FrameRecording.HINT_KEYS[i], target.getRenderingHint(FrameRecording.HINT_KEYS[i]));
+  }
+
+  public void addRenderingHints(Map<?,?> hints)
+  {  target.addRenderingHints(hints);
+     for (Map.Entry<?,?> e : hints.entrySet())
+       if (e.getKey() instanceof RenderingHints.Key)
+         recordHint((RenderingHints.Key) e.getKey(), e.getValue());
+  }
+
+
+  public AffineTransform getTransform()
+  {  return target.getTransform();  }
+
+  public void setTransform(AffineTransform at)
+  {  target.setTransform(at);
+     recordTransform();
+  }
+
+  public void transform(AffineTransform at)
+  {  target.transform(at);
+     recordTransform();
+  }
+
+  public void translate(int x, int y)
+  {  target.translate(x, y);
+     recordTransform();
+  }
+
+  public void translate(double tx, double ty)
+  {  target.translate(tx, ty);
+     recordTransform();
+  }
+
+  public void rotate(double theta)
+  {  target.rotate(theta);
+     recordTransform();
+  }
+
+  public void rotate(double theta, double x, double y)
+  {  target.rotate(theta, x, y);
+     recordTransform();
+  }
+
+  public void scale(double sx, double sy)
+  {  target.scale(sx, sy);
+     recordTransform();
+  }
+
+  public void shear(double shx, double shy)
+  {  target.shear(shx, shy);
+     recordTransform();
+  }
+
+
+  // ---------------------- drawing ---------------------------
+
+
+  public void copyArea(int x, int y, int w, int h, int dx, int dy)
+  {  target.copyArea(x, y, w, h, dx, dy);
+     rec.add(FrameRecording.COPY_AREA, x, y, w, h, dx, dy);
+  }
+
+  public void drawLine(int x1, int y1, int x2, int y2)
+  {  target.drawLine(x1, y1, x2, y2);
+     rec.add(FrameRecording.DRAW_LINE, x1, y1, x2, y2);
+  }
+
+  public void fillRect(int x, int y, int w, int h)
+  {  target.fillRect(x, y, w, h);
+     rec.add(FrameRecording.FILL_RECT, x, y, w, h);
+  }
+
+  public void drawRect(int x, int y, int w, int h)
+  {  target.drawRect(x, y, w, h);
+     rec.add(FrameRecording.DRAW_RECT, x, y, w, h);
+  }
+
+  public void clearRect(int x, int y, int w, int h)
+  {  target.clearRect(x, y, w, h);
+     rec.add(FrameRecording.CLEAR_RECT, x, y, w, h);
+  }
+
+  public void drawRoundRect(int x, int y, int w, int h, int arcW, int arcH)
+  {  target.drawRoundRect(x, y, w, h, arcW, arcH);
+     rec.add(FrameRecording.DRAW_ROUND_RECT, x, y, w, h, arcW, arcH);
+  }
+
+  public void fillRoundRect(int x, int y, int w, int h, int arcW, int arcH)
+  {  target.fillRoundRect(x, y, w, h, arcW, arcH);
+     rec.add(FrameRecording.FILL_ROUND_RECT, x, y, w, h, arcW, arcH);
+  }
+
+  public void drawOval(int x, int y, int w, int h)
+  {  target.drawOval(x, y, w, h);
+     rec.add(FrameRecording.DRAW_OVAL, x, y, w, h);
+  }
+
+  public void fillOval(int x, int y, int w, int h)
+  {  target.fillOval(x, y, w, h);
+     rec.add(FrameRecording.FILL_OVAL, x, y, w, h);
+  }
+
+  public void drawArc(int x, int y, int w, int h, int start, int extent)
+  {  target.drawArc(x, y, w, h, start, extent);
+     rec.add(FrameRecording.DRAW_ARC, x, y, w, h, start, extent);
+  }
+
+  public void fillArc(int x, int y, int w, int h, int start, int extent)
+  {  target.fillArc(x, y, w, h, start, extent);
+     rec.add(FrameRecording.FILL_ARC, x, y, w, h, start, extent);
+  }
+
+
+  public void drawPolyline(int[] xs, int[] ys, int num)
+  {  target.drawPolyline(xs, ys, num);
+     recordPoly(FrameRecording.DRAW_POLYLINE, xs, ys, num);
+  }
+
+  public void drawPolygon(int[] xs, int[] ys, int num)
+  {  target.drawPolygon(xs, ys, num);
+     recordPoly(FrameRecording.DRAW_POLYGON, xs, ys, num);
+  }
+
+  public void fillPolygon(int[] xs, int[] ys, int num)
+  {  target.fillPolygon(xs, ys, num);
+     recordPoly(FrameRecording.FILL_POLYGON, xs, ys, num);
+  }
+
+  private void recordPoly(int code, int[] xs, int[] ys, int num)
+  {
+    int[] ints = new int[2*num];
+    System.arraycopy(xs, 0, ints, 0, num);
+    System.arraycopy(ys, 0, ints, num, num);
+    rec.add(code, ints);
+  }
+
+
+  public void draw(Shape s)
+  {  target.draw(s);
+     rec.add(FrameRecording.DRAW_SHAPE, null, null, copyShape(s));
+  }
+
+  public void fill(Shape s)
+  {  target.fill(s);
+     rec.add(FrameRecording.FILL_SHAPE, null, null, copyShape(s));
+  }
+
+
+  public void drawString(String str, int x, int y)
+  {  drawString(str, (float) x, (float) y);  }
+
+  public void drawString(String str, float x, float y)
+  {  target.drawString(str, x, y);
+     rec.add(FrameRecording.DRAW_STRING, null, new double[] { x, y }, str);
+  }
+
+  public void drawString(AttributedCharacterIterator it, int x, int y)
+  {  target.drawString(it, x, y);
+     rec.unsupported("attributed string");
+  }
+
+  public void drawString(AttributedCharacterIterator it, float x, float y)
+  {  target.drawString(it, x, y);
+     rec.unsupported("attributed string");
+  }
+
+  public void drawGlyphVector(GlyphVector gv, float x, float y)
+  // recorded as its outline, so the replay is not antialiased as text is
+  {  target.drawGlyphVector(gv, x, y);
+     rec.add(FrameRecording.FILL_SHAPE, null, null, copyShape(gv.getOutline(x, y)));
+  }
+
+
+  // ---------------------- images ---------------------------
+
+
+  public boolean drawImage(Image im, int x, int y, ImageObserver obs)
+  {  recordImage(im, x, y, im.getWidth(null), im.getHeight(null), null);
+     return target.drawImage(im, x, y, obs);
+  }
+
+  public boolean drawImage(Image im, int x, int y, Color bg, ImageObserver obs)
+  {  recordImage(im, x, y, im.getWidth(null), im.getHeight(null), bg);
+     return target.drawImage(im, x, y, bg, obs);
+  }
+
+  public boolean drawImage(Image im, int x, int y, int w, int h, ImageObserver obs)
+  {  recordImage(im, x, y, w, h, null);
+     return target.drawImage(im, x, y, w, h, obs);
+  }
+
+  public boolean drawImage(Image im, int x, int y, int w, int h, Color bg, ImageObserver obs)
+  {  recordImage(im, x, y, w, h, bg);
+     return target.drawImage(im, x, y, w, h, bg, obs);
+  }
+
+  public boolean drawImage(Image im, int dx1, int dy1, int dx2, int dy2,
+                           int sx1, int sy1, int sx2, int sy2, ImageObserver obs)
+  {  recordImage(im, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+     return target.drawImage(im, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, obs);
+  }
+
+  public boolean drawImage(Image im, int dx1, int dy1, int dx2, int dy2,
+                           int sx1, int sy1, int sx2, int sy2, Color bg, ImageObserver obs)
+  {  recordImage(im, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bg);
+     return target.drawImage(im, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bg, obs);
+  }
+
+  public boolean drawImage(Image im, AffineTransform xform, ImageObserver obs)
+  {
+    int idx = rec.imageIndex(im);
+    if (idx != -1) {
+      double[] m = new double[6];
+      ((xform == null) ? new AffineTransform() : xform).getMatrix(m);
+      rec.add(FrameRecording.IMAGE_XFORM, new int[] { idx }, m, null);
+    }
+    return target.drawImage(im, xform, obs);
+  }  // end of drawImage()
+
+  public void drawImage(BufferedImage im, BufferedImageOp op, int x, int y)
+  // recorded as the filtered image
+  {
+    BufferedImage filtered = (op == null) ? im : op.filter(im, null);
+    recordImage(filtered, x, y, filtered.getWidth(), filtered.getHeight(), null);
+    target.drawImage(im, op, x, y);
+  }
+
+  public void drawRenderedImage(RenderedImage im, AffineTransform xform)
+  {
+    if (im instanceof BufferedImage)
+      drawImage((BufferedImage) im, xform, null);
+    else {
+      target.drawRenderedImage(im, xform);
+      rec.unsupported("rendered image");
+    }
+  }
+
+  public void drawRenderableImage(RenderableImage im, AffineTransform xform)
+  {  target.drawRenderableImage(im, xform);
+     rec.unsupported("renderable image");
+  }
+
+}  // end of RecordingGraphics class
@@ -0,0 +1,230 @@
+package image;
+
+// RenderBench.java
+// Anton Ridgway
+
+/* RenderBench replays a recorded frame (a FrameRecording saved by
+   the game; press F11 while playing) into an offscreen image, to
+   time the rendering away from the game loop, and to check it
+   against a stored golden image of the same frame.
+
+   Usage:
+     java image.RenderBench <recording> [-n iterations] [-golden file.png]
+                            [-update] [-tolerance t] [-bands n]
+
+   The recording is replayed -n times (default 200), after a quarter
+   as many warm-up replays, and the mean, median and fastest replay
+   times are reported.
+
+   With -bands, each replay goes through a BandRenderer with n bands,
+   as the game's frames do when band rendering is on: the recording
+   is recorded again, replayed in parallel bands, and the bands'
+   image is blitted into the frame. Comparing the times with and
+   without -bands, on the same machine, shows whether band rendering
+   pays for itself there. The bands may differ from the golden image
+   by a few levels at the edges of antialiased curves, so a small
+   tolerance may be needed.
+
+   With -golden, the last replay is compared with the golden image:
+   pixels whose channels all differ by no more than the tolerance
+   (default 0) match. If any do not, their count is reported, a
+   difference image is written next to the golden one, and the
+   exit status is 1. A missing golden image is also an error (exit
+   status 1); with -update, the replay is written as the golden
+   image instead.
+
+   It runs headless (java -Djava.awt.headless=true ...), in which
+   case the replay is drawn into a TYPE_INT_RGB image, as on the
+   software pipeline. With a display, the frame's images are first
+   converted to the screen's compatible formats, as the game's are.
+
+   bench/recordings/, beside src/, holds a menu frame and a gameplay
+   frame, at 1280x720, with their golden images, rendered headless
+   on the software pipeline. Run from the src directory:
+     java -Djava.awt.headless=true image.RenderBench ../bench/recordings/menu.rec
+                            -golden ../bench/recordings/menu.png
+   and likewise for gameplay.rec. The frames' text is drawn in the
+   game's font, so a machine with different fonts installed needs
+   its own golden images, written with -update.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+
+
+public class RenderBench
+{
+  private static final int DEFAULT_ITERATIONS = 200;
+
+
+  public static void main(String[] args) throws IOException
+  {
+    String recName = null;
+    String goldenName = null;
+    int iterations = DEFAULT_ITERATIONS;
+    boolean update = false;
+    int tolerance = 0;
+    int numBands = 0;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-n") && (i+1 < args.length))
+        iterations = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-golden") && (i+1 < args.length))
+        goldenName = args[++i];
+      else if (args[i].equals("-update"))
+        update = true;
+      else if (args[i].equals("-tolerance") && (i+1 < args.length))
+        tolerance = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-bands") && (i+1 < args.length))
+        numBands = Integer.parseInt(args[++i]);
+      else
+        recName = args[i];
+    }
+    if ((recName == null) || (iterations < 1)) {
+      System.out.println("Usage: java image.RenderBench <recording> [-n iterations] " +
+                         "[-golden file.png] [-update] [-tolerance t] [-bands n]");
+      System.exit(2);
+    }
+
+    FrameRecording rec = FrameRecording.load( new File(recName) );
+    System.out.println("Loaded " + recName + ": " + rec);
+
+    BufferedImage frame = makeFrame(rec);
+    BandRenderer bands = null;
+    if (numBands > 1)
+      bands = new BandRenderer(getConfiguration(), rec.getWidth(), rec.getHeight(), numBands);
+    time(rec, frame, bands, iterations);
+    if (bands != null)
+      System.out.println("Bands: " + bands.getStats());
+
+    if (goldenName != null) {
+      File goldenFile = new File(goldenName);
+      if (update) {
+        ImageIO.write(frame, "png", goldenFile);
+        System.out.println("Wrote golden image " + goldenFile);
+      }
+      else if (!goldenFile.exists()) {
+        System.out.println("No golden image " + goldenFile + "; use -update to write it");
+        System.exit(1);
+      }
+      else if (!compare(frame, ImageIO.read(goldenFile), tolerance, goldenFile))
+        System.exit(1);
+    }
+  }  // end of main()
+
+
+  private static BufferedImage makeFrame(FrameRecording rec)
+  // an image to replay into, compatible with the screen if there is one
+  {
+    GraphicsConfiguration gc = getConfiguration();
+    if (gc == null)
+      return new BufferedImage(rec.getWidth(), rec.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+    rec.makeCompatible(gc);
+    return gc.createCompatibleImage(rec.getWidth(), rec.getHeight());
+  }  // end of makeFrame()
+
+
+  private static GraphicsConfiguration getConfiguration()
+  // the screen's configuration, or null if headless
+  {
+    if (GraphicsEnvironment.isHeadless())
+      return null;
+    return GraphicsEnvironment.getLocalGraphicsEnvironment().
+                                   getDefaultScreenDevice().getDefaultConfiguration();
+  }
+
+
+  private static void replay(FrameRecording rec, BufferedImage frame, BandRenderer bands)
+  // replay directly into frame, or through the bands if there are any
+  {
+    Graphics2D g2d = frame.createGraphics();
+    if (bands == null)
+      rec.replay(g2d);
+    else {
+      Graphics2D bg = bands.begin();
+      rec.replay(bg);
+      bg.dispose();
+      g2d.drawImage(bands.end(), 0, 0, null);
+    }
+    g2d.dispose();
+  }  // end of replay()
+
+
+  private static void time(FrameRecording rec, BufferedImage frame, 
+                                 BandRenderer bands, int iterations)
+  {
+    for (int i = 0; i < Math.max(1, iterations/4); i++)   // warm up
+      replay(rec, frame, bands);
+
+    long[] times = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      replay(rec, frame, bands);
+      Toolkit.getDefaultToolkit().sync();
+      times[i] = System.nanoTime() - start;
+    }
+
+    long total = 0;
+    for (long t : times)
+      total += t;
+    Arrays.sort(times);
+    System.out.printf("Replayed %d times: mean %.3f ms, median %.3f ms, fastest %.3f ms%n",
+                      iterations, total/1e6/iterations, times[iterations/2]/1e6, times[0]/1e6);
+  }  // end of time()
+
+
+  private static boolean compare(BufferedImage frame, BufferedImage golden,
+                                      int tolerance, File goldenFile) throws IOException
+  /* Compare the frame with the golden image, reporting any
+     differences; return true if they match. */
+  {
+    int w = frame.getWidth();
+    int h = frame.getHeight();
+    if ((golden.getWidth() != w) || (golden.getHeight() != h)) {
+      System.out.println("Golden image is " + golden.getWidth() + "x" + golden.getHeight() +
+                         ", but the frame is " + w + "x" + h);
+      return false;
+    }
+
+    BufferedImage diff = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    int[] fRow = new int[w];
+    int[] gRow = new int[w];
+    int numDiffs = 0;
+    int maxDelta = 0;
+    for (int y = 0; y < h; y++) {
+      frame.getRGB(0, y, w, 1, fRow, 0, w);
+      golden.getRGB(0, y, w, 1, gRow, 0, w);
+      for (int x = 0; x < w; x++) {
+        int delta = 0;
+        for (int shift = 0; shift <= 16; shift += 8)
+          delta = Math.max(delta, Math.abs(((fRow[x] >> shift) & 0xff) - ((gRow[x] >> shift) & 0xff)));
+        maxDelta = Math.max(maxDelta, delta);
+        if (delta > tolerance) {
+          numDiffs++;
+          diff.setRGB(x, y, 0xff0000);
+        }
+        else    // a dimmed copy of the frame, for context
+          diff.setRGB(x, y, (fRow[x] >> 2) & 0x3f3f3f);
+      }
+    }
+
+    if (numDiffs == 0) {
+      System.out.println("Matches golden image " + goldenFile + " (largest difference " +
+                         maxDelta + ")");
+      return true;
+    }
+    String name = goldenFile.getName();
+    int dot = name.lastIndexOf('.');
+    File diffFile = new File(goldenFile.getParentFile(),
+                         ((dot == -1) ? name : name.substring(0, dot)) + "-diff.png");
+    ImageIO.write(diff, "png", diffFile);
+    System.out.println(numDiffs + " pixels differ from golden image " + goldenFile +
+                       " (largest difference " + maxDelta + "); see " + diffFile);
+    return false;
+  }  // end of compare()
+
+}  // end of RenderBench class
@@ -0,0 +1,219 @@
+package image;
+
+// RenderQueue.java
+// Anton Ridgway
+
+/* A RenderQueue collects draw commands from sprites during a
+   render, and issues them all in one pass when flush() is called.
+
+   Each command carries a layer, its source surface (an atlas page,
+   a plain image, or none for a filled oval or rectangle), and the
+   rectangle to draw into. flush() sorts the commands by layer and
+   then by source surface, so draws from the same page follow one
+   another, and sets a fill colour only when it changes.
+
+   The sort is stable: commands with the same layer and surface keep
+   the order they were submitted in. Since every sprite of a given
+   layer is submitted together, a queue reproduces the z-order of
+   drawing each group of sprites in turn, as long as the caller gives
+   later groups higher layers.
+
+   The commands are held in parallel arrays which grow as needed and
+   are reused from frame to frame, so a steady render allocates
+   nothing. The submissions usually arrive already sorted by layer,
+   so flush() uses an insertion sort, which is stable and close to
+   linear on such input.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+
+public class RenderQueue
+{
+  private static final int INIT_SIZE = 64;
+
+  // command kinds
+  private static final int REGION = 0;
+  private static final int IMAGE = 1;
+  private static final int OVAL = 2;
+  private static final int RECT = 3;
+
+  private int numCmds = 0;
+  private int[] kinds, layers, surfaces;
+  private int[] xs, ys, ws, hs;
+  private AtlasRegion[] regions;
+  private BufferedImage[] images;
+  private Color[] colors;
+  private int[] order;     // command indices, sorted by flush()
+
+  private IdentityHashMap<BufferedImage, Integer> imageKeys;
+     /* A surface number for each plain image seen so far. Atlas
+        pages use their page numbers, and plain images are numbered
+        after them, from FIRST_IMAGE_KEY. */
+  private static final int FIRST_IMAGE_KEY = 1 << 16;
+
+
+  public RenderQueue()
+  {
+    kinds = new int[INIT_SIZE];
+    layers = new int[INIT_SIZE];
+    surfaces = new int[INIT_SIZE];
+    xs = new int[INIT_SIZE];  ys = new int[INIT_SIZE];
+    ws = new int[INIT_SIZE];  hs = new int[INIT_SIZE];
+    regions = new AtlasRegion[INIT_SIZE];
+    images = new BufferedImage[INIT_SIZE];
+    colors = new Color[INIT_SIZE];
+    order = new int[INIT_SIZE];
+    imageKeys = new IdentityHashMap<BufferedImage, Integer>();
+  }  // end of RenderQueue()
+
+
+  public void submit(int layer, AtlasRegion r, int x, int y)
+  // draw the atlas region r unscaled at (x,y)
+  {  submit(layer, r, x, y, r.getWidth(), r.getHeight());  }
+
+
+  public void submit(int layer, AtlasRegion r, int x, int y, int w, int h)
+  // draw the atlas region r scaled to w by h at (x,y)
+  {
+    int i = newCommand(REGION, layer, r.getPageNum(), x, y, w, h);
+    regions[i] = r;
+  }  // end of submit()
+
+
+  public void submit(int layer, BufferedImage im, int x, int y)
+  // draw the image unscaled at (x,y)
+  {  submit(layer, im, x, y, im.getWidth(), im.getHeight());  }
+
+
+  public void submit(int layer, BufferedImage im, int x, int y, int w, int h)
+  // draw the image scaled to w by h at (x,y)
+  {
+    Integer key = imageKeys.get(im);
+    if (key == null) {
+      key = FIRST_IMAGE_KEY + imageKeys.size();
+      imageKeys.put(im, key);
+    }
+    int i = newCommand(IMAGE, layer, key, x, y, w, h);
+    images[i] = im;
+  }  // end of submit()
+
+
+  public void submitOval(int layer, Color c, int x, int y, int w, int h)
+  // fill an oval in colour c, with bounds (x,y,w,h)
+  {
+    int i = newCommand(OVAL, layer, -1, x, y, w, h);
+    colors[i] = c;
+  }  // end of submitOval()
+
+
+  public void submitRect(int layer, Color c, int x, int y, int w, int h)
+  // fill the rectangle (x,y,w,h) in colour c
+  {
+    int i = newCommand(RECT, layer, -1, x, y, w, h);
+    colors[i] = c;
+  }  // end of submitRect()
+
+
+  private int newCommand(int kind, int layer, int surface,
+                                   int x, int y, int w, int h)
+  {
+    if (numCmds == kinds.length)
+      grow();
+    int i = numCmds++;
+    kinds[i] = kind;  layers[i] = layer;  surfaces[i] = surface;
+    xs[i] = x;  ys[i] = y;  ws[i] = w;  hs[i] = h;
+    return i;
+  }  // end of newCommand()
+
+
+  private void grow()
+  {
+    int n = kinds.length*2;
+    kinds = Arrays.copyOf(kinds, n);
+    layers = Arrays.copyOf(layers, n);
+    surfaces = Arrays.copyOf(surfaces, n);
+    xs = Arrays.copyOf(xs, n);  ys = Arrays.copyOf(ys, n);
+    ws = Arrays.copyOf(ws, n);  hs = Arrays.copyOf(hs, n);
+    regions = Arrays.copyOf(regions, n);
+    images = Arrays.copyOf(images, n);
+    colors = Arrays.copyOf(colors, n);
+    order = new int[n];
+  }  // end of grow()
+
+
+  public int size()
+  {  return numCmds;  }
+
+
+  public void flush(Graphics g)
+  /* Draw every queued command, by layer and then by surface, and
+     empty the queue. The Graphics colour is left as it was. */
+  {
+    if (numCmds == 0)
+      return;
+    sortCommands();
+
+    Color origColor = g.getColor();
+    Color currColor = origColor;
+    for (int k = 0; k < numCmds; k++) {
+      int i = order[k];
+      switch (kinds[i]) {
+        case REGION:
+          regions[i].draw(g, xs[i], ys[i], ws[i], hs[i]);
+          regions[i] = null;
+          break;
+        case IMAGE:
+          g.drawImage(images[i], xs[i], ys[i], ws[i], hs[i], null);
+          images[i] = null;
+          break;
+        case OVAL:
+          if (colors[i] != currColor) {
+            currColor = colors[i];
+            g.setColor(currColor);
+          }
+          g.fillOval(xs[i], ys[i], ws[i], hs[i]);
+          colors[i] = null;
+          break;
+        case RECT:
+          if (colors[i] != currColor) {
+            currColor = colors[i];
+            g.setColor(currColor);
+          }
+          g.fillRect(xs[i], ys[i], ws[i], hs[i]);
+          colors[i] = null;
+          break;
+      }
+    }
+    if (currColor != origColor)
+      g.setColor(origColor);
+    numCmds = 0;
+  }  // end of flush()
+
+
+  private void sortCommands()
+  // a stable insertion sort of the command indices, by layer then surface
+  {
+    for (int k = 0; k < numCmds; k++) {
+      int i = order[k] = k;
+      int j = k-1;
+      while ((j >= 0) && comesAfter(order[j], i)) {
+        order[j+1] = order[j];
+        j--;
+      }
+      order[j+1] = i;
+    }
+  }  // end of sortCommands()
+
+
+  private boolean comesAfter(int a, int b)
+  // should command a be drawn after command b?
+  {
+    if (layers[a] != layers[b])
+      return layers[a] > layers[b];
+    return surfaces[a] > surfaces[b];
+  }  // end of comesAfter()
+
+}  // end of RenderQueue class
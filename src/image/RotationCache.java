@@ -0,0 +1,96 @@
+package image;
+
+// RotationCache.java
+// Anton Ridgway
+
+/* RotationCache holds pre-rendered rotated copies of images, so
+   sprites that face one of a fixed number of compass directions
+   (such as the Wyrm's head and tail) need not rotate their image
+   every frame.
+
+   An image is registered under its ImagesLoader name along with a
+   number of directions, numDirs. Direction d is the image rotated
+   clockwise by d*(360/numDirs) degrees about its center, with
+   direction 0 being the original image. Registration renders all of
+   the directions at once; getRotations() will also register an
+   image lazily the first time it is asked for.
+
+   The rotated images are compatible with the graphics device, and
+   are the same size as the original (corners which rotate out of
+   the frame are clipped, as before).
+*/
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+
+public class RotationCache
+{
+  private ImagesLoader imsLoader;
+  private GraphicsConfiguration gc;
+
+  private HashMap<String, BufferedImage[]> rotationsMap;
+    /* The key is the image name, the value is the array of its
+       rotations, indexed by direction */
+
+
+  public RotationCache(ImagesLoader il, GraphicsConfiguration gc)
+  {
+    imsLoader = il;
+    this.gc = gc;
+    rotationsMap = new HashMap<String, BufferedImage[]>();
+  }  // end of RotationCache()
+
+
+  public BufferedImage[] register(String name, int numDirs)
+  /* Render and store the numDirs rotations of the image <name>.
+     Returns null if there is no such image. */
+  {
+    BufferedImage src = imsLoader.getImage(name);
+    if (src == null)
+      return null;
+
+    BufferedImage[] rots = new BufferedImage[numDirs];
+    rots[0] = src;
+    for (int d = 1; d < numDirs; d++)
+      rots[d] = rotate(src, 360.0 * d / numDirs);
+
+    rotationsMap.put(name, rots);
+    return rots;
+  }  // end of register()
+
+
+  public BufferedImage[] getRotations(String name, int numDirs)
+  /* Return the rotations of <name>, rendering them if this is the
+     first request. The array is shared, and must not be modified. */
+  {
+    BufferedImage[] rots = rotationsMap.get(name);
+    if ((rots == null) || (rots.length != numDirs))
+      rots = register(name, numDirs);
+    return rots;
+  }  // end of getRotations()
+
+
+  private BufferedImage rotate(BufferedImage src, double angle)
+  // rotate src about its center by angle degrees, clockwise
+  {
+    int transparency = src.getColorModel().getTransparency();
+    if (transparency == Transparency.OPAQUE)
+      transparency = Transparency.BITMASK;   // the clipped corners must be see-through
+    BufferedImage dest = gc.createCompatibleImage(src.getWidth(),
+                                     src.getHeight(), transparency);
+    Graphics2D g2d = dest.createGraphics();
+
+    AffineTransform rot = new AffineTransform();
+    rot.rotate(Math.toRadians(angle), src.getWidth() / 2,
+                                      src.getHeight() / 2);
+    g2d.transform(rot);
+    g2d.drawImage(src, 0, 0, null);   // copy in the image
+    g2d.dispose();
+
+    return dest;
+  }  // end of rotate()
+
+}  // end of RotationCache class
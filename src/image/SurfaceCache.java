@@ -0,0 +1,187 @@
+package image;
+
+// SurfaceCache.java
+// Anton Ridgway
+
+/* A SurfaceCache mirrors static images into VolatileImages, which
+   on pipelines that accelerate them are held in video memory, so
+   drawing them is done by the graphics hardware.
+
+   A VolatileImage's contents can be lost at any time (for example
+   when the display mode changes, or another application takes the
+   screen). So every mirror is validated the first time it is used
+   in a frame (see beginFrame()), and its contents are copied back
+   from the BufferedImage if they were lost or it had to be
+   recreated. If the contents are lost again while drawing, the
+   BufferedImage is drawn instead for that frame.
+
+   When the cache is disabled, or the mirror for an image cannot
+   be made or would not be accelerated, the BufferedImage itself is
+   drawn, so callers never need to check.
+
+   The counters report how often a mirror was drawn (hits), had its
+   contents restored (restores), and how often the BufferedImage was
+   drawn instead (fallbacks).
+
+   The cache is meant to be used only from the rendering thread.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+
+public class SurfaceCache
+{
+  private GraphicsConfiguration gc;
+  private boolean isEnabled;
+
+  private WeakHashMap<BufferedImage, Mirror> mirrors;
+    /* The key is a source image, the value its mirror. The entries
+       go once the images are no longer used elsewhere. */
+
+  private int frame = 0;      // incremented by beginFrame()
+
+  private long hits = 0;
+  private long restores = 0;
+  private long fallbacks = 0;
+
+
+  private static class Mirror
+  {
+    VolatileImage vIm;     // null if it could not be accelerated
+    int validFrame = -1;   // the last frame it was validated in
+  }
+
+
+  public SurfaceCache(GraphicsConfiguration gc, boolean enabled)
+  {
+    this.gc = gc;
+    isEnabled = enabled && gc.getImageCapabilities().isAccelerated();
+    mirrors = new WeakHashMap<BufferedImage, Mirror>();
+    System.out.println("Surface cache " + (isEnabled ? "enabled" : "disabled"));
+  }  // end of SurfaceCache()
+
+
+  public boolean isEnabled()
+  {  return isEnabled;  }
+
+
+  public void beginFrame()
+  // start a new frame; each mirror will be validated again when next used
+  {  frame++;  }
+
+
+  public void drawImage(Graphics g, BufferedImage im,
+                        int dx1, int dy1, int dx2, int dy2,
+                        int sx1, int sy1, int sx2, int sy2)
+  /* Draw part of im, as Graphics.drawImage() would, from its mirror
+     if possible. */
+  {
+    VolatileImage vIm = getMirror(im);
+    if (vIm != null) {
+      g.drawImage(vIm, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+      if (!vIm.contentsLost()) {
+        hits++;
+        return;
+      }
+      findMirror(im).validFrame = -1;   // revalidate it on the next use
+    }
+    fallbacks++;
+    g.drawImage(im, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+  }  // end of drawImage()
+
+
+  public void release(BufferedImage im)
+  // free the mirror of im, if it has one
+  {
+    Mirror m = mirrors.remove(im);
+    if ((m != null) && (m.vIm != null))
+      m.vIm.flush();
+  }  // end of release()
+
+
+  private Mirror findMirror(BufferedImage im)
+  {
+    Mirror m = mirrors.get(im);
+    if (m == null) {
+      m = new Mirror();
+      mirrors.put(im, m);
+    }
+    return m;
+  }  // end of findMirror()
+
+
+  private VolatileImage getMirror(BufferedImage im)
+  /* Return the mirror of im, valid for this frame, or null if
+     the image should be drawn directly. */
+  {
+    if (!isEnabled)
+      return null;
+    Mirror m = findMirror(im);
+    if (m.validFrame == frame)
+      return m.vIm;
+
+    if (m.validFrame == -1 && m.vIm == null)   // first use
+      m.vIm = createMirror(im);
+    else if (m.vIm != null) {
+      int status = m.vIm.validate(gc);
+      if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+        m.vIm.flush();
+        m.vIm = createMirror(im);
+        restores++;
+      }
+      else if (status == VolatileImage.IMAGE_RESTORED) {
+        copyInto(im, m.vIm);
+        restores++;
+      }
+    }
+    m.validFrame = frame;
+    return m.vIm;
+  }  // end of getMirror()
+
+
+  private VolatileImage createMirror(BufferedImage im)
+  /* Make an accelerated VolatileImage copy of im, or return null
+     if none can be made. */
+  {
+    VolatileImage vIm;
+    try {
+      vIm = gc.createCompatibleVolatileImage(im.getWidth(), im.getHeight(),
+                                             im.getTransparency());
+    }
+    catch (Exception e) {
+      System.out.println("Could not mirror image: " + e);
+      return null;
+    }
+    if ((vIm == null) || !vIm.getCapabilities().isAccelerated()) {
+      if (vIm != null)
+        vIm.flush();
+      return null;
+    }
+    vIm.validate(gc);
+    copyInto(im, vIm);
+    return vIm;
+  }  // end of createMirror()
+
+
+  private void copyInto(BufferedImage im, VolatileImage vIm)
+  // replace the contents of vIm with im, including its transparency
+  {
+    Graphics2D g2d = vIm.createGraphics();
+    g2d.setComposite(AlphaComposite.Src);
+    g2d.drawImage(im, 0, 0, null);
+    g2d.dispose();
+  }  // end of copyInto()
+
+
+  public long getHits()
+  {  return hits;  }
+
+  public long getRestores()
+  {  return restores;  }
+
+  public long getFallbacks()
+  {  return fallbacks;  }
+
+}  // end of SurfaceCache class
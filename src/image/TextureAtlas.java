@@ -0,0 +1,146 @@
+package image;
+
+// TextureAtlas.java
+// Anton Ridgway
+
+/* A TextureAtlas copies many small images into a few large
+   'pages', so that drawing them switches between fewer source
+   surfaces, and the pages (being compatible images) can be kept
+   as managed images by the JVM.
+
+   Images are queued with add(), and then placed by pack(), which
+   sorts them by height and lays them out in shelves (rows) across
+   each page, starting a new page when one fills up. An image too
+   big for a page is left out. A pixel of padding is kept around
+   each image, so that scaled draws do not bleed in their neighbours.
+
+   After packing, getRegion() returns the AtlasRegion holding a
+   given image. This uses the identity of the original
+   BufferedImage, so callers are expected to look their regions up
+   once, when setting up, rather than every frame.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+
+public class TextureAtlas
+{
+  private static final int PAD = 1;
+
+  private GraphicsConfiguration gc;
+  private int pageSize;
+
+  private ArrayList<BufferedImage> queued;
+  private ArrayList<BufferedImage> pages;
+  private IdentityHashMap<BufferedImage, AtlasRegion> regionsMap;
+    // The key is an original image, the value is its copy's region
+
+
+  public TextureAtlas(GraphicsConfiguration gc, int pageSize)
+  {
+    this.gc = gc;
+    this.pageSize = pageSize;
+    queued = new ArrayList<BufferedImage>();
+    pages = new ArrayList<BufferedImage>();
+    regionsMap = new IdentityHashMap<BufferedImage, AtlasRegion>();
+  }  // end of TextureAtlas()
+
+
+  public void add(BufferedImage im)
+  // queue an image to be placed by the next pack()
+  {
+    if ((im != null) && !regionsMap.containsKey(im) && !queued.contains(im))
+      queued.add(im);
+  }
+
+
+  public void add(BufferedImage[] ims)
+  {
+    if (ims != null)
+      for (int i = 0; i < ims.length; i++)
+        add(ims[i]);
+  }
+
+
+  public void pack()
+  /* Place every queued image onto a page, tallest first, along
+     shelves running left to right. A new page is started when the
+     current one has no room left. */
+  {
+    Collections.sort(queued, new Comparator<BufferedImage>() {
+      public int compare(BufferedImage a, BufferedImage b)
+      {  return b.getHeight() - a.getHeight();  }
+    });
+
+    BufferedImage page = null;
+    Graphics2D pageGC = null;
+    int shelfX = 0, shelfY = 0, shelfHeight = 0;
+
+    for (int i = 0; i < queued.size(); i++) {
+      BufferedImage im = queued.get(i);
+      int w = im.getWidth() + 2*PAD;
+      int h = im.getHeight() + 2*PAD;
+      if ((w > pageSize) || (h > pageSize)) {
+        System.out.println("Image too big for atlas page: " +
+                                im.getWidth() + "x" + im.getHeight());
+        continue;
+      }
+
+      if (shelfX + w > pageSize) {   // start a new shelf
+        shelfX = 0;
+        shelfY += shelfHeight;
+        shelfHeight = 0;
+      }
+      if ((page == null) || (shelfY + h > pageSize)) {   // start a new page
+        if (pageGC != null)
+          pageGC.dispose();
+        page = gc.createCompatibleImage(pageSize, pageSize,
+                                            Transparency.TRANSLUCENT);
+        pageGC = page.createGraphics();
+        pageGC.setComposite(AlphaComposite.Src);
+        pages.add(page);
+        shelfX = 0;  shelfY = 0;  shelfHeight = 0;
+      }
+
+      pageGC.drawImage(im, shelfX+PAD, shelfY+PAD, null);
+      regionsMap.put(im, new AtlasRegion(page, pages.size()-1,
+                    shelfX+PAD, shelfY+PAD, im.getWidth(), im.getHeight()) );
+      shelfX += w;
+      shelfHeight = Math.max(shelfHeight, h);
+    }
+    if (pageGC != null)
+      pageGC.dispose();
+
+    System.out.println("Packed " + regionsMap.size() + " images into " +
+                            pages.size() + " atlas page(s)");
+    queued.clear();
+  }  // end of pack()
+
+
+  public AtlasRegion getRegion(BufferedImage im)
+  // the region holding im, or null if it was not packed
+  {  return regionsMap.get(im);  }
+
+
+  public AtlasRegion[] getRegions(BufferedImage[] ims)
+  /* The regions holding each of ims, or null unless every one
+     of them was packed. */
+  {
+    if (ims == null)
+      return null;
+    AtlasRegion[] regions = new AtlasRegion[ims.length];
+    for (int i = 0; i < ims.length; i++) {
+      regions[i] = regionsMap.get(ims[i]);
+      if (regions[i] == null)
+        return null;
+    }
+    return regions;
+  }  // end of getRegions()
+
+
+  public int numPages()
+  {  return pages.size();  }
+
+}  // end of TextureAtlas class
@@ -22,12 +22,19 @@ package sound;
                added clip.setFramePosition(0) to update()
 
      added checkDuration() and DecimalFormat df
+
+   The audio is read fully into memory by readAudio(), which may be
+   run on another thread ahead of time (see ClipsLoader), and the
+   clip is then opened from it.
 */
 
 import java.io.*;
+import java.util.concurrent.*;
 
 import javax.sound.sampled.*;
 
+import timing.StartupTrace;
+
 
 import java.text.DecimalFormat;
 
@@ -44,58 +51,113 @@ public class ClipInfo implements LineListener
 
 
   public ClipInfo(String nm, String fnm)
+  {  this(nm, fnm, null);  }
+
+
+  public ClipInfo(String nm, String fnm, Future<AudioInputStream> audio)
+  /* As above, but with the audio for fnm already being read
+     by readAudio() on another thread. */
   { name = nm;
     filename = SOUND_DIR + fnm;
     df = new DecimalFormat("0.#");  // 1 dp
 
-    loadClip(filename);
+    loadClip(filename, audio);
   } // end of ClipInfo()
 
 
-  private void loadClip(String fnm)
+  public static AudioInputStream readAudio(String fnm)
+                  throws UnsupportedAudioFileException, IOException
+  /* Read the sound in Sounds/fnm fully into memory, converted to PCM,
+     and return a stream for it. This may be called from any thread. */
   {
+    StartupTrace.Span span = StartupTrace.begin("sounds", "read", fnm);
     try {
-      // link an audio stream to the sound clip's file
-      InputStream in = this.getClass().getResourceAsStream(fnm);
-      System.out.println( getClass() + "/" + fnm );
-      AudioInputStream stream = AudioSystem.getAudioInputStream( new BufferedInputStream(in) );
-
-      AudioFormat format = stream.getFormat();
-
-      // convert ULAW/ALAW formats to PCM format
-      if ( (format.getEncoding() == AudioFormat.Encoding.ULAW) ||
-           (format.getEncoding() == AudioFormat.Encoding.ALAW) ) {
-        AudioFormat newFormat = 
-           new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
-                                format.getSampleRate(),
-                                format.getSampleSizeInBits()*2,
-                                format.getChannels(),
-                                format.getFrameSize()*2,
-                                format.getFrameRate(), true);  // big endian
-        // update stream and format details
-        stream = AudioSystem.getAudioInputStream(newFormat, stream);
-        System.out.println("Converted Audio format: " + newFormat);
-        format = newFormat;
-      }
+      return readAudioStream(fnm);
+    }
+    finally {
+      span.end();
+    }
+  }  // end of readAudio()
 
-      DataLine.Info info = new DataLine.Info(Clip.class, format);
 
-      // make sure sound system supports data line
-      if (!AudioSystem.isLineSupported(info)) {
-        System.out.println("Unsupported Clip File: " + fnm);
-        return;
-      }
+  private static AudioInputStream readAudioStream(String fnm)
+                  throws UnsupportedAudioFileException, IOException
+  {
+    // link an audio stream to the sound clip's file
+    InputStream in = ClipInfo.class.getResourceAsStream(SOUND_DIR + fnm);
+    AudioInputStream stream = AudioSystem.getAudioInputStream( new BufferedInputStream(in) );
+
+    AudioFormat format = stream.getFormat();
+
+    // convert ULAW/ALAW formats to PCM format
+    if ( (format.getEncoding() == AudioFormat.Encoding.ULAW) ||
+         (format.getEncoding() == AudioFormat.Encoding.ALAW) ) {
+      AudioFormat newFormat = 
+         new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                              format.getSampleRate(),
+                              format.getSampleSizeInBits()*2,
+                              format.getChannels(),
+                              format.getFrameSize()*2,
+                              format.getFrameRate(), true);  // big endian
+      // update stream and format details
+      stream = AudioSystem.getAudioInputStream(newFormat, stream);
+      System.out.println("Converted Audio format: " + newFormat);
+      format = newFormat;
+    }
 
-      // get clip line resource
-      clip = (Clip) AudioSystem.getLine(info);
+    // read all of it
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int n;
+    while ((n = stream.read(buf)) != -1)
+      bytes.write(buf, 0, n);
+    stream.close();
 
-      // listen to clip for events
-      clip.addLineListener(this);
+    byte[] data = bytes.toByteArray();
+    return new AudioInputStream( new ByteArrayInputStream(data), format,
+                                 data.length/format.getFrameSize() );
+  }  // end of readAudioStream()
 
-      clip.open(stream);    // open the sound file as a clip
-      stream.close(); // we're done with the input stream
-     
-      checkDuration();
+
+  private AudioInputStream getAudio(String fnm, Future<AudioInputStream> audio)
+                  throws UnsupportedAudioFileException, IOException
+  // the audio from the future, or read here if there is none
+  {
+    if (audio != null) {
+      try {
+        return audio.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();   // keep the flag, and read the file here
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UnsupportedAudioFileException)
+          throw (UnsupportedAudioFileException) cause;
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        throw new IOException(cause);
+      }
+    }
+    return readAudio(fnm.substring(SOUND_DIR.length()));
+  }  // end of getAudio()
+
+
+  private void loadClip(String fnm, Future<AudioInputStream> audio)
+  {
+    try {
+      System.out.println( getClass() + "/" + fnm );
+      AudioInputStream stream = getAudio(fnm, audio);
+      StartupTrace.Span span = StartupTrace.begin("sounds", "open clip", fnm);
+      boolean opened;
+      try {
+        opened = openClip(fnm, stream);
+      }
+      finally {
+        span.end();
+      }
+      if (opened)
+        checkDuration();
     } // end of try block
 
     catch (UnsupportedAudioFileException audioException) {
@@ -113,6 +175,32 @@ public class ClipInfo implements LineListener
   } // end of loadClip()
 
 
+  private boolean openClip(String fnm, AudioInputStream stream)
+                  throws LineUnavailableException, IOException
+  // open the clip from stream, returning false if it is not supported
+  {
+    AudioFormat format = stream.getFormat();
+
+    DataLine.Info info = new DataLine.Info(Clip.class, format);
+
+    // make sure sound system supports data line
+    if (!AudioSystem.isLineSupported(info)) {
+      System.out.println("Unsupported Clip File: " + fnm);
+      return false;
+    }
+
+    // get clip line resource
+    clip = (Clip) AudioSystem.getLine(info);
+
+    // listen to clip for events
+    clip.addLineListener(this);
+
+    clip.open(stream);    // open the sound file as a clip
+    stream.close(); // we're done with the input stream
+    return true;
+  }  // end of openClip()
+
+
   private void checkDuration()
   {
     // duration (in secs) of the clip
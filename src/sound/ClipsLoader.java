@@ -17,12 +17,29 @@ package sound;
 
    It is possible for many clips to play at the same time, since
    each ClipInfo object is responsible for playing its clip.
+
+   If ClipsLoader is given an enabled SoundMixer, the sounds are
+   decoded into the mixer instead of being opened as clips, and the
+   calls are redirected to the mixer. Then a sound can play several
+   times at once, and only one audio line is used for all of them.
+
+   The sounds in the information file are read and decoded in
+   parallel, on a fixed pool of threads, but their clips are still
+   opened one at a time, in order. The time taken is reported, with
+   an estimate of how long the loading would take serially.
 */
 
 
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
+import javax.sound.sampled.*;
+
+import assets.AssetIndex;
+import timing.LoadThreads;
+import timing.StartupTrace;
 
 
 
@@ -34,10 +51,36 @@ public class ClipsLoader
     /* The key is the clip 'name', the object (value) 
        is a ClipInfo object */
 
+  private SoundMixer mixer = null;   // null when clips are used
+
+
+  private HashMap<String, Future<AudioInputStream>> pending = null;
+    /* The key is a sound filename, the value its audio being read
+       by the loading threads; only used while loading the sounds file */
+  private AtomicLong readTime = new AtomicLong();
+    // total nanosecs the loading threads spent reading
+  private long waitTime = 0;
+    // nanosecs spent waiting for the loading threads
+
 
   public ClipsLoader(String soundsFnm)
-  { clipsMap = new HashMap();
-    loadSoundsFile(soundsFnm);
+  {  this(soundsFnm, LoadThreads.getDefault());  }
+
+
+  public ClipsLoader(String soundsFnm, int numThreads)
+  /* Load the sounds in soundsFnm, reading them on numThreads
+     threads; 1 loads them serially. */
+  { this(soundsFnm, numThreads, null);  }
+
+
+  public ClipsLoader(String soundsFnm, int numThreads, SoundMixer mx)
+  // as above, but decoding the sounds into mx, if it is enabled
+  { StartupTrace.Span span = StartupTrace.begin("startup", "ClipsLoader", soundsFnm);
+    clipsMap = new HashMap();
+    if ((mx != null) && mx.isEnabled())
+      mixer = mx;
+    loadSoundsFile(soundsFnm, numThreads);
+    span.end();
   }
 
   public ClipsLoader()
@@ -45,32 +88,73 @@ public class ClipsLoader
 
 
 
-  private void loadSoundsFile(String soundsFnm)
+  private void loadSoundsFile(String soundsFnm, int numThreads)
   /* The file format are lines of:
         <name> <filename>         // a single sound file
      and blank lines and comment lines.
+
+     If the sounds file has an up-to-date index (see AssetIndex),
+     the names and filenames are read from it instead.
   */
   { 
     String sndsFNm = SOUND_DIR + soundsFnm;
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> fnms = new ArrayList<String>();
+    AssetIndex index = AssetIndex.load(getClass(), sndsFNm);
+    if (index != null) {
+      System.out.println("Reading index: " + AssetIndex.indexName(sndsFNm));
+      for (AssetIndex.Entry e : index.getEntries()) {
+        names.add(e.name);
+        fnms.add(e.files[0]);
+      }
+    }
+    else
+      readSoundsFile(sndsFNm, names, fnms);
+
+    long startTime = System.nanoTime();
+    ExecutorService pool = null;
+    if (numThreads > 1) {
+      pool = Executors.newFixedThreadPool(numThreads);
+      startReading(fnms, pool);
+    }
+
+    for (int i = 0; i < names.size(); i++)
+      load(names.get(i), fnms.get(i));
+
+    if (pool != null) {
+      pool.shutdownNow();
+      pending = null;
+    }
+    // the serial estimate is this thread's working time, plus all the reading time
+    long loadTime = System.nanoTime() - startTime;
+    long serialTime = loadTime - waitTime + readTime.get();
+    int numLoaded = (mixer != null) ? mixer.numSounds() : clipsMap.size();
+    System.out.println("Loaded " + numLoaded + " clips in " + (loadTime/1000000L) +
+                       " ms on " + Math.max(1, numThreads) + " thread(s); about " +
+                       (serialTime/1000000L) + " ms serially");
+  }  // end of loadSoundsFile()
+
+
+  private void readSoundsFile(String sndsFNm, ArrayList<String> names,
+                                              ArrayList<String> fnms)
+  // add the name and filename on each line of the sounds file
+  {
     System.out.println("Reading file: " + sndsFNm);
     try {
       InputStream in = this.getClass().getResourceAsStream(sndsFNm);
       BufferedReader br = new BufferedReader( new InputStreamReader(in));
-      StringTokenizer tokens;
-      String line, name, fnm;
+      String line;
       while((line = br.readLine()) != null) {
         if (line.length() == 0)  // blank line
           continue;
         if (line.startsWith("//"))   // comment
           continue;
-
-        tokens = new StringTokenizer(line);
+        StringTokenizer tokens = new StringTokenizer(line);
         if (tokens.countTokens() != 2)
           System.out.println("Wrong no. of arguments for " + line);
         else {
-          name = tokens.nextToken();
-          fnm = tokens.nextToken();
-          load(name, fnm);
+          names.add( tokens.nextToken() );
+          fnms.add( tokens.nextToken() );
         }
       }
       br.close();
@@ -79,7 +163,25 @@ public class ClipsLoader
     { System.out.println("Error reading file: " + sndsFNm);
       System.exit(1);
     }
-  }  // end of loadSoundsFile()
+  }  // end of readSoundsFile()
+
+
+  private void startReading(ArrayList<String> fnms, ExecutorService pool)
+  // submit every sound file in fnms to the pool, in order
+  {
+    pending = new HashMap<String, Future<AudioInputStream>>();
+    for (final String fnm : fnms) {
+      if (!pending.containsKey(fnm))
+        pending.put(fnm, pool.submit( new Callable<AudioInputStream>() {
+          public AudioInputStream call() throws Exception
+          { long t = System.nanoTime();
+            AudioInputStream stream = ClipInfo.readAudio(fnm);
+            readTime.addAndGet(System.nanoTime() - t);
+            return stream;
+          }
+        }));
+    }
+  }  // end of startReading()
 
 
 
@@ -87,20 +189,72 @@ public class ClipsLoader
 
 
   public void load(String name, String fnm)
-  // create a ClipInfo object for name and store it
+  // create a ClipInfo object for name and store it (or mix it)
   {
-    if (clipsMap.containsKey(name))
+    if (clipsMap.containsKey(name) || ((mixer != null) && mixer.isStored(name)))
       System.out.println( "Error: " + name + "already stored");
+    else if (mixer != null)
+      loadMixed(name, fnm);
     else {
-      clipsMap.put(name, new ClipInfo(name, fnm) );
+      Future<AudioInputStream> audio = (pending == null) ? null : pending.remove(fnm);
+      if (audio != null) {    // wait for it here, to time the wait
+        long t = System.nanoTime();
+        try {
+          audio.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {}   // reported by the ClipInfo
+        waitTime += System.nanoTime() - t;
+      }
+      clipsMap.put(name, new ClipInfo(name, fnm, audio) );
       System.out.println("-- " + name + "/" + fnm);
     }
   }  // end of load()
 
 
+  private void loadMixed(String name, String fnm)
+  // decode the sound for name into the mixer
+  {
+    Future<AudioInputStream> audio = (pending == null) ? null : pending.remove(fnm);
+    try {
+      AudioInputStream stream;
+      if (audio == null)
+        stream = ClipInfo.readAudio(fnm);
+      else {
+        long t = System.nanoTime();
+        try {
+          stream = audio.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();   // keep the flag, and read the file here
+          stream = ClipInfo.readAudio(fnm);
+        }
+        finally {
+          waitTime += System.nanoTime() - t;
+        }
+      }
+      mixer.addSound(name, stream);
+      System.out.println("-- " + name + "/" + fnm);
+    }
+    catch (ExecutionException e) {
+      System.out.println("Could not read: " + fnm + "-- " + e.getCause());
+    }
+    catch (Exception e) {
+      System.out.println("Problem with " + fnm + "-- " + e);
+    }
+  }  // end of loadMixed()
+
+
   public void close(String name)
   // close the specified clip
-  {  ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  {  if (mixer != null) {
+       if (!mixer.remove(name))
+         System.out.println( "Error: " + name + "not stored");
+       return;
+     }
+     ClipInfo ci = (ClipInfo) clipsMap.get(name);
      if (ci == null)
        System.out.println( "Error: " + name + "not stored");
      else
@@ -111,7 +265,12 @@ public class ClipsLoader
 
   public void play(String name, boolean toLoop)
   // play (perhaps loop) the specified clip
-  {  ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  {  if (mixer != null) {
+       if (!mixer.play(name, toLoop))
+         System.out.println( "Error: " + name + "not stored");
+       return;
+     }
+     ClipInfo ci = (ClipInfo) clipsMap.get(name);
      if (ci == null)
        System.out.println( "Error: " + name + "not stored");
      else
@@ -121,7 +280,12 @@ public class ClipsLoader
 
   public void stop(String name)
   // stop the clip, resetting it to the beginning
-  { ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  { if (mixer != null) {
+      if (!mixer.stop(name))
+        System.out.println( "Error: " + name + "not stored");
+      return;
+    }
+    ClipInfo ci = (ClipInfo) clipsMap.get(name);
     if (ci == null)
       System.out.println( "Error: " + name + "not stored");
     else
@@ -130,7 +294,12 @@ public class ClipsLoader
 
 
   public void pause(String name)
-  { ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  { if (mixer != null) {
+      if (!mixer.pause(name))
+        System.out.println( "Error: " + name + "not stored");
+      return;
+    }
+    ClipInfo ci = (ClipInfo) clipsMap.get(name);
     if (ci == null)
       System.out.println( "Error: " + name + "not stored");
     else
@@ -139,7 +308,12 @@ public class ClipsLoader
 
 
   public void resume(String name)
-  { ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  { if (mixer != null) {
+      if (!mixer.resume(name))
+        System.out.println( "Error: " + name + "not stored");
+      return;
+    }
+    ClipInfo ci = (ClipInfo) clipsMap.get(name);
     if (ci == null)
       System.out.println( "Error: " + name + "not stored");
     else
@@ -153,11 +327,29 @@ public class ClipsLoader
   public void setWatcher(String name, SoundsWatcher sw)
   /* Set up a watcher for the clip. It will be notified when
      the clip loops or stops. */
-  { ClipInfo ci = (ClipInfo) clipsMap.get(name);
+  { if (mixer != null) {
+      if (!mixer.setWatcher(name, sw))
+        System.out.println( "Error: " + name + "not stored");
+      return;
+    }
+    ClipInfo ci = (ClipInfo) clipsMap.get(name);
     if (ci == null)
       System.out.println( "Error: " + name + "not stored");
     else
       ci.setWatcher(sw);
   } // end of setWatcher()
 
+
+  public void setVoiceLimit(String name, int limit)
+  /* At most limit copies of the sound may play at once; only used
+     with a mixer, since a clip can only play once at a time. */
+  { if ((mixer != null) && !mixer.setVoiceLimit(name, limit))
+      System.out.println( "Error: " + name + "not stored");
+  } // end of setVoiceLimit()
+
+
+  public SoundMixer getMixer()
+  // the mixer playing the sounds, or null if they are clips
+  {  return mixer;  }
+
 }  // end of ClipsLoader class
@@ -10,12 +10,18 @@ package sound;
 
    MidisLoader passes a reference to its sequencer to each
    MidiInfo object, so that it can play its sequence.
+
+   The sequence may be read by readSequence() on another thread
+   ahead of time (see MidisLoader), and passed in as a Future.
 */
 
 import java.io.*;
+import java.util.concurrent.*;
 
 import javax.sound.midi.*;
 
+import timing.StartupTrace;
+
 
 public class MidiInfo
 {
@@ -28,20 +34,57 @@ public class MidiInfo
 
 
   public MidiInfo(String nm, String fnm, Sequencer sqr)
+  {  this(nm, fnm, sqr, null);  }
+
+
+  public MidiInfo(String nm, String fnm, Sequencer sqr, Future<Sequence> sequence)
+  // as above, but with the sequence already being read on another thread
   {
     name = nm;
     filename = SOUND_DIR + fnm;
     sequencer = sqr;
-    loadMidi();
+    loadMidi(sequence);
   } // end of MidiInfo()
 
 
-  private void loadMidi()
-  // load the Midi sequence
+  public static Sequence readSequence(String fnm)
+                  throws InvalidMidiDataException, IOException
+  // read the sequence in Sounds/fnm; this may be called from any thread
+  {
+    StartupTrace.Span span = StartupTrace.begin("music", "parse", fnm);
+    try {
+      InputStream in = MidiInfo.class.getResourceAsStream(SOUND_DIR + fnm);
+      return MidiSystem.getSequence( in );
+    }
+    finally {
+      span.end();
+    }
+  }  // end of readSequence()
+
+
+  private void loadMidi(Future<Sequence> sequence)
+  // load the Midi sequence, from the future if there is one
   { 
     try {
-      InputStream in = this.getClass().getResourceAsStream(filename);
-      seq = MidiSystem.getSequence( in );
+      if (sequence != null) {
+        try {
+          seq = sequence.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();   // keep the flag, and read the file here
+          seq = readSequence(filename.substring(SOUND_DIR.length()));
+        }
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof InvalidMidiDataException)
+            throw (InvalidMidiDataException) cause;
+          if (cause instanceof IOException)
+            throw (IOException) cause;
+          throw new IOException(cause);
+        }
+      }
+      else
+        seq = readSequence(filename.substring(SOUND_DIR.length()));
     }
     catch (InvalidMidiDataException e) {
       System.out.println("Unreadable/unsupported midi file: " + filename);
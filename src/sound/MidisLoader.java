@@ -23,6 +23,12 @@ package sound;
    A reference to the sequencer is passed to each MidiInfo object,
    which are responsible for playing, stopping, resuming and looping
    their sequences.
+
+   A list of sequences can be given to the constructor, to be read
+   in parallel on a fixed pool of threads, while the sequencer and
+   synthesizer are being opened. They are still stored in order.
+   The time taken is reported, with an estimate of how long the
+   loading would take serially.
 */
 
 
@@ -33,6 +39,10 @@ import javax.sound.midi.*;
 
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import timing.StartupTrace;
 
 
 
@@ -64,29 +74,95 @@ public class MidisLoader implements MetaEventListener
   }
 
 
+  public MidisLoader(String[] names, String[] fnms, int numThreads)
+  /* Load the sequences in fnms, storing them under names, reading
+     them on numThreads threads; 1 loads them serially. */
+  {
+    midisMap = new HashMap<String, MidiInfo>();
+    long startTime = System.nanoTime();
+    final AtomicLong readTime = new AtomicLong();
+
+    ExecutorService pool = null;
+    ArrayList<Future<Sequence>> sequences = new ArrayList<Future<Sequence>>();
+    if (numThreads > 1) {
+      pool = Executors.newFixedThreadPool(numThreads);
+      for (int i = 0; i < fnms.length; i++) {
+        final String fnm = fnms[i];
+        sequences.add( pool.submit( new Callable<Sequence>() {
+          public Sequence call() throws Exception
+          { long t = System.nanoTime();
+            Sequence seq = MidiInfo.readSequence(fnm);
+            readTime.addAndGet(System.nanoTime() - t);
+            return seq;
+          }
+        }));
+      }
+    }
+
+    initSequencer();    // while the sequences are read
+
+    long waitTime = 0;
+    for (int i = 0; i < names.length; i++) {
+      Future<Sequence> seq = (pool == null) ? null : sequences.get(i);
+      if (seq != null) {    // wait for it here, to time the wait
+        long t = System.nanoTime();
+        try {
+          seq.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {}   // reported by the MidiInfo
+        waitTime += System.nanoTime() - t;
+      }
+      load(names[i], fnms[i], seq);
+    }
+    if (pool != null)
+      pool.shutdown();
+
+    // the serial estimate is this thread's working time, plus all the reading time
+    long loadTime = System.nanoTime() - startTime;
+    long serialTime = loadTime - waitTime + readTime.get();
+    System.out.println("Loaded " + midisMap.size() + " sequences in " + (loadTime/1000000L) +
+                       " ms on " + Math.max(1, numThreads) + " thread(s); about " +
+                       (serialTime/1000000L) + " ms serially");
+  }  // end of MidisLoader()
+
+
   private void initSequencer() 
   /* Set up the MIDI sequencer, and the sequencer's meta-event
      listener. No synthesizer is used here. */
   {
     try {
-      sequencer = MidiSystem.getSequencer();
-      if (sequencer == null) {
-        System.out.println("Cannot get a sequencer");
-        return;
+      StartupTrace.Span span = StartupTrace.begin("music", "open sequencer");
+      try {
+        sequencer = MidiSystem.getSequencer();
+        if (sequencer == null) {
+          System.out.println("Cannot get a sequencer");
+          return;
+        }
+        sequencer.open();
+      }
+      finally {
+        span.end();
       }
-
-      sequencer.open();
       sequencer.addMetaEventListener(this);
 
       // maybe the sequencer is not the same as the synthesizer
       // so link sequencer --> synth (this is required in J2SE 1.5)
       if (!(sequencer instanceof Synthesizer)) {
         System.out.println("Linking the MIDI sequencer and synthesizer");
-        Synthesizer synthesizer = MidiSystem.getSynthesizer();
-        Receiver synthReceiver = synthesizer.getReceiver();
-        Transmitter seqTransmitter = sequencer.getTransmitter();
-        seqTransmitter.setReceiver(synthReceiver);
-        synthesizer.open();
+        span = StartupTrace.begin("music", "open synthesizer");
+        try {
+          Synthesizer synthesizer = MidiSystem.getSynthesizer();
+          Receiver synthReceiver = synthesizer.getReceiver();
+          Transmitter seqTransmitter = sequencer.getTransmitter();
+          seqTransmitter.setReceiver(synthReceiver);
+          synthesizer.open();
+        }
+        finally {
+          span.end();
+        }
       }
     }
     catch (MidiUnavailableException e){
@@ -161,13 +237,18 @@ public class MidisLoader implements MetaEventListener
 
   public void load(String name, String fnm)
   // create a MidiInfo object, and store it under name
+  {  load(name, fnm, null);  }
+
+
+  private void load(String name, String fnm, Future<Sequence> seq)
+  // as above, with its sequence perhaps being read on another thread
   {
     if (midisMap.containsKey(name))
       System.out.println( "Error: " + name + "already stored");
     else if (sequencer == null)
       System.out.println( "No sequencer for: " + name);
     else {
-      midisMap.put(name, new MidiInfo(name, fnm, sequencer) );
+      midisMap.put(name, new MidiInfo(name, fnm, sequencer, seq) );
       System.out.println("-- " + name + "/" + fnm);
     }
   }  // end of load()
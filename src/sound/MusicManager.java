@@ -2,17 +2,24 @@ package sound;
 
 import java.util.Random;
 import sound.MidisLoader;
+import timing.LoadThreads;
+import timing.StartupTrace;
 
 /**
  * MusicManager contains a hard-coded list of midi file names
  * and descriptions, and provides controls to play them, via
  * Davison's MidisLoader class.
+ * 
+ * The music may be loaded in the background, so the game need not
+ * wait for it; until it is loaded, the controls cannot be clicked,
+ * and a start() is held back until the music is ready.
  * @author Anton Ridgway
  */
 
 public class MusicManager
 {
-	private MidisLoader midisLoader;
+	private volatile MidisLoader midisLoader; // null until the music is loaded
+	private int numThreads;
 	private final int TRACKS_SIZE = 14;
 	private int currMus;
 	private final String[] callNames = {"soul", "snuckeys", "feather", "igotyou", "highway",
@@ -23,14 +30,61 @@ public class MusicManager
 			"Gravity Beetle Stage (Airfield Fort)",	"Ride of the Valkyries", "Shake, Rattle and Roll",
 			"Respect"};
 	
-	private boolean canClick =  true;
+	// the names and files of the sequences, in the order they are loaded
+	private final String[] loadNames = {"boss", "feather", "fire", "gravity", "highway",
+			"hippie", "igotyou", "johnny", "runaway", "snuckeys", "soul", "valkyries", "shake", "respect"};
+	private final String[] loadFiles = {"boss.mid", "feather.mid", "fire.mid", "gravity.mid",
+			"highway.mid", "hippie.mid", "igotyou.mid", "johnny.mid", "runaway.mid", "snuckeys.mid",
+			"soulman.mid", "valkyries.mid", "shake.mid", "respect.mid"};
+	
+	private volatile boolean canClick =  true;
 	private boolean isPaused = false;
-		
+	private boolean startWhenLoaded = false; // start() was called before loading finished
+	
 	public MusicManager()
+	{
+		this(LoadThreads.getDefault());
+	}
+	
+	/**
+	 * Loads the music, reading the sequences on the given number
+	 * of threads; 1 loads them serially.
+	 * 
+	 * @param numThreads the number of loading threads
+	 */
+	public MusicManager(int numThreads)
+	{
+		this(numThreads, true);
+	}
+	
+	/**
+	 * Creates the manager, loading the music now or leaving it for
+	 * load(), which may be called on another thread.
+	 * 
+	 * @param numThreads the number of loading threads
+	 * @param loadNow whether to load the music now
+	 */
+	public MusicManager(int numThreads, boolean loadNow)
 	{
 		currMus = new Random().nextInt(TRACKS_SIZE);
-		midisLoader = new MidisLoader();
-		midisLoader.setWatcher( new SoundsWatcher()
+		this.numThreads = numThreads;
+		canClick = false;
+		if (loadNow)
+			load();
+	}
+	
+	/**
+	 * Loads the sequences, then plays one if start() has already
+	 * been called.  Only the first call does anything.
+	 */
+	public void load()
+	{
+		if (midisLoader != null)
+			return;
+		StartupTrace.Span span = StartupTrace.begin("startup", "MusicManager");
+		MidisLoader ml = new MidisLoader(loadNames, loadFiles, numThreads);
+		span.end();
+		ml.setWatcher( new SoundsWatcher()
 		{
 			public void atSequenceEnd( String s, int i )
 			{
@@ -52,33 +106,46 @@ public class MusicManager
 				}
 			}
 		});
-		
-	    midisLoader.load("boss", "boss.mid");
-	    midisLoader.load("feather", "feather.mid");
-	    midisLoader.load("fire", "fire.mid");
-	    midisLoader.load("gravity", "gravity.mid");
-	    midisLoader.load("highway", "highway.mid");
-	    midisLoader.load("hippie", "hippie.mid");
-	    midisLoader.load("igotyou", "igotyou.mid");
-	    midisLoader.load("johnny", "johnny.mid");
-	    midisLoader.load("runaway", "runaway.mid");
-	    midisLoader.load("snuckeys", "snuckeys.mid");
-		midisLoader.load("soul", "soulman.mid");
-	    midisLoader.load("valkyries", "valkyries.mid");
-	    midisLoader.load("shake", "shake.mid");
-		midisLoader.load("respect", "respect.mid");
+		boolean toStart;
+		synchronized (this)
+		{
+			midisLoader = ml;
+			toStart = startWhenLoaded;
+		}
+		canClick = true;
+		if (toStart)
+			start();
 	}
 	
 	public void start()
 	{
-		midisLoader.play(callNames[currMus], false);
+		if (isLoaded(true))
+			midisLoader.play(callNames[currMus], false);
 	}
 	public void stop()
 	{
-		midisLoader.stop();
+		if (isLoaded(false))
+			midisLoader.stop();
+	}
+	
+	/**
+	 * Checks whether the music is loaded, and if not, notes whether
+	 * to start it once it is.  Once loaded, the music stays loaded,
+	 * so the lock need not be held while it plays.
+	 */
+	private synchronized boolean isLoaded(boolean toStart)
+	{
+		if (midisLoader == null)
+		{
+			startWhenLoaded = toStart;
+			return false;
+		}
+		return true;
 	}
 	public void pause()
 	{
+		if (midisLoader == null)
+			return;
 		if (!isPaused)
 		{
 			midisLoader.pause();
@@ -0,0 +1,456 @@
+package sound;
+
+// SoundMixer.java
+// Anton Ridgway
+
+/* A SoundMixer plays the game's sound effects by mixing them in
+   software into a single SourceDataLine, instead of giving every
+   effect its own Clip (and so its own line from the audio system).
+
+   Each sound is decoded once, by addSound(), into a buffer of
+   16-bit stereo samples at the mixer's rate (MIX_RATE), resampling
+   it if needed. Playing a sound starts a voice reading from its
+   buffer; any number of voices can play the same sound at once, so
+   overlapping explosions no longer cut each other off.
+
+   The voices are mixed on a dedicated audio thread, CHUNK_FRAMES
+   frames at a time, and written to the line, whose buffer holds
+   only LINE_CHUNKS chunks; so a sound starts within a few millisecs
+   of play() being called. The line is kept running, writing
+   silence when nothing plays, so it never has to be restarted.
+
+   There is a fixed number of voices. Each sound also has a limit on
+   how many of its voices may play at once (DEFAULT_LIMIT, unless
+   changed by setVoiceLimit()). When a sound is played:
+     - if it is at its limit, its oldest voice is restarted;
+     - otherwise a free voice is used, if there is one;
+     - otherwise the oldest voice which is not looping is stolen;
+     - otherwise (every voice is looping) the sound is dropped.
+
+   play(), stop(), pause() and resume() may be called from any
+   thread. They only queue a command, which the audio thread carries
+   out before mixing its next chunk, so the caller never waits for
+   the audio thread. A SoundsWatcher set for a sound is called on
+   the audio thread, when one of its voices stops, or loops.
+
+   If the line cannot be opened (or the mixer is disabled), the
+   mixer is not enabled, and ClipsLoader uses Clips instead.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.sound.sampled.*;
+
+
+public class SoundMixer implements Runnable
+{
+  private final static float MIX_RATE = 44100f;
+  private final static int CHUNK_FRAMES = 256;   // about 6 ms
+  private final static int LINE_CHUNKS = 4;      // the line's buffer, in chunks
+  private final static int DEFAULT_LIMIT = 4;    // voices per sound
+
+  // commands queued for the audio thread
+  private final static int PLAY = 0;
+  private final static int STOP = 1;
+  private final static int PAUSE = 2;
+  private final static int RESUME = 3;
+
+  private AudioFormat format;    // 16-bit signed stereo, little-endian
+  private SourceDataLine line = null;
+  private boolean isEnabled;
+
+  private ConcurrentHashMap<String, Sound> sounds =
+                            new ConcurrentHashMap<String, Sound>();
+  private ConcurrentLinkedQueue<Command> commands =
+                            new ConcurrentLinkedQueue<Command>();
+
+  // only used by the audio thread
+  private Voice[] voices;
+  private long numStarted = 0;   // voices started, which orders them by age
+  private int[] mix = new int[CHUNK_FRAMES*2];
+  private byte[] out = new byte[CHUNK_FRAMES*4];
+
+  // statistics
+  private AtomicInteger played = new AtomicInteger();
+  private AtomicInteger stolen = new AtomicInteger();
+  private AtomicInteger dropped = new AtomicInteger();
+  private volatile int mostVoices = 0;
+
+
+  private static class Sound
+  {
+    String name;
+    short[] samples;        // interleaved left and right
+    volatile int limit = DEFAULT_LIMIT;
+    volatile SoundsWatcher watcher = null;
+  }
+
+  private static class Voice
+  {
+    Sound sound = null;     // null when the voice is free
+    int posn;               // in samples
+    boolean isLooping, isPaused;
+    long age;               // when it was started, from numStarted
+  }
+
+  private static class Command
+  {
+    int type;
+    Sound sound;
+    boolean toLoop;
+
+    Command(int type, Sound sound, boolean toLoop)
+    { this.type = type;
+      this.sound = sound;
+      this.toLoop = toLoop;
+    }
+  }
+
+
+  public SoundMixer(boolean enabled, int numVoices)
+  /* Open the line and start the audio thread, mixing up to
+     numVoices voices at once. */
+  {
+    format = new AudioFormat(MIX_RATE, 16, 2, true, false);
+    voices = new Voice[numVoices];
+    for (int i = 0; i < numVoices; i++)
+      voices[i] = new Voice();
+
+    isEnabled = enabled && openLine();
+    System.out.println("Sound mixer " + (isEnabled ? "enabled" : "disabled"));
+    if (isEnabled) {
+      Thread t = new Thread(this, "Sound Mixer");
+      t.setDaemon(true);
+      t.setPriority(Thread.MAX_PRIORITY);
+      t.start();
+    }
+  }  // end of SoundMixer()
+
+
+  private boolean openLine()
+  {
+    try {
+      line = AudioSystem.getSourceDataLine(format);
+      line.open(format, CHUNK_FRAMES*LINE_CHUNKS*format.getFrameSize());
+      line.start();
+      System.out.println("Sound mixer line: " + line.getBufferSize() + " bytes (" +
+                  (line.getBufferSize()*1000/(format.getFrameSize()*(int)MIX_RATE)) + " ms)");
+      return true;
+    }
+    catch (Exception e) {   // LineUnavailableException, IllegalArgumentException
+      System.out.println("No audio line for the sound mixer: " + e);
+      if (line != null)
+        line.close();
+      line = null;
+      return false;
+    }
+  }  // end of openLine()
+
+
+  public boolean isEnabled()
+  {  return isEnabled;  }
+
+
+
+  // ----------------------- the sounds --------------------------
+
+
+  public void addSound(String name, AudioInputStream stream) throws IOException
+  /* Decode all of stream into name's buffer, in the mixer's
+     format. The stream must hold 8 or 16 bit PCM, in mono or
+     stereo, and is closed afterwards. */
+  {
+    try {
+      Sound s = new Sound();
+      s.name = name;
+      s.samples = decode(stream);
+      sounds.put(name, s);
+      System.out.println(name + ": " + (s.samples.length/2) + " frames at " +
+                         (int)MIX_RATE + " Hz, mixed");
+    }
+    finally {
+      stream.close();
+    }
+  }  // end of addSound()
+
+
+  private short[] decode(AudioInputStream stream) throws IOException
+  // the stream as 16-bit stereo samples at MIX_RATE
+  {
+    AudioFormat f = stream.getFormat();
+    int bits = f.getSampleSizeInBits();
+    int channels = f.getChannels();
+    boolean signed = f.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED);
+    if ((!signed && !f.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED)) ||
+        ((bits != 8) && (bits != 16)) || (channels < 1) || (channels > 2))
+      throw new IOException("cannot mix audio in " + f);
+
+    // read the samples, as 16-bit signed stereo
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int n;
+    while ((n = stream.read(buf)) != -1)
+      bytes.write(buf, 0, n);
+    byte[] data = bytes.toByteArray();
+
+    int frameSize = f.getFrameSize();
+    int numFrames = data.length/frameSize;
+    short[] src = new short[numFrames*2];
+    for (int i = 0; i < numFrames; i++)
+      for (int c = 0; c < 2; c++) {
+        int offset = i*frameSize + Math.min(c, channels-1)*(bits/8);
+        src[i*2+c] = toSample(data, offset, bits, signed, f.isBigEndian());
+      }
+
+    // resample to MIX_RATE, interpolating linearly
+    float rate = f.getSampleRate();
+    if ((rate == AudioSystem.NOT_SPECIFIED) || (rate == MIX_RATE) || (numFrames < 2))
+      return src;
+    double step = rate/MIX_RATE;
+    int outFrames = (int) ((numFrames-1)/step) + 1;
+    short[] samples = new short[outFrames*2];
+    for (int i = 0; i < outFrames; i++) {
+      double posn = i*step;
+      int j = (int) posn;
+      double frac = posn - j;
+      int k = Math.min(j+1, numFrames-1);
+      for (int c = 0; c < 2; c++)
+        samples[i*2+c] = (short) Math.round( src[j*2+c]*(1-frac) + src[k*2+c]*frac );
+    }
+    return samples;
+  }  // end of decode()
+
+
+  private static short toSample(byte[] data, int offset, int bits,
+                                boolean signed, boolean bigEndian)
+  {
+    if (bits == 8)
+      return (short) ((signed ? data[offset] : (data[offset] & 0xff) - 128) << 8);
+    int lo = bigEndian ? data[offset+1] : data[offset];
+    int hi = bigEndian ? data[offset] : data[offset+1];
+    int v = ((hi & 0xff) << 8) | (lo & 0xff);
+    return (short) (signed ? v : v - 32768);
+  }  // end of toSample()
+
+
+  public boolean isStored(String name)
+  {  return sounds.containsKey(name);  }
+
+  public int numSounds()
+  {  return sounds.size();  }
+
+
+  public boolean setVoiceLimit(String name, int limit)
+  // at most limit voices may play name at once
+  {
+    Sound s = sounds.get(name);
+    if (s == null)
+      return false;
+    s.limit = Math.max(1, limit);
+    return true;
+  }  // end of setVoiceLimit()
+
+
+  public boolean setWatcher(String name, SoundsWatcher sw)
+  {
+    Sound s = sounds.get(name);
+    if (s == null)
+      return false;
+    s.watcher = sw;
+    return true;
+  }  // end of setWatcher()
+
+
+  public boolean remove(String name)
+  // stop the sound, and drop its buffer
+  {
+    Sound s = sounds.remove(name);
+    if (s == null)
+      return false;
+    commands.add( new Command(STOP, s, false) );
+    return true;
+  }  // end of remove()
+
+
+
+  // ------------------------ commands ---------------------------
+  // each returns false if there is no such sound
+
+
+  public boolean play(String name, boolean toLoop)
+  {  return queue(PLAY, name, toLoop);  }
+
+  public boolean stop(String name)
+  // stop all of the sound's voices
+  {  return queue(STOP, name, false);  }
+
+  public boolean pause(String name)
+  {  return queue(PAUSE, name, false);  }
+
+  public boolean resume(String name)
+  {  return queue(RESUME, name, false);  }
+
+
+  private boolean queue(int type, String name, boolean toLoop)
+  {
+    Sound s = sounds.get(name);
+    if (s == null)
+      return false;
+    commands.add( new Command(type, s, toLoop) );
+    return true;
+  }  // end of queue()
+
+
+
+  // ---------------------- the audio thread ---------------------
+
+
+  public void run()
+  // mix the voices into the line, a chunk at a time, forever
+  {
+    while (true) {
+      Command cmd;
+      while ((cmd = commands.poll()) != null)
+        carryOut(cmd);
+
+      mixChunk();
+      line.write(out, 0, out.length);   // blocks while the line is full
+    }
+  }  // end of run()
+
+
+  private void carryOut(Command cmd)
+  {
+    if (cmd.type == PLAY) {
+      startVoice(cmd.sound, cmd.toLoop);
+      return;
+    }
+    for (int i = 0; i < voices.length; i++) {
+      Voice v = voices[i];
+      if (v.sound != cmd.sound)
+        continue;
+      if (cmd.type == STOP)
+        endVoice(v);
+      else
+        v.isPaused = (cmd.type == PAUSE);
+    }
+  }  // end of carryOut()
+
+
+  private void startVoice(Sound s, boolean toLoop)
+  // start a voice for s, stealing one if need be
+  {
+    Voice free = null, oldestSame = null, oldest = null;
+    int numSame = 0, numActive = 0;
+    for (int i = 0; i < voices.length; i++) {
+      Voice v = voices[i];
+      if (v.sound == null) {
+        if (free == null)
+          free = v;
+        continue;
+      }
+      numActive++;
+      if (v.sound == s) {
+        numSame++;
+        if ((oldestSame == null) || (v.age < oldestSame.age))
+          oldestSame = v;
+      }
+      if (!v.isLooping && ((oldest == null) || (v.age < oldest.age)))
+        oldest = v;
+    }
+
+    Voice v;
+    if (numSame >= s.limit)
+      v = oldestSame;    // restart the sound's oldest voice
+    else if (free != null) {
+      v = free;
+      numActive++;
+    }
+    else
+      v = oldest;
+    if (v == null) {     // every voice is looping
+      dropped.incrementAndGet();
+      return;
+    }
+    if (v.sound != null) {
+      stolen.incrementAndGet();
+      endVoice(v);
+    }
+
+    v.sound = s;
+    v.posn = 0;
+    v.isLooping = toLoop;
+    v.isPaused = false;
+    v.age = numStarted++;
+    played.incrementAndGet();
+    if (numActive > mostVoices)
+      mostVoices = numActive;
+  }  // end of startVoice()
+
+
+  private void endVoice(Voice v)
+  {
+    SoundsWatcher w = v.sound.watcher;
+    String name = v.sound.name;
+    v.sound = null;
+    if (w != null)
+      w.atSequenceEnd(name, SoundsWatcher.STOPPED);
+  }  // end of endVoice()
+
+
+  private void mixChunk()
+  // mix the playing voices into out, clipping the sum
+  {
+    Arrays.fill(mix, 0);
+    for (int i = 0; i < voices.length; i++) {
+      Voice v = voices[i];
+      if ((v.sound == null) || v.isPaused)
+        continue;
+      short[] samples = v.sound.samples;
+      int j = 0;
+      while (j < mix.length) {
+        int n = Math.min(mix.length - j, samples.length - v.posn);
+        for (int k = 0; k < n; k++)
+          mix[j+k] += samples[v.posn+k];
+        j += n;
+        v.posn += n;
+        if (v.posn >= samples.length) {   // the end of the sound
+          if (!v.isLooping) {
+            endVoice(v);
+            break;
+          }
+          v.posn = 0;
+          SoundsWatcher w = v.sound.watcher;
+          if (w != null)
+            w.atSequenceEnd(v.sound.name, SoundsWatcher.REPLAYED);
+          if (samples.length == 0)
+            break;
+        }
+      }
+    }
+
+    for (int i = 0; i < mix.length; i++) {
+      int s = mix[i];
+      if (s > Short.MAX_VALUE)
+        s = Short.MAX_VALUE;
+      else if (s < Short.MIN_VALUE)
+        s = Short.MIN_VALUE;
+      out[i*2] = (byte) s;
+      out[i*2+1] = (byte) (s >> 8);
+    }
+  }  // end of mixChunk()
+
+
+
+  // ---------------------- statistics ---------------------------
+
+  public String getStats()
+  {
+    return played.get() + " voices played, " + stolen.get() + " stolen, " +
+           dropped.get() + " dropped; at most " + mostVoices + " of " +
+           voices.length + " at once";
+  }  // end of getStats()
+
+}  // end of SoundMixer class
@@ -0,0 +1,21 @@
+package timing;
+
+// LoadThreads.java
+// Anton Ridgway
+
+/* LoadThreads gives the number of threads the loaders (of the
+   images, clips and music) read their files on, unless they are
+   told otherwise: one per core, but no more than 4, since they all
+   read from the same disk.
+*/
+
+
+public class LoadThreads
+{
+  private static final int MAX_THREADS = 4;
+
+
+  public static int getDefault()
+  {  return Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());  }
+
+}  // end of LoadThreads class
@@ -0,0 +1,249 @@
+package timing;
+
+// StartupTrace.java
+// Anton Ridgway
+
+/* StartupTrace times the phases of the game's startup, from
+   setting up the full screen to the first frame being shown, and
+   then on until the assets streamed in behind the menu are loaded.
+
+   A span is started with begin() and recorded when its end() is
+   called; spans may be nested, and may be recorded on any thread,
+   so the loading threads' work on each asset is timed as well as
+   the phases which wait for it. Each span has a category, a name,
+   and optionally a detail, such as the file being loaded. The
+   phases of the startup have the category "startup"; the work on
+   the assets has the category of the assets (such as "images").
+
+   firstFrame() is called once the first frame has been shown, and
+   finish() once the last of the streamed assets is loaded. When both
+   have been called, the recording stops, and the spans are written
+   to startup-trace.json in the Chrome trace event format (a JSON
+   object holding a "traceEvents" array of complete, "X", events,
+   with their times in microsecs since the JVM started), which
+   chrome://tracing and Perfetto can show as a timeline. The object
+   also holds "firstFrameMs" and "loadedMs", the times from the JVM
+   starting to the first frame and to the end of the loading, the
+   time taken by each phase, and the total time of each kind of work
+   on the assets (summed over all threads), for tracking across
+   builds.
+
+   Spans ended after the trace is written are ignored, so the game's
+   later work does not keep adding to it.
+*/
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+
+public class StartupTrace
+{
+  private final static String TRACE_FNM = "startup-trace.json";
+
+  // the JVM's start, as a System.nanoTime() value
+  private static final long jvmStart = System.nanoTime() -
+                  ManagementFactory.getRuntimeMXBean().getUptime()*1000000L;
+
+  private static ArrayList<Span> spans = new ArrayList<Span>();
+  private static HashMap<Long, String> threadNames = new HashMap<Long, String>();
+  private static boolean isRecording = true;
+  private static long firstFrameTime = 0;   // since the JVM started; 0 until shown
+  private static long loadedTime = 0;       // since the JVM started; 0 until loaded
+
+
+  public static class Span
+  {
+    private String category, name, detail;
+    private long startTime, endTime;
+    private long threadId;
+
+    private Span(String category, String name, String detail)
+    {
+      this.category = category;
+      this.name = name;
+      this.detail = detail;
+      threadId = Thread.currentThread().getId();
+      startTime = System.nanoTime();
+    }
+
+    public void end()
+    // record the span, if it is the first time it is ended
+    {
+      if (endTime != 0)
+        return;
+      endTime = System.nanoTime();
+      record(this);
+    }
+  }  // end of Span class
+
+
+  public static Span begin(String category, String name)
+  {  return new Span(category, name, null);  }
+
+
+  public static Span begin(String category, String name, String detail)
+  {  return new Span(category, name, detail);  }
+
+
+  private static synchronized void record(Span s)
+  {
+    if (!isRecording)
+      return;
+    spans.add(s);
+    if (!threadNames.containsKey(s.threadId))
+      threadNames.put(s.threadId, Thread.currentThread().getName());
+  }  // end of record()
+
+
+  public static synchronized boolean isRecording()
+  {  return isRecording;  }
+
+
+
+  // --------------------- the report ---------------------------
+
+
+  public static void firstFrame()
+  /* The first frame has been shown. The trace is written once
+     finish() has been called as well. Only the first call does
+     anything. */
+  {
+    long t = System.nanoTime() - jvmStart;
+    synchronized (StartupTrace.class) {
+      if (firstFrameTime != 0)
+        return;
+      firstFrameTime = t;
+    }
+    System.out.println("First frame after " + (t/1000000L) + " ms");
+    writeIfDone();
+  }  // end of firstFrame()
+
+
+  public static void finish()
+  /* All the assets have been loaded. The trace is written once the
+     first frame has been shown as well. Only the first call does
+     anything. */
+  {
+    long t = System.nanoTime() - jvmStart;
+    synchronized (StartupTrace.class) {
+      if (loadedTime != 0)
+        return;
+      loadedTime = t;
+    }
+    System.out.println("Assets loaded after " + (t/1000000L) + " ms");
+    writeIfDone();
+  }  // end of finish()
+
+
+  private static void writeIfDone()
+  // stop recording and write the trace, once both times are known
+  {
+    ArrayList<Span> done;
+    HashMap<Long, String> names;
+    synchronized (StartupTrace.class) {
+      if (!isRecording || (firstFrameTime == 0) || (loadedTime == 0))
+        return;
+      isRecording = false;
+      done = spans;
+      names = threadNames;
+      spans = new ArrayList<Span>();
+    }
+
+    LinkedHashMap<String, Long> phases = new LinkedHashMap<String, Long>();
+    LinkedHashMap<String, Long> assets = new LinkedHashMap<String, Long>();
+    for (Span s : done)
+      if (s.category.equals("startup"))
+        addTime(phases, s.name, s);
+      else
+        addTime(assets, s.category + "/" + s.name, s);
+
+    try {
+      writeTrace(done, names, phases, assets);
+      System.out.println("Startup trace written to " + TRACE_FNM);
+    }
+    catch (IOException e) {
+      System.out.println("Could not write " + TRACE_FNM + ": " + e);
+    }
+  }  // end of writeIfDone()
+
+
+  private static void addTime(LinkedHashMap<String, Long> totals, String key, Span s)
+  {
+    Long t = totals.get(key);
+    totals.put(key, ((t == null) ? 0 : t) + (s.endTime - s.startTime));
+  }
+
+
+  private static void writeTrace(ArrayList<Span> done, HashMap<Long, String> names,
+                     LinkedHashMap<String, Long> phases, LinkedHashMap<String, Long> assets)
+                     throws IOException
+  {
+    PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter(TRACE_FNM)));
+    out.println("{");
+    out.println("  \"firstFrameMs\": " + ms(firstFrameTime) + ",");
+    out.println("  \"loadedMs\": " + ms(loadedTime) + ",");
+    out.println("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",");
+    out.println("  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",");
+
+    writeTotals(out, "phasesMs", phases);
+    writeTotals(out, "assetTotalsMs", assets);
+
+    out.println("  \"displayTimeUnit\": \"ms\",");
+    out.println("  \"traceEvents\": [");
+    for (Map.Entry<Long, String> e : names.entrySet())
+      out.println("    {\"ph\": \"M\", \"name\": \"thread_name\", \"pid\": 1, \"tid\": " +
+                  e.getKey() + ", \"args\": {\"name\": " + quote(e.getValue()) + "}},");
+    for (int i = 0; i < done.size(); i++) {
+      Span s = done.get(i);
+      out.print("    {\"ph\": \"X\", \"cat\": " + quote(s.category) +
+                ", \"name\": " + quote(s.name) +
+                ", \"ts\": " + (s.startTime - jvmStart)/1000L +
+                ", \"dur\": " + (s.endTime - s.startTime)/1000L +
+                ", \"pid\": 1, \"tid\": " + s.threadId);
+      if (s.detail != null)
+        out.print(", \"args\": {\"detail\": " + quote(s.detail) + "}");
+      out.println("}" + ((i < done.size()-1) ? "," : ""));
+    }
+    out.println("  ]");
+    out.println("}");
+    out.close();
+    if (out.checkError())
+      throw new IOException("write failed");
+  }  // end of writeTrace()
+
+
+  private static void writeTotals(PrintWriter out, String field,
+                                  LinkedHashMap<String, Long> totals)
+  {
+    out.println("  " + quote(field) + ": {");
+    int i = 0;
+    for (Map.Entry<String, Long> e : totals.entrySet())
+      out.println("    " + quote(e.getKey()) + ": " + ms(e.getValue()) +
+                  ((++i < totals.size()) ? "," : ""));
+    out.println("  },");
+  }  // end of writeTotals()
+
+
+  private static String ms(long nanos)
+  // nanosecs as millisecs, to 2 decimal places
+  {  return String.format(Locale.ROOT, "%.2f", nanos/1e6);  }
+
+
+  private static String quote(String s)
+  // s as a JSON string
+  {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      if ((ch == '"') || (ch == '\\'))
+        sb.append('\\').append(ch);
+      else if (ch < ' ')
+        sb.append(String.format("\\u%04x", (int) ch));
+      else
+        sb.append(ch);
+    }
+    return sb.append('"').toString();
+  }  // end of quote()
+
+}  // end of StartupTrace class